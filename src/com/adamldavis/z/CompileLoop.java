@@ -0,0 +1,244 @@
+/** Copyright 2012, Adam L. Davis, all rights reserved. */
+package com.adamldavis.z;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.adamldavis.z.ZNode.NodeStatus;
+import com.adamldavis.z.ZNode.ZNodeType;
+import com.adamldavis.z.api.Compiler;
+import com.adamldavis.z.api.DependencyManager;
+import com.adamldavis.z.api.LineError;
+import com.adamldavis.z.api.ProgressListener;
+import com.adamldavis.z.java.JavaMavenCompiler;
+import com.adamldavis.z.perf.FrameStats;
+import com.adamldavis.z.perf.FrameStats.Metric;
+
+/**
+ * Compiles in the background after saves. Requests are debounced per source
+ * folder (module): each one (re)schedules the compile of its folder, so a
+ * burst of saves ends in one run, and saves in other modules do not hold it
+ * back. Runs happen one at a time on a daemon thread; a request made while a
+ * run of its folder is going supersedes it, so its results are dropped and a
+ * new run follows. The errors of each run that is not superseded go to the
+ * listener.
+ *
+ * @author Adam L. Davis
+ *
+ */
+public class CompileLoop {
+
+	/**
+	 * Told the errors and warnings of each compile and the source folder that
+	 * was compiled (null if not known), on the compile thread.
+	 */
+	public interface Listener {
+		void compiled(File sourceFolder, List<LineError> errors);
+	}
+
+	/** Milliseconds to wait for more saves before compiling. */
+	public static final long DELAY = 100;
+
+	private static final Logger log = LoggerFactory
+			.getLogger(CompileLoop.class);
+
+	private static final ProgressListener NO_PROGRESS = new ProgressListener() {
+		@Override
+		public void update(int progress) {
+		}
+	};
+
+	private final ScheduledExecutorService executor = Executors
+			.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					final Thread thread = new Thread(r, "z-compile");
+					thread.setDaemon(true);
+					thread.setPriority(Thread.NORM_PRIORITY - 1);
+					return thread;
+				}
+			});
+
+	private final Compiler compiler;
+
+	private final DependencyManager dependencyManager;
+
+	private final Listener listener;
+
+	/* the compile waiting or running for a source folder */
+	private static class Pending {
+		ScheduledFuture<?> future;
+
+		/* incremented by each request, so a run knows if it was superseded */
+		long generation;
+
+		/* when the first request not yet compiled was made */
+		long requested;
+	}
+
+	/* by source folder (null if not known) */
+	private final Map<File, Pending> pending = new HashMap<File, Pending>();
+
+	public CompileLoop(Compiler compiler, DependencyManager dependencyManager,
+			Listener listener) {
+		this.compiler = compiler;
+		this.dependencyManager = dependencyManager;
+		this.listener = listener;
+	}
+
+	/** Stops the compile thread; a compile running is dropped. */
+	public synchronized void shutdown() {
+		pending.clear();
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Compiles what the node belongs to after DELAY ms without requests for
+	 * the same source folder. Nothing is done if the source folder is known
+	 * but does not exist (e.g. the pom of a reactor).
+	 */
+	public void request(final ZNode node) {
+		final File folder = getSourceFolder(node);
+		if (folder != null && !folder.isDirectory()) {
+			log.debug("no sources to compile in {}", folder);
+			return;
+		}
+		synchronized (this) {
+			if (executor.isShutdown()) {
+				return;
+			}
+			Pending p = pending.get(folder);
+			if (p == null) {
+				pending.put(folder, p = new Pending());
+			} else if (p.future != null) {
+				p.future.cancel(false);
+			}
+			if (p.requested == 0) {
+				p.requested = FrameStats.getInstance().start();
+			}
+			final Pending request = p;
+			final long run = ++p.generation;
+			p.future = executor.schedule(new Runnable() {
+				@Override
+				public void run() {
+					compile(node, folder, request, run);
+				}
+			}, DELAY, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	void compile(ZNode node, File folder, Pending request, long run) {
+		final List<LineError> errors;
+		try {
+			errors = compiler.compile(node, NO_PROGRESS);
+		} catch (RuntimeException e) {
+			log.error("compile failed", e);
+			return;
+		}
+		final long start;
+		synchronized (this) {
+			if (pending.get(folder) != request || run != request.generation) {
+				log.debug("compile superseded");
+				return;
+			}
+			pending.remove(folder);
+			start = request.requested;
+		}
+		listener.compiled(folder, errors);
+		FrameStats.getInstance().record(Metric.COMPILE, start);
+	}
+
+	private File getSourceFolder(ZNode node) {
+		if (dependencyManager == null) {
+			return null;
+		}
+		final File root = JavaMavenCompiler.getRoot(dependencyManager,
+				node.getParentFile());
+		return root == null ? null : dependencyManager
+				.getSourceFolder(new File(root, dependencyManager
+						.getStandardFileName()));
+	}
+
+	/**
+	 * Sets the status of the given nodes (and their loaded submodules) in the
+	 * given source folder from the errors: FAIL if an error is in the node's
+	 * lines, else WARNING if a warning is, else OKAY. Classes take in all
+	 * their file, methods their lines of it. Nodes of other folders (other
+	 * modules) keep their status.
+	 */
+	public static void updateStatus(Collection<ZNode> nodes,
+			File sourceFolder, List<LineError> errors) {
+		if (sourceFolder == null) {
+			return;
+		}
+		final String folder = canonical(sourceFolder).getPath()
+				+ File.separator;
+		for (ZNode node : nodes) {
+			updateStatus(node, folder, errors);
+		}
+	}
+
+	static void updateStatus(ZNode node, String folder, List<LineError> errors) {
+		final File file;
+		int first = 0, last = Integer.MAX_VALUE;
+
+		if (node.getNodeType() == ZNodeType.METHOD) {
+			// node lines count from 0, compiler lines from 1
+			file = node.getParentFile();
+			first = node.getLineNumber() + 1;
+			last = first + Math.max(node.getCodeLineSize(), 1) - 1;
+		} else if (node.getNodeType() == ZNodeType.CLASS) {
+			file = new File(node.getParentFile(), node.getName()
+					+ (node.getExtension().length() > 0 ? "."
+							+ node.getExtension() : ""));
+		} else {
+			file = null;
+		}
+		if (file != null && canonical(file).getPath().startsWith(folder)) {
+			NodeStatus status = NodeStatus.OKAY;
+			for (LineError error : errors) {
+				final int line = error.getLineNumber();
+				if (line < first || line > last
+						|| !sameFile(file, error.getLocation())) {
+					continue;
+				}
+				if (!error.isWarning()) {
+					status = NodeStatus.FAIL;
+					break;
+				}
+				status = NodeStatus.WARNING;
+			}
+			node.setStatus(status);
+		}
+		for (ZNode sub : node.getSubmodules()) {
+			updateStatus(sub, folder, errors);
+		}
+	}
+
+	private static boolean sameFile(File file, String location) {
+		final File other = new File(location);
+		return file.getName().equals(other.getName())
+				&& canonical(file).equals(canonical(other));
+	}
+
+	private static File canonical(File file) {
+		try {
+			return file.getCanonicalFile();
+		} catch (IOException e) {
+			return file.getAbsoluteFile();
+		}
+	}
+
+}
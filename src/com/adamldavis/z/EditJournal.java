@@ -0,0 +1,339 @@
+/** Copyright 2012, Adam L. Davis, all rights reserved. */
+package com.adamldavis.z;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.zip.CRC32;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.adamldavis.z.ZNode.ZNodeType;
+
+/**
+ * Write-ahead journal of node edits (~/.z-journal). Each edit handed to the
+ * save queue is appended with the node's text, and marked saved once
+ * written; a background thread writes whatever has queued up since its last
+ * write and syncs once for all of it (group commit), so recording an edit
+ * never waits for the disk. Whenever nothing is left unsaved the journal is
+ * emptied. After a crash, {@link #getUnsaved()} gives the edits that never
+ * made it into their files.
+ *
+ * @author Adam L. Davis
+ *
+ */
+public class EditJournal {
+
+	private static final Logger log = LoggerFactory
+			.getLogger(EditJournal.class);
+
+	public static final String FILENAME = ".z-journal";
+
+	static final int VERSION = 1;
+
+	/** An edit of one node, or (if saved) the note that it was written. */
+	public static class Edit {
+		public final boolean saved;
+
+		public final ZNodeType nodeType;
+
+		public final File file;
+
+		public final String name;
+
+		public final int lineNumber;
+
+		public final int originalSize;
+
+		/** Last modification of the file the edit was made against. */
+		public final long baseModified;
+
+		public final String code;
+
+		Edit(boolean saved, ZNodeType nodeType, File file, String name,
+				int lineNumber, int originalSize, long baseModified, String code) {
+			this.saved = saved;
+			this.nodeType = nodeType;
+			this.file = file;
+			this.name = name;
+			this.lineNumber = lineNumber;
+			this.originalSize = originalSize;
+			this.baseModified = baseModified;
+			this.code = code;
+		}
+
+		Edit(boolean saved, ZNode node, String code) {
+			this(saved, node.getNodeType(), node.getParentFile(), node
+					.getName(), node.getLineNumber(), node.getOriginalSize(),
+					node.getParentFile().lastModified(), code);
+		}
+
+		String key() {
+			return nodeType + ":" + file + "/" + name;
+		}
+
+		/** If the file was not changed since the edit was made. */
+		public boolean isCurrent() {
+			return file.lastModified() == baseModified;
+		}
+
+		/** A node as it was when edited, with the edited code. */
+		public ZNode toNode() {
+			final ZNode node = new ZNode(nodeType, name, code, lineNumber, file);
+			node.setOriginalSize(originalSize);
+			return node;
+		}
+
+		@Override
+		public String toString() {
+			return name + " in " + file;
+		}
+	}
+
+	final File file;
+
+	private final BlockingQueue<Edit> queue = new LinkedBlockingQueue<Edit>();
+
+	/* ends the writer */
+	private static final Edit STOP = new Edit(true, ZNodeType.METHOD,
+			new File(""), "", 0, 0, 0, "");
+
+	/* edits not saved yet, by node */
+	private final Map<String, Edit> unsaved = new LinkedHashMap<String, Edit>();
+
+	private volatile Thread writer;
+
+	public EditJournal() {
+		this(new File(System.getProperty("user.home", "."), FILENAME));
+	}
+
+	public EditJournal(File file) {
+		this.file = file;
+	}
+
+	/** If edits are being written to the journal, see {@link #start()}. */
+	public boolean isRecording() {
+		return writer != null;
+	}
+
+	/** Records the edited code of the node (cheap, does not block). */
+	public void edited(ZNode node, String code) {
+		add(new Edit(false, node, code));
+	}
+
+	/** Records that the node was written to its file. */
+	public void saved(ZNode node) {
+		add(new Edit(true, node, ""));
+	}
+
+	private void add(Edit edit) {
+		synchronized (unsaved) {
+			if (edit.saved) {
+				unsaved.remove(edit.key());
+			} else {
+				unsaved.remove(edit.key());
+				unsaved.put(edit.key(), edit);
+			}
+		}
+		if (writer != null) {
+			queue.add(edit);
+		}
+	}
+
+	/**
+	 * Reads the edits left unsaved in the journal, the last one per node in
+	 * the order edited. A torn record at the end (a crash while writing) ends
+	 * the journal.
+	 */
+	public List<Edit> getUnsaved() {
+		final Map<String, Edit> edits = new LinkedHashMap<String, Edit>();
+		if (!file.isFile()) {
+			return new ArrayList<Edit>();
+		}
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(file)));
+			if (in.readInt() != VERSION) {
+				return new ArrayList<Edit>();
+			}
+			while (true) {
+				final int length = in.readInt();
+				if (length < 0 || length > file.length()) {
+					log.warn("corrupt record in {}", file);
+					break;
+				}
+				final byte[] record = new byte[length];
+				in.readFully(record);
+				final CRC32 crc = new CRC32();
+				crc.update(record);
+				if (in.readLong() != crc.getValue()) {
+					log.warn("corrupt record in {}", file);
+					break;
+				}
+				final Edit edit = decode(record);
+				edits.remove(edit.key());
+				if (!edit.saved) {
+					edits.put(edit.key(), edit);
+				}
+			}
+		} catch (EOFException e) {
+			// end of journal
+		} catch (IOException e) {
+			log.error("could not read " + file, e);
+		} catch (RuntimeException e) {
+			log.error("could not read " + file, e);
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+		return new ArrayList<Edit>(edits.values());
+	}
+
+	/**
+	 * Keeps the journal for later by renaming it (to its name plus the
+	 * current time), e.g. when its edits were not recovered, so that
+	 * {@link #start()} does not empty it. Returns false if that failed.
+	 */
+	public boolean setAside() {
+		if (!file.isFile()) {
+			return true;
+		}
+		final File aside = new File(file.getPath() + "."
+				+ System.currentTimeMillis());
+		if (file.renameTo(aside)) {
+			log.warn("unrecovered edits kept in {}", aside);
+			return true;
+		}
+		log.error("could not rename {} to {}", file, aside);
+		return false;
+	}
+
+	/**
+	 * Empties the journal (after {@link #getUnsaved()} was dealt with) and
+	 * starts recording.
+	 */
+	public void start() {
+		final FileOutputStream out;
+		try {
+			out = new FileOutputStream(file, false);
+			final DataOutputStream data = new DataOutputStream(out);
+			data.writeInt(VERSION);
+			data.flush();
+		} catch (IOException e) {
+			log.error("journal disabled, could not write " + file, e);
+			return;
+		}
+		final Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				write(out);
+			}
+		}, "z-journal");
+		thread.setDaemon(true);
+		writer = thread;
+		thread.start();
+	}
+
+	/** Writes what is queued and stops recording, e.g. on exit. */
+	public void stop() {
+		final Thread thread = writer;
+		if (thread != null) {
+			writer = null;
+			queue.add(STOP);
+			try {
+				thread.join(5000);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	void write(FileOutputStream out) {
+		final List<Edit> batch = new ArrayList<Edit>();
+		boolean stop = false;
+		try {
+			while (!stop) {
+				batch.add(queue.take());
+				queue.drainTo(batch);
+				stop = batch.remove(STOP);
+				final BufferedOutputStream buffer = new BufferedOutputStream(
+						out, 1 << 16);
+				final DataOutputStream data = new DataOutputStream(buffer);
+				for (Edit edit : batch) {
+					final byte[] record = encode(edit);
+					final CRC32 crc = new CRC32();
+					crc.update(record);
+					data.writeInt(record.length);
+					data.write(record);
+					data.writeLong(crc.getValue());
+				}
+				data.flush();
+				out.getFD().sync();
+				batch.clear();
+				synchronized (unsaved) {
+					if (unsaved.isEmpty() && queue.isEmpty()) {
+						// all saved, start over
+						out.getChannel().truncate(4).position(4);
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			// stopped
+		} catch (IOException e) {
+			log.error("journal disabled, could not write " + file, e);
+			writer = null;
+		} finally {
+			IOUtils.closeQuietly(out);
+		}
+	}
+
+	static byte[] encode(Edit edit) throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final DataOutputStream out = new DataOutputStream(bytes);
+		out.writeBoolean(edit.saved);
+		out.writeUTF(edit.nodeType.name());
+		out.writeUTF(edit.file.getPath());
+		out.writeUTF(edit.name);
+		out.writeInt(edit.lineNumber);
+		out.writeInt(edit.originalSize);
+		out.writeLong(edit.baseModified);
+		final byte[] code = edit.code.getBytes("UTF-8");
+		out.writeInt(code.length);
+		out.write(code);
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	static Edit decode(byte[] record) throws IOException {
+		final DataInputStream in = new DataInputStream(
+				new ByteArrayInputStream(record));
+		final boolean saved = in.readBoolean();
+		final ZNodeType nodeType = ZNodeType.valueOf(in.readUTF());
+		final File file = new File(in.readUTF());
+		final String name = in.readUTF();
+		final int lineNumber = in.readInt();
+		final int originalSize = in.readInt();
+		final long baseModified = in.readLong();
+		final byte[] code = new byte[in.readInt()];
+		in.readFully(code);
+		return new Edit(saved, nodeType, file, name, lineNumber, originalSize,
+				baseModified, new String(code, "UTF-8"));
+	}
+
+}
@@ -4,9 +4,7 @@ package com.adamldavis.z;
 import java.awt.FlowLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.awt.event.KeyAdapter;
-import java.awt.event.KeyEvent;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 
 import javax.swing.DefaultComboBoxModel;
@@ -14,21 +12,26 @@ import javax.swing.JButton;
 import javax.swing.JComboBox;
 import javax.swing.JFrame;
 import javax.swing.JTextField;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+
+import com.adamldavis.z.java.LocalRepository;
+import com.adamldavis.z.java.LocalRepository.Artifact;
 
 /**
+ * Asks for a new dependency, completing what is typed from the artifacts in
+ * the local repository (see {@link LocalRepository}).
+ * 
  * @author Adam L. Davis
  * 
  */
 public class FakeDependencySelector extends JFrame {
 
-	static final String[] options = new String[] { "commons-beanutils",
-			"commons-cli", "commons-codec", "commons-collections",
-			"commons-digester", "commons-discovery", "commons-email",
-			"commons-fileupload", "commons-httpclient", "commons-io",
-			"commons-lang", "commons-logging", "commons-pool",
-			"commons-validator" };
+	static final int MAX_RESULTS = 50;
+
+	private final LocalRepository repository = LocalRepository.getInstance();
 
-	private String name;
+	private volatile Artifact artifact;
 
 	private JComboBox box = new JComboBox();
 
@@ -40,7 +43,7 @@ public class FakeDependencySelector extends JFrame {
 
 	public FakeDependencySelector() {
 		super("New dependency");
-		setSize(210, 150);
+		setSize(300, 150);
 		getContentPane().setLayout(new FlowLayout(FlowLayout.LEFT));
 		getContentPane().add(field);
 		getContentPane().add(box);
@@ -49,7 +52,7 @@ public class FakeDependencySelector extends JFrame {
 		ok.addActionListener(new ActionListener() {
 			@Override
 			public void actionPerformed(ActionEvent e) {
-				name = (String) box.getSelectedItem();
+				artifact = (Artifact) box.getSelectedItem();
 				dispose();
 			}
 		});
@@ -59,21 +62,19 @@ public class FakeDependencySelector extends JFrame {
 				dispose();
 			}
 		});
-		field.addKeyListener(new KeyAdapter() {
+		field.getDocument().addDocumentListener(new DocumentListener() {
+			@Override
+			public void insertUpdate(DocumentEvent e) {
+				update();
+			}
+
 			@Override
-			public void keyTyped(KeyEvent e) {
-				String t = field.getText() + e.getKeyChar();
-				if (t.length() > 5) {
-					List<String> list = new LinkedList<String>();
-					for (String opt : options) {
-						if (opt.startsWith(t)) {
-							list.add(opt);
-						}
-					}
-					box.setModel(new DefaultComboBoxModel(list
-							.toArray(new String[0])));
-					repaint();
-				}
+			public void removeUpdate(DocumentEvent e) {
+				update();
+			}
+
+			@Override
+			public void changedUpdate(DocumentEvent e) {
 			}
 		});
 		setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
@@ -81,18 +82,24 @@ public class FakeDependencySelector extends JFrame {
 		setVisible(true);
 	}
 
-	public String get() {
-		// name = (String) JOptionPane.showInputDialog(null,
-		// "New maven dependency", ZNodeType.DEPENDENCY.name(),
-		// JOptionPane.QUESTION_MESSAGE, null, options, "commons-io");
+	/* searches the index of the local repository as the user types */
+	void update() {
+		final String t = field.getText().trim();
+		final List<Artifact> list = t.length() < 2 ? new ArrayList<Artifact>(0)
+				: repository.search(t, MAX_RESULTS);
+		box.setModel(new DefaultComboBoxModel(list.toArray()));
+		repaint();
+	}
 
-		while (name == null && isVisible()) {
+	/** Waits for the user to choose; null if cancelled. */
+	public Artifact get() {
+		while (artifact == null && isVisible()) {
 			try {
 				Thread.sleep(200);
 			} catch (InterruptedException e) {
 				e.printStackTrace();
 			}
 		}
-		return name;
+		return artifact;
 	}
 }
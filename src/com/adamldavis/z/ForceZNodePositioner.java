@@ -0,0 +1,369 @@
+/** Copyright 2012, Adam L. Davis, all rights reserved. */
+package com.adamldavis.z;
+
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Force-directed layout of sub-modules, linked by imports and calls between
+ * siblings. Repulsion uses a Barnes-Hut quadtree (O(n log n) per iteration)
+ * and is split across all cores for large graphs. The simulation is kept per
+ * selected node, so every call continues where the last one stopped; call
+ * {@link #isConverged(ZNode)} to find out if more calls would still move
+ * anything.
+ *
+ * @author Adam L. Davis
+ *
+ */
+public class ForceZNodePositioner implements ZNodePositioner {
+
+	/** Most iterations run per call to getNewPositions. */
+	public static final int ITERATIONS_PER_CALL = 30;
+
+	/** Time per call after which iterations stop (at least one runs). */
+	public static final long BUDGET_NANOS = 40 * 1000 * 1000L;
+
+	/** Barnes-Hut opening angle. */
+	static final double THETA = 0.8;
+
+	/** Below this many nodes everything runs on the calling thread. */
+	static final int PARALLEL_MIN = 512;
+
+	static final double MIN_TEMPERATURE = 0.005;
+
+	private static final int threads = Runtime.getRuntime()
+			.availableProcessors();
+
+	private static final ExecutorService pool = Executors.newFixedThreadPool(
+			threads, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "Z force layout");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+	private final Map<ZNode, Simulation> simulations = new WeakHashMap<ZNode, Simulation>();
+
+	@Override
+	public synchronized Map<ZNode, Point2D> getNewPositions(ZNode selected) {
+		final Map<ZNode, Point2D> map = new HashMap<ZNode, Point2D>();
+		final List<ZNode> subs = selected.getSubmodules();
+		Simulation sim = simulations.get(selected);
+
+		if (sim == null || !sim.isOf(subs)) {
+			sim = new Simulation(subs);
+			simulations.put(selected, sim);
+		}
+		final long start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS_PER_CALL && !sim.isConverged()
+				&& (i == 0 || System.nanoTime() - start < BUDGET_NANOS); i++) {
+			sim.step();
+		}
+		map.put(selected, new Point2D.Float(0, 0));
+		int i = 0;
+		final int deps = selected.getDependencies().size();
+		for (ZNode dep : selected.getDependencies()) {
+			map.put(dep, new Point2D.Float(-0.9f, 2f * (i++ + 1) / (deps + 1)
+					- 1f));
+		}
+		sim.copyTo(map);
+		return map;
+	}
+
+	public synchronized boolean isConverged(ZNode selected) {
+		final Simulation sim = simulations.get(selected);
+		return sim == null || sim.isConverged();
+	}
+
+	/** Finds links between siblings by imports and method calls. */
+	static int[][] findEdges(List<ZNode> nodes) {
+		final Map<String, Integer> index = new HashMap<String, Integer>();
+		for (int i = 0; i < nodes.size(); i++) {
+			index.put(key(nodes.get(i).getName()), i);
+		}
+		final List<List<Integer>> adj = new ArrayList<List<Integer>>();
+		for (int i = 0; i < nodes.size(); i++) {
+			adj.add(new ArrayList<Integer>());
+		}
+		for (int i = 0; i < nodes.size(); i++) {
+			final ZNode node = nodes.get(i);
+			for (ZNode dep : node.getDependencies()) {
+				link(adj, i, index.get(key(dep.getName())));
+				for (String line : dep.getCodeLines()) {
+					link(adj, i, index.get(key(line)));
+				}
+			}
+			for (ZNode sub : node.getSubmodules()) {
+				link(adj, i, index.get(key(sub.getName())));
+				for (ZNode dep : sub.getDependencies()) {
+					link(adj, i, index.get(key(dep.getName())));
+				}
+			}
+		}
+		final int[][] edges = new int[nodes.size()][];
+		for (int i = 0; i < edges.length; i++) {
+			final List<Integer> list = adj.get(i);
+			edges[i] = new int[list.size()];
+			for (int j = 0; j < edges[i].length; j++) {
+				edges[i][j] = list.get(j);
+			}
+		}
+		return edges;
+	}
+
+	/** Short name: last part of a qualified name, without parameters. */
+	static String key(String name) {
+		String key = name.replace('/', '.').replace('\\', '.');
+		final int paren = key.indexOf('(');
+		if (paren >= 0) {
+			key = key.substring(0, paren);
+		}
+		return key.substring(key.lastIndexOf('.') + 1).trim();
+	}
+
+	private static void link(List<List<Integer>> adj, int i, Integer j) {
+		if (j != null && j != i && !adj.get(i).contains(j)) {
+			adj.get(i).add(j);
+			adj.get(j).add(i);
+		}
+	}
+
+	/** Fruchterman-Reingold simulation with Barnes-Hut repulsion. */
+	static class Simulation {
+
+		final ZNode[] nodes;
+
+		final double[] x, y, dx, dy;
+
+		final int[][] edges;
+
+		/** Ideal edge length. */
+		final double k;
+
+		double temperature;
+
+		Simulation(List<ZNode> subs) {
+			final int n = subs.size();
+			nodes = subs.toArray(new ZNode[n]);
+			x = new double[n];
+			y = new double[n];
+			dx = new double[n];
+			dy = new double[n];
+			edges = findEdges(subs);
+			k = 1.0 / Math.sqrt(Math.max(1, n));
+			temperature = 0.1;
+			// deterministic sunflower start
+			final double golden = Math.PI * (3 - Math.sqrt(5));
+			for (int i = 0; i < n; i++) {
+				final double r = Math.sqrt((i + 0.5) / n);
+				x[i] = r * Math.cos(i * golden);
+				y[i] = r * Math.sin(i * golden);
+			}
+		}
+
+		/** True if it simulates exactly the given nodes, in that order. */
+		boolean isOf(List<ZNode> subs) {
+			if (nodes.length != subs.size()) {
+				return false;
+			}
+			for (int i = 0; i < nodes.length; i++) {
+				if (nodes[i] != subs.get(i)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		boolean isConverged() {
+			return temperature < MIN_TEMPERATURE || nodes.length < 2;
+		}
+
+		void step() {
+			final QuadTree tree = new QuadTree(x, y);
+
+			if (nodes.length < PARALLEL_MIN) {
+				forces(tree, 0, nodes.length);
+			} else {
+				final List<Future<?>> futures = new ArrayList<Future<?>>();
+				final int chunk = (nodes.length + threads - 1) / threads;
+				for (int start = 0; start < nodes.length; start += chunk) {
+					final int from = start;
+					final int to = Math.min(nodes.length, start + chunk);
+					futures.add(pool.submit(new Callable<Void>() {
+						@Override
+						public Void call() {
+							forces(tree, from, to);
+							return null;
+						}
+					}));
+				}
+				for (Future<?> future : futures) {
+					try {
+						future.get();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						return;
+					} catch (ExecutionException e) {
+						throw new RuntimeException(e.getCause());
+					}
+				}
+			}
+			for (int i = 0; i < nodes.length; i++) {
+				final double d = Math.sqrt(dx[i] * dx[i] + dy[i] * dy[i]);
+				if (d > 0) {
+					final double move = Math.min(d, temperature);
+					x[i] += dx[i] / d * move;
+					y[i] += dy[i] / d * move;
+				}
+			}
+			temperature *= 0.95;
+		}
+
+		/** Computes displacement of nodes from..to (exclusive). */
+		void forces(QuadTree tree, int from, int to) {
+			final double k2 = k * k;
+			final double[] f = new double[2];
+
+			for (int i = from; i < to; i++) {
+				f[0] = f[1] = 0;
+				tree.repulse(x[i], y[i], k2, f);
+				for (int j : edges[i]) {
+					final double ex = x[j] - x[i], ey = y[j] - y[i];
+					final double d = Math.sqrt(ex * ex + ey * ey);
+					f[0] += ex * d / k;
+					f[1] += ey * d / k;
+				}
+				// gravity keeps unlinked parts together
+				f[0] -= x[i] * k;
+				f[1] -= y[i] * k;
+				dx[i] = f[0];
+				dy[i] = f[1];
+			}
+		}
+
+		/** Normalizes into x 0.1 to 1 and y -1 to 1 (right of selected). */
+		void copyTo(Map<ZNode, Point2D> map) {
+			double minX = Double.MAX_VALUE, maxX = -Double.MAX_VALUE;
+			double minY = Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+			for (int i = 0; i < nodes.length; i++) {
+				minX = Math.min(minX, x[i]);
+				maxX = Math.max(maxX, x[i]);
+				minY = Math.min(minY, y[i]);
+				maxY = Math.max(maxY, y[i]);
+			}
+			final double w = Math.max(maxX - minX, 1e-9);
+			final double h = Math.max(maxY - minY, 1e-9);
+			for (int i = 0; i < nodes.length; i++) {
+				map.put(nodes[i], new Point2D.Float(
+						(float) (0.1 + 0.9 * (x[i] - minX) / w),
+						(float) (-1 + 2 * (y[i] - minY) / h)));
+			}
+		}
+	}
+
+	/** Barnes-Hut quadtree over unit-mass points; read-only once built. */
+	static class QuadTree {
+
+		final double cx, cy, half;
+
+		double mass, mx, my;
+
+		QuadTree[] children;
+
+		/** First point inserted, kept until the node is split. */
+		double px, py;
+
+		boolean leaf = true;
+
+		QuadTree(double[] x, double[] y) {
+			double minX = Double.MAX_VALUE, maxX = -Double.MAX_VALUE;
+			double minY = Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+			for (int i = 0; i < x.length; i++) {
+				minX = Math.min(minX, x[i]);
+				maxX = Math.max(maxX, x[i]);
+				minY = Math.min(minY, y[i]);
+				maxY = Math.max(maxY, y[i]);
+			}
+			this.cx = (minX + maxX) / 2;
+			this.cy = (minY + maxY) / 2;
+			this.half = Math.max(maxX - minX, maxY - minY) / 2 + 1e-9;
+			for (int i = 0; i < x.length; i++) {
+				insert(x[i], y[i], 0);
+			}
+		}
+
+		QuadTree(double cx, double cy, double half) {
+			this.cx = cx;
+			this.cy = cy;
+			this.half = half;
+		}
+
+		void insert(double x, double y, int depth) {
+			mx = (mx * mass + x) / (mass + 1);
+			my = (my * mass + y) / (mass + 1);
+			mass++;
+			if (mass == 1) {
+				px = x;
+				py = y;
+				return;
+			}
+			// coincident points stop splitting eventually
+			if (depth > 40) {
+				return;
+			}
+			if (leaf) {
+				leaf = false;
+				children = new QuadTree[4];
+				child(px, py).insert(px, py, depth + 1);
+			}
+			child(x, y).insert(x, y, depth + 1);
+		}
+
+		private QuadTree child(double x, double y) {
+			final int q = (x < cx ? 0 : 1) + (y < cy ? 0 : 2);
+			if (children[q] == null) {
+				final double h = half / 2;
+				children[q] = new QuadTree(cx + (x < cx ? -h : h), cy
+						+ (y < cy ? -h : h), h);
+			}
+			return children[q];
+		}
+
+		/** Adds repulsion k2/d from all points onto f. */
+		void repulse(double x, double y, double k2, double[] f) {
+			if (mass == 0) {
+				return;
+			}
+			final double ex = x - mx, ey = y - my;
+			final double d2 = ex * ex + ey * ey;
+
+			if (leaf || (2 * half) * (2 * half) < THETA * THETA * d2) {
+				if (d2 < 1e-18) {
+					return; // itself
+				}
+				final double s = mass * k2 / d2;
+				f[0] += ex * s;
+				f[1] += ey * s;
+				return;
+			}
+			for (QuadTree child : children) {
+				if (child != null) {
+					child.repulse(x, y, k2, f);
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,241 @@
+/** Copyright 2012, Adam L. Davis, all rights reserved. */
+package com.adamldavis.z;
+
+import java.awt.geom.Point2D;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Remembers computed and user-adjusted positions of sub-modules and
+ * dependencies per node (in the -1 to 1 range used by positioners), so a
+ * node whose children have not changed can skip its positioner. Stored as a
+ * small binary file next to the user settings (~/.z-layout).
+ *
+ * @author Adam L. Davis
+ *
+ */
+public class LayoutStore {
+
+	private static final Logger log = LoggerFactory
+			.getLogger(LayoutStore.class);
+
+	public static final String FILENAME = ".z-layout";
+
+	static final int VERSION = 1;
+
+	/** Most nodes remembered; least recently used are dropped. */
+	static final int MAX_ENTRIES = 4000;
+
+	/** Positions of the children of one node. */
+	static class Entry {
+		final long signature;
+
+		final Map<String, float[]> positions = new HashMap<String, float[]>();
+
+		Entry(long signature) {
+			this.signature = signature;
+		}
+	}
+
+	final File file;
+
+	final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16,
+			0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(
+				Map.Entry<String, LayoutStore.Entry> eldest) {
+			return size() > MAX_ENTRIES;
+		}
+	};
+
+	private boolean dirty;
+
+	public LayoutStore() {
+		this(new File(System.getProperty("user.home", "."), FILENAME));
+	}
+
+	public LayoutStore(File file) {
+		this.file = file;
+		load();
+	}
+
+	/** Key of the given node for the given layout variant (e.g. BLOOM/LR). */
+	static String key(ZNode node, String variant) {
+		return node.getNodeType() + ":" + node.getParentFile() + "/"
+				+ node.getName() + "|" + variant;
+	}
+
+	/** 64-bit FNV-1a hash of the names of sub-modules and dependencies. */
+	static long signature(ZNode node, boolean withDeps) {
+		long hash = 0xcbf29ce484222325L;
+		hash = hash(hash, node.getSubmodules());
+		if (withDeps) {
+			hash = hash(hash, node.getDependencies());
+		}
+		return hash;
+	}
+
+	private static long hash(long hash, List<ZNode> nodes) {
+		for (ZNode node : nodes) {
+			final String name = node.getName();
+			for (int i = 0; i < name.length(); i++) {
+				hash = (hash ^ name.charAt(i)) * 0x100000001b3L;
+			}
+			hash = (hash ^ '\n') * 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	/**
+	 * Gets the stored positions if the children of node are unchanged, or
+	 * null.
+	 */
+	public synchronized Map<ZNode, Point2D> get(ZNode node, String variant,
+			boolean withDeps) {
+		final Entry entry = entries.get(key(node, variant));
+		if (entry == null || entry.signature != signature(node, withDeps)) {
+			return null;
+		}
+		final Map<ZNode, Point2D> map = new HashMap<ZNode, Point2D>();
+		map.put(node, new Point2D.Float(0, 0));
+		if (!fill(map, entry, node.getSubmodules())) {
+			return null;
+		}
+		if (withDeps && !fill(map, entry, node.getDependencies())) {
+			return null;
+		}
+		return map;
+	}
+
+	private boolean fill(Map<ZNode, Point2D> map, Entry entry,
+			List<ZNode> nodes) {
+		for (ZNode sub : nodes) {
+			final float[] p = entry.positions.get(sub.getName());
+			if (p == null) {
+				return false;
+			}
+			map.put(sub, new Point2D.Float(p[0], p[1]));
+		}
+		return true;
+	}
+
+	/** Stores the positions computed for the children of node. */
+	public synchronized void put(ZNode node, String variant, boolean withDeps,
+			Map<ZNode, Point2D> map) {
+		final Entry entry = new Entry(signature(node, withDeps));
+		for (ZNode sub : node.getSubmodules()) {
+			put(entry, sub, map.get(sub));
+		}
+		if (withDeps) {
+			for (ZNode dep : node.getDependencies()) {
+				put(entry, dep, map.get(dep));
+			}
+		}
+		entries.put(key(node, variant), entry);
+		dirty = true;
+	}
+
+	private void put(Entry entry, ZNode node, Point2D p) {
+		if (p != null) {
+			entry.positions.put(node.getName(), new float[] {
+					(float) p.getX(), (float) p.getY() });
+		}
+	}
+
+	/** Stores a position the user dragged a child of parent to. */
+	public synchronized void moved(ZNode parent, String variant, ZNode child,
+			float x, float y) {
+		final Entry entry = entries.get(key(parent, variant));
+		if (entry != null) {
+			entry.positions.put(child.getName(), new float[] { x, y });
+			dirty = true;
+		}
+	}
+
+	private synchronized void load() {
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(file)));
+			if (in.readInt() != VERSION) {
+				return;
+			}
+			for (int n = in.readInt(); n > 0; n--) {
+				final String key = in.readUTF();
+				final Entry entry = new Entry(in.readLong());
+				for (int m = in.readInt(); m > 0; m--) {
+					entry.positions.put(in.readUTF(), new float[] {
+							in.readFloat(), in.readFloat() });
+				}
+				entries.put(key, entry);
+			}
+		} catch (FileNotFoundException e) {
+			// that's okay
+		} catch (IOException e) {
+			log.warn("could not read " + file + ": " + e.getMessage());
+			entries.clear();
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+	}
+
+	/** Writes the store if anything changed. */
+	public synchronized void save() {
+		if (!dirty) {
+			return;
+		}
+		DataOutputStream out = null;
+		File temp = null;
+		try {
+			// written aside and renamed, so a crash never leaves half a file
+			temp = File.createTempFile(file.getName() + "_z", null, file
+					.getAbsoluteFile().getParentFile());
+			final FileOutputStream fos = new FileOutputStream(temp);
+			out = new DataOutputStream(new BufferedOutputStream(fos));
+			out.writeInt(VERSION);
+			out.writeInt(entries.size());
+			for (Map.Entry<String, Entry> e : entries.entrySet()) {
+				out.writeUTF(e.getKey());
+				out.writeLong(e.getValue().signature);
+				out.writeInt(e.getValue().positions.size());
+				for (Map.Entry<String, float[]> p : e.getValue().positions
+						.entrySet()) {
+					out.writeUTF(p.getKey());
+					out.writeFloat(p.getValue()[0]);
+					out.writeFloat(p.getValue()[1]);
+				}
+			}
+			out.flush();
+			fos.getFD().sync();
+			out.close();
+			ZCodeSaver.replace(temp, file);
+			temp = null;
+			dirty = false;
+		} catch (IOException e) {
+			log.error(e.getMessage(), e);
+		} finally {
+			IOUtils.closeQuietly(out);
+			if (temp != null) {
+				temp.delete();
+			}
+		}
+	}
+
+}
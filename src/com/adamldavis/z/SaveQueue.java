@@ -0,0 +1,251 @@
+/** Copyright 2012, Adam L. Davis, all rights reserved. */
+package com.adamldavis.z;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.SwingUtilities;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.adamldavis.z.ZNode.ZNodeType;
+import com.adamldavis.z.perf.FrameStats;
+import com.adamldavis.z.perf.FrameStats.Metric;
+
+/**
+ * Saves edited nodes off the event thread. Saves are debounced per file:
+ * each edit (re)schedules the save of its file, a newer text for a node
+ * replaces the one waiting, and a burst of edits ends in one write. While
+ * edits are recorded in an {@link EditJournal} they are safe as soon as
+ * submitted, so files are only rewritten after {@link #JOURNALED_DELAY}
+ * without edits (unless saved right away). Writes
+ * run one at a time on a single daemon thread, so saves of a file never
+ * overlap, and the methods of a file saved together are written in one
+ * {@link ZCodeSaver.Transaction}. Nodes are only read and changed on the
+ * event thread: submit takes what the save needs from them, the save thread
+ * only writes files, and the new line numbers are applied back with
+ * invokeLater.
+ *
+ * @author Adam L. Davis
+ *
+ */
+public class SaveQueue {
+
+	/** Told about each node saved, on the save thread. */
+	public interface Listener {
+		void saved(ZNode node);
+
+		void failed(ZNode node, Exception e);
+	}
+
+	/** Milliseconds to wait for more edits before saving. */
+	public static final long DELAY = 500;
+
+	/** Milliseconds to wait for more edits while they are journaled. */
+	public static final long JOURNALED_DELAY = 5000;
+
+	private static final Logger log = LoggerFactory.getLogger(SaveQueue.class);
+
+	private static class Pending {
+		final Map<ZNode, ZCodeSaver.MethodSave> methods = new LinkedHashMap<ZNode, ZCodeSaver.MethodSave>();
+		final Map<ZNode, Runnable> writes = new LinkedHashMap<ZNode, Runnable>();
+		ZCodeSaver saver;
+		Listener listener;
+		ScheduledFuture<?> future;
+	}
+
+	private final ScheduledExecutorService executor = Executors
+			.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					final Thread thread = new Thread(r, "z-save");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+	private final Map<File, Pending> pending = new HashMap<File, Pending>();
+
+	/*
+	 * where written methods are in their files (line, size or -1), for saves
+	 * taken before the write was applied to the nodes; save thread only
+	 */
+	private final Map<ZNode, int[]> positions = new WeakHashMap<ZNode, int[]>();
+
+	private volatile EditJournal journal;
+
+	/** Records every edit in the given journal until it is saved. */
+	public void setJournal(EditJournal journal) {
+		this.journal = journal;
+	}
+
+	public void submit(ZNode node, String code, ZCodeSaver saver,
+			Listener listener) {
+		submit(node, code, saver, listener, DELAY);
+	}
+
+	/**
+	 * Saves the given code of the node after delay ms (at least
+	 * JOURNALED_DELAY if journaled and not 0) without more edits. Call on
+	 * the event thread.
+	 */
+	public void submit(ZNode node, String code, ZCodeSaver saver,
+			Listener listener, long delay) {
+		final EditJournal journal = this.journal;
+		if (journal != null) {
+			journal.edited(node, code);
+			if (delay > 0 && journal.isRecording()) {
+				delay = Math.max(delay, JOURNALED_DELAY);
+			}
+		}
+		ZCodeSaver.MethodSave method = null;
+		Runnable write = null;
+		try {
+			if (node.getNodeType() == ZNodeType.METHOD) {
+				method = new ZCodeSaver.MethodSave(node, code);
+			} else {
+				node.replaceCode(code);
+				write = saver.prepare(node);
+			}
+		} catch (RuntimeException e) {
+			log.error("Saving " + node + " failed", e);
+			listener.failed(node, e);
+			return;
+		}
+		final File file = saver.getTargetFile(node);
+		synchronized (pending) {
+			Pending p = pending.get(file);
+			if (p == null) {
+				pending.put(file, p = new Pending());
+			} else if (p.future != null) {
+				p.future.cancel(false);
+			}
+			// last edited is saved last
+			p.methods.remove(node);
+			p.writes.remove(node);
+			if (method == null) {
+				p.writes.put(node, write);
+			} else {
+				p.methods.put(node, method);
+			}
+			p.saver = saver;
+			p.listener = listener;
+			p.future = executor.schedule(new Runnable() {
+				@Override
+				public void run() {
+					write(file);
+				}
+			}, delay, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	public boolean isPending() {
+		synchronized (pending) {
+			return !pending.isEmpty();
+		}
+	}
+
+	void write(File file) {
+		final Pending p;
+		synchronized (pending) {
+			p = pending.remove(file);
+		}
+		if (p == null) {
+			return; // already written by flush
+		}
+		final long start = FrameStats.getInstance().start();
+		for (Map.Entry<ZNode, Runnable> entry : p.writes.entrySet()) {
+			final ZNode node = entry.getKey();
+			try {
+				entry.getValue().run();
+				saved(node);
+				p.listener.saved(node);
+			} catch (RuntimeException e) {
+				log.error("Saving " + node + " failed", e);
+				p.listener.failed(node, e);
+			}
+		}
+		// methods of the file are written together
+		final ZCodeSaver.Transaction transaction = p.saver.begin(file);
+		final List<ZNode> methods = new ArrayList<ZNode>();
+		for (ZCodeSaver.MethodSave save : p.methods.values()) {
+			try {
+				transaction.add(save);
+				methods.add(save.getMethod());
+			} catch (RuntimeException e) {
+				log.error("Saving " + save.getMethod() + " failed", e);
+				p.listener.failed(save.getMethod(), e);
+			}
+		}
+		if (transaction.isEmpty()) {
+			return;
+		}
+		transaction.setPositions(positions);
+		final ZCodeSaver.Written written;
+		try {
+			written = transaction.write();
+		} catch (RuntimeException e) {
+			log.error("Saving " + file + " failed", e);
+			for (ZNode node : methods) {
+				p.listener.failed(node, e);
+			}
+			return;
+		}
+		FrameStats.getInstance().record(Metric.SAVE, start);
+		positions.putAll(written.getPositions());
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				written.apply();
+			}
+		});
+		for (ZNode node : methods) {
+			saved(node);
+			p.listener.saved(node);
+		}
+	}
+
+	private void saved(ZNode node) {
+		if (journal != null) {
+			journal.saved(node);
+		}
+	}
+
+	/** Writes all pending saves now and waits for them, e.g. on exit. */
+	public void flush() {
+		final List<File> files;
+		synchronized (pending) {
+			files = new ArrayList<File>(pending.keySet());
+			for (Pending p : pending.values()) {
+				p.future.cancel(false);
+			}
+		}
+		try {
+			executor.submit(new Runnable() {
+				@Override
+				public void run() {
+					for (File file : files) {
+						write(file);
+					}
+				}
+			}).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			log.error("flush failed", e.getCause());
+		}
+	}
+
+}
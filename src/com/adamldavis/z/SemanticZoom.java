@@ -0,0 +1,262 @@
+/** Copyright 2012, Adam L. Davis, all rights reserved. */
+package com.adamldavis.z;
+
+import java.awt.Dimension;
+import java.awt.Point;
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.adamldavis.z.ZNode.ZNodeType;
+
+/**
+ * Loads the children of MODULE, PACKAGE and CLASS nodes in the background
+ * once they grow past {@link #EXPAND_PIXELS} on screen, lays them out inside
+ * their parent, and unloads them again when the parent shrinks below
+ * {@link #COLLAPSE_PIXELS}. Only nodes without children are expanded, so
+ * only children loaded here are ever unloaded; those the node was loaded
+ * with stay. At most {@link #MAX_EXPANDED} nodes stay expanded; the least
+ * recently seen are unloaded first.
+ *
+ * @author Adam L. Davis
+ *
+ */
+public class SemanticZoom {
+
+	private static final Logger log = LoggerFactory
+			.getLogger(SemanticZoom.class);
+
+	public static final float EXPAND_PIXELS = 320f;
+
+	public static final float COLLAPSE_PIXELS = 160f;
+
+	public static final int MAX_EXPANDED = 64;
+
+	final Z z;
+
+	/** Expanded nodes in least-recently-seen order. */
+	final Map<ZNode, Boolean> expanded = Collections
+			.synchronizedMap(new LinkedHashMap<ZNode, Boolean>(16, 0.75f, true));
+
+	final Set<ZNode> loading = Collections.synchronizedSet(new HashSet<ZNode>());
+
+	final ExecutorService executor = Executors
+			.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "Z semantic zoom");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+	public SemanticZoom(Z z) {
+		this.z = z;
+	}
+
+	/** Forgets all expanded nodes (after a new node was selected). */
+	public void reset() {
+		expanded.clear();
+		loading.clear(); // loads still running are dropped
+	}
+
+	/**
+	 * Checks the on-screen size of the nodes in the viewport: nodes outside
+	 * it are skipped before anything else is looked at, and expanded nodes
+	 * that left it are collapsed.
+	 */
+	public void update() {
+		final List<ZNode> grow = new ArrayList<ZNode>();
+		final List<ZNode> shrink = new ArrayList<ZNode>();
+		final List<ZNode> seen = new ArrayList<ZNode>();
+		final float scale = z.getScale();
+		final float width = z.display.getWidth() / scale;
+		final float height = z.display.getHeight() / scale;
+		final float minSize = EXPAND_PIXELS / scale;
+
+		synchronized (z.zNodes) {
+			for (ZNode node : z.zNodes) {
+				final float size = node.getSize();
+				final Point2D.Float loc = node.getLocation();
+				if (size <= minSize || loc.x + size / 2 < 0
+						|| loc.y + size / 2 < 0 || loc.x - size / 2 > width
+						|| loc.y - size / 2 > height) {
+					continue; // too small or not in view
+				}
+				if (isZoomable(node) && node != z.getSelectedNode()
+						&& node.getSubmodules().isEmpty()
+						&& !expanded.containsKey(node)
+						&& !loading.contains(node)) {
+					grow.add(node);
+				}
+			}
+			synchronized (expanded) {
+				for (ZNode node : expanded.keySet()) {
+					final float size = node.getSize();
+					final Point2D.Float loc = node.getLocation();
+					if (size * scale < COLLAPSE_PIXELS
+							|| loc.x + size / 2 < 0 || loc.y + size / 2 < 0
+							|| loc.x - size / 2 > width
+							|| loc.y - size / 2 > height) {
+						shrink.add(node);
+					} else {
+						seen.add(node);
+					}
+				}
+				for (ZNode node : seen) {
+					expanded.get(node); // touch
+				}
+			}
+		}
+		if (!shrink.isEmpty()) {
+			synchronized (z.layoutLock) {
+				synchronized (z.zNodes) {
+					for (ZNode node : shrink) {
+						collapse(node);
+					}
+				}
+			}
+		}
+		for (ZNode node : grow) {
+			expand(node);
+		}
+	}
+
+	boolean isZoomable(ZNode node) {
+		final ZNodeType type = node.getNodeType();
+		return type == ZNodeType.MODULE || type == ZNodeType.PACKAGE
+				|| type == ZNodeType.CLASS;
+	}
+
+	/**
+	 * Loads the children of the node into a copy of it on the zoom thread,
+	 * where they are laid out too, and then puts them into the node under
+	 * the layout and zNodes locks.
+	 */
+	void expand(final ZNode node) {
+		loading.add(node);
+		final ZNode copy = new ZNode(node.getNodeType(), node.getName(), "",
+				node.getExtension(), node.getParentFile());
+		copy.setLocation((Point2D.Float) node.getLocation().clone());
+		copy.setSize(node.getSize());
+		executor.submit(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					final ZNode loaded = new ZCodeLoader(z.getApiFactory())
+							.load(copy);
+					final Map<ZNode, Point2D> map = place(copy, loaded);
+					synchronized (z.layoutLock) {
+						synchronized (z.zNodes) {
+							if (loading.contains(node)
+									&& z.zNodes.contains(node)
+									&& node.getSubmodules().isEmpty()) {
+								show(node, loaded, map);
+								expanded.put(node, Boolean.TRUE);
+								evict();
+							}
+						}
+					}
+				} catch (RuntimeException e) {
+					log.error(e.getMessage(), e);
+				} finally {
+					loading.remove(node);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Lays out the loaded children inside the (copy of the) node, which no
+	 * other thread sees yet.
+	 */
+	Map<ZNode, Point2D> place(ZNode copy, ZNode loaded) {
+		final int size = Math.round(copy.getSize() * 0.8f);
+		final Point center = new Point(Math.round(copy.getLocation().x),
+				Math.round(copy.getLocation().y));
+		final Map<ZNode, Point2D> map = new PixelZNodePositioner(center,
+				new Dimension(size, size), z.makeNodePositioner())
+				.getNewPositions(loaded);
+		final float childSize = size
+				/ (2f + (float) Math.sqrt(loaded.getSubmodules().size()));
+
+		for (ZNode sub : loaded.getSubmodules()) {
+			final Point2D p = map.get(sub);
+			sub.setLocation(new Point2D.Float((float) p.getX(), (float) p
+					.getY()));
+			sub.setSize(childSize + Z.logSize(sub.getCodeLineSize()));
+		}
+		return map;
+	}
+
+	/** Makes the loaded children those of the node and visible. */
+	private void show(ZNode node, ZNode loaded, Map<ZNode, Point2D> map) {
+		node.getSubmodules().addAll(loaded.getSubmodules());
+		if (node.getNodeType() == ZNodeType.CLASS) {
+			node.getDependencies().clear();
+			node.getDependencies().addAll(loaded.getDependencies());
+		}
+		for (ZNode sub : node.getSubmodules()) {
+			if (sub.getParentNode() == loaded) {
+				sub.setParentNode(node);
+			}
+			z.pointMap.put(sub, sub.getLocation());
+			z.sizeMap.put(sub, sub.getSize());
+			if (!z.zNodes.contains(sub)) {
+				z.zNodes.add(sub);
+			}
+		}
+		z.sceneDirty = true;
+		z.layoutVersion.incrementAndGet();
+	}
+
+	/**
+	 * Removes the children loaded by {@link #expand(ZNode)} (recursively)
+	 * from view and memory. Call holding the layout and zNodes locks.
+	 */
+	void collapse(ZNode node) {
+		loading.remove(node);
+		if (expanded.remove(node) == null) {
+			return; // not expanded here
+		}
+		remove(node);
+		z.sceneDirty = true;
+		z.layoutVersion.incrementAndGet();
+	}
+
+	private void remove(ZNode node) {
+		for (ZNode sub : node.getSubmodules()) {
+			if (expanded.remove(sub) != null) {
+				remove(sub);
+			}
+			z.zNodes.remove(sub);
+			z.pointMap.remove(sub);
+			z.sizeMap.remove(sub);
+		}
+		node.getSubmodules().clear();
+	}
+
+	private void evict() {
+		while (expanded.size() > MAX_EXPANDED) {
+			final ZNode eldest;
+			synchronized (expanded) {
+				final Iterator<ZNode> it = expanded.keySet().iterator();
+				eldest = it.next();
+			}
+			collapse(eldest);
+		}
+	}
+
+}
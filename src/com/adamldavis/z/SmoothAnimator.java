@@ -23,25 +23,28 @@ public class SmoothAnimator {
 	 */
 	public Point2D animate(Point2D p1, Point2D p2, float time,
 			AnimationType type) {
-		Point2D.Double p = new Point2D.Double(0, 0);
+		final double w = weight(time, type);
 
+		return new Point2D.Double(p1.getX() * (1 - w) + p2.getX() * w,
+				p1.getY() * (1 - w) + p2.getY() * w);
+	}
+
+	/**
+	 * Weight of the second point at the given time, so that animate returns
+	 * p1 * (1 - weight) + p2 * weight.
+	 * 
+	 * @param time
+	 *            0 to 1.
+	 */
+	public static double weight(float time, AnimationType type) {
 		switch (type) {
 		case COSINE:
-			final double theta = Math.PI * 0.5 * time;
-			final double cosine = Math.cos(theta);
-			p.x = p1.getX() * cosine + p2.getX() * (1f - cosine);
-			p.y = p1.getY() * cosine + p2.getY() * (1f - cosine);
-			break;
+			return 1f - Math.cos(Math.PI * 0.5 * time);
 		case EXP:
-			p.x = p1.getX() * (1f - time * time) + p2.getX() * (time * time);
-			p.y = p1.getY() * (1f - time * time) + p2.getY() * (time * time);
-			break;
-		case LINEAR:
-			p.x = p1.getX() * (1f - time) + p2.getX() * (time);
-			p.y = p1.getY() * (1f - time) + p2.getY() * (time);
-			break;
+			return time * time;
+		default:
+			return time;
 		}
-		return p;
 	}
 
 }
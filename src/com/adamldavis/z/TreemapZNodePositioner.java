@@ -0,0 +1,181 @@
+/** Copyright 2012, Adam L. Davis, all rights reserved. */
+package com.adamldavis.z;
+
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.adamldavis.z.ZNode.ZNodeType;
+
+/**
+ * Squarified treemap: packs any number of sub-modules into the area right of
+ * the selected node, clear of it, each cell sized by the weight of the
+ * sub-module (number of sub-modules for modules and packages, lines of code
+ * otherwise).
+ * Dependencies are stacked in a column on the left. The sub-modules of
+ * other (nested) nodes fill the whole of their node. Sorting makes this O(n
+ * log n).
+ *
+ * @author Adam L. Davis
+ *
+ */
+public class TreemapZNodePositioner implements ZNodePositioner {
+
+	/**
+	 * Half the width kept free for the selected node at the origin, in the -1
+	 * to 1 range; the selected node must be drawn no bigger.
+	 */
+	public static final double PARENT = 0.4;
+
+	/** Area given to sub-modules of the selected node, in the -1 to 1 range. */
+	static final Rectangle2D AREA = new Rectangle2D.Double(PARENT, -1,
+			1 - PARENT, 2);
+
+	/** Area given to sub-modules of nested nodes, in the -1 to 1 range. */
+	static final Rectangle2D NESTED = new Rectangle2D.Double(-1, -1, 2, 2);
+
+	/** Width and height of each cell from the last call (-1 to 1 range). */
+	private final Map<ZNode, double[]> cellSizes = new HashMap<ZNode, double[]>();
+
+	private final ZNode selected;
+
+	/**
+	 * @param selected
+	 *            the node laid out at the top level (with room for itself and
+	 *            its dependencies), others are nested in it.
+	 */
+	public TreemapZNodePositioner(ZNode selected) {
+		this.selected = selected;
+	}
+
+	@Override
+	public Map<ZNode, Point2D> getNewPositions(ZNode node) {
+		final Map<ZNode, Point2D> map = new HashMap<ZNode, Point2D>();
+		final List<ZNode> subs = new ArrayList<ZNode>(node.getSubmodules());
+		final boolean top = node == selected;
+
+		map.put(node, new Point2D.Float(0, 0));
+		cellSizes.clear();
+		int i = 0;
+		if (top) {
+			final int deps = node.getDependencies().size();
+			for (ZNode dep : node.getDependencies()) {
+				map.put(dep, new Point2D.Float(-0.85f, 2f * (i++ + 1)
+						/ (deps + 1) - 1f));
+			}
+		}
+		if (subs.isEmpty()) {
+			return map;
+		}
+		Collections.sort(subs, new Comparator<ZNode>() {
+			@Override
+			public int compare(ZNode n1, ZNode n2) {
+				return Double.compare(weight(n2), weight(n1));
+			}
+		});
+		final double[] areas = new double[subs.size()];
+		double total = 0;
+		for (i = 0; i < areas.length; i++) {
+			total += areas[i] = weight(subs.get(i));
+		}
+		final Rectangle2D area = top ? AREA : NESTED;
+		final double scale = area.getWidth() * area.getHeight() / total;
+		for (i = 0; i < areas.length; i++) {
+			areas[i] *= scale;
+		}
+		final Rectangle2D.Double[] cells = squarify(areas, area);
+		for (i = 0; i < cells.length; i++) {
+			map.put(subs.get(i), new Point2D.Float((float) cells[i].getCenterX(),
+					(float) cells[i].getCenterY()));
+			cellSizes.put(subs.get(i), new double[] { cells[i].width,
+					cells[i].height });
+		}
+		return map;
+	}
+
+	/**
+	 * Gets the width and height of the node's cell from the last layout, in
+	 * the same -1 to 1 range as the positions (so 2 is the whole height).
+	 */
+	public double[] getCellSize(ZNode node) {
+		final double[] size = cellSizes.get(node);
+		return size == null ? new double[2] : size;
+	}
+
+	static double weight(ZNode node) {
+		if ((node.getNodeType() == ZNodeType.MODULE || node.getNodeType() == ZNodeType.PACKAGE)
+				&& !node.getSubmodules().isEmpty()) {
+			return node.getSubmodules().size();
+		}
+		return Math.max(1, node.getCodeLineSize());
+	}
+
+	/**
+	 * Lays out the given areas (sorted largest first, summing to the area of
+	 * the rectangle) into cells of aspect ratio close to 1.
+	 */
+	static Rectangle2D.Double[] squarify(double[] areas, Rectangle2D bounds) {
+		final Rectangle2D.Double[] cells = new Rectangle2D.Double[areas.length];
+		double x = bounds.getX(), y = bounds.getY();
+		double w = bounds.getWidth(), h = bounds.getHeight();
+		int start = 0;
+
+		while (start < areas.length) {
+			final double side = Math.min(w, h);
+			double sum = 0, worst = Double.MAX_VALUE;
+			int end = start;
+
+			// grow the row while the worst aspect ratio improves
+			while (end < areas.length) {
+				final double next = sum + areas[end];
+				final double ratio = worst(areas[start], areas[end], next, side);
+				if (end > start && ratio > worst) {
+					break;
+				}
+				sum = next;
+				worst = ratio;
+				end++;
+			}
+			if (w >= h) {
+				// column on the left
+				final double cw = h == 0 ? 0 : sum / h;
+				double cy = y;
+				for (int i = start; i < end; i++) {
+					final double ch = cw == 0 ? 0 : areas[i] / cw;
+					cells[i] = new Rectangle2D.Double(x, cy, cw, ch);
+					cy += ch;
+				}
+				x += cw;
+				w -= cw;
+			} else {
+				// row on top
+				final double rh = w == 0 ? 0 : sum / w;
+				double cx = x;
+				for (int i = start; i < end; i++) {
+					final double cw = rh == 0 ? 0 : areas[i] / rh;
+					cells[i] = new Rectangle2D.Double(cx, y, cw, rh);
+					cx += cw;
+				}
+				y += rh;
+				h -= rh;
+			}
+			start = end;
+		}
+		return cells;
+	}
+
+	/** Worst aspect ratio of a row with given largest/smallest area and sum. */
+	static double worst(double max, double min, double sum, double side) {
+		if (sum == 0 || min == 0 || side == 0) {
+			return Double.MAX_VALUE;
+		}
+		final double s2 = sum * sum, side2 = side * side;
+		return Math.max(side2 * max / s2, s2 / (side2 * min));
+	}
+
+}
@@ -26,6 +26,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Timer;
@@ -34,10 +35,12 @@ import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.SwingUtilities;
 import javax.swing.UIManager;
 
+import org.apache.commons.io.FileUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -46,13 +49,19 @@ import com.adamldavis.z.SmoothAnimator.AnimationType;
 import com.adamldavis.z.ZNode.ZNodeType;
 import com.adamldavis.z.ZNodeLink.LinkType;
 import com.adamldavis.z.api.APIFactory;
+import com.adamldavis.z.api.Compiler;
 import com.adamldavis.z.api.Editor;
+import com.adamldavis.z.api.LineError;
 import com.adamldavis.z.editor.Playground;
 import com.adamldavis.z.editor.ZCodeEditor;
 import com.adamldavis.z.editor.ZEdit;
 import com.adamldavis.z.git.GitLogDiffsMap;
 import com.adamldavis.z.gui.ZMenu;
 import com.adamldavis.z.gui.swing.ZDisplay;
+import com.adamldavis.z.java.JavaMavenCompiler;
+import com.adamldavis.z.java.LocalRepository.Artifact;
+import com.adamldavis.z.perf.FrameStats;
+import com.adamldavis.z.perf.FrameStats.Metric;
 import com.adamldavis.z.tasks.ZTask;
 import com.adamldavis.z.tasks.ZTaskList;
 import com.adamldavis.z.util.ThreadingUtil;
@@ -73,7 +82,7 @@ public class Z implements MouseListener, MouseWheelListener,
 
 	/** organization of nodes. */
 	public enum NodeLayout {
-		BLOOM, RANDOM, GRID
+		BLOOM, RANDOM, GRID, FORCE, TREEMAP
 	}
 
 	/** How to order nodes. */
@@ -88,6 +97,12 @@ public class Z implements MouseListener, MouseWheelListener,
 
 	private static final Logger log = LoggerFactory.getLogger(Z.class);
 
+	/** Most sub-modules for which clicked loads two levels deep. */
+	static final int EAGER_LOAD_MAX = 200;
+
+	/** Zoom factor per mouse-wheel notch. */
+	static final float ZOOM_STEP = 1.25f;
+
 	public static float logSize(int size) {
 		return (float) (size > 2 ? Math.log(size) : 0);
 	}
@@ -150,10 +165,92 @@ public class Z implements MouseListener, MouseWheelListener,
 
 	final Map<ZNode, Float> sizeMap = new HashMap<ZNode, Float>();
 
+	/* Array copy of zNodes and targets used by the animation. */
+	final ZScene scene = new ZScene();
+
+	/* Set whenever zNodes, pointMap or sizeMap change or a node is moved. */
+	volatile boolean sceneDirty;
+
+	/*
+	 * Held while the tree of submodules is laid out or changed, so positions
+	 * can be worked out without holding zNodes (and blocking paint); taken
+	 * before zNodes.
+	 */
+	final Object layoutLock = new Object();
+
+	/* Incremented on every layout, so cached link paths can be rebuilt. */
+	final AtomicInteger layoutVersion = new AtomicInteger();
+
+	final LayoutStore layoutStore = new LayoutStore();
+
+	final SaveQueue saveQueue = new SaveQueue();
+
+	final EditJournal editJournal = new EditJournal();
+
+	/* Shows how saves went, without waiting for them. */
+	final SaveQueue.Listener saveListener = new SaveQueue.Listener() {
+		@Override
+		public void saved(final ZNode node) {
+			final CompileLoop loop = compileLoop;
+			if (loop != null) {
+				loop.request(node);
+			}
+			SwingUtilities.invokeLater(new Runnable() {
+				@Override
+				public void run() {
+					Swutil.flashMessage(display, "Saved " + node.getName());
+				}
+			});
+		}
+
+		@Override
+		public void failed(final ZNode node, final Exception e) {
+			SwingUtilities.invokeLater(new Runnable() {
+				@Override
+				public void run() {
+					Swutil.flashMessage(display,
+							"Save failed: " + node.getName(), Color.RED,
+							Color.WHITE, 3000);
+				}
+			});
+		}
+	};
+
+	/* Compiles after saves; set when a project is loaded. */
+	volatile CompileLoop compileLoop;
+
+	/*
+	 * Shows the errors of each compile on the nodes, by their status; under
+	 * the layout lock, so the tree does not change meanwhile (paint goes on).
+	 */
+	final CompileLoop.Listener compileListener = new CompileLoop.Listener() {
+		@Override
+		public void compiled(File sourceFolder, List<LineError> errors) {
+			synchronized (layoutLock) {
+				final List<ZNode> nodes;
+				synchronized (zNodes) {
+					nodes = new ArrayList<ZNode>(zNodes);
+				}
+				if (selectedNode != null && !nodes.contains(selectedNode)) {
+					nodes.add(selectedNode);
+				}
+				CompileLoop.updateStatus(nodes, sourceFolder, errors);
+			}
+		}
+	};
+
+	/* Center and half-size (pixels) each node's children were laid out in. */
+	final Map<ZNode, float[]> layoutFrames = new HashMap<ZNode, float[]>();
+
 	ZNodePositioner nodePositioner;
 
 	SmoothAnimator animator = new SmoothAnimator();
 
+	final SemanticZoom semanticZoom = new SemanticZoom(this);
+
+	/* Kept so the force layout continues across layout passes. */
+	final ForceZNodePositioner forcePositioner = new ForceZNodePositioner();
+
 	ZNode selectedNode;
 
 	final List<ZNode> zNodes = new ArrayList<ZNode>();
@@ -168,8 +265,21 @@ public class Z implements MouseListener, MouseWheelListener,
 
 	public Z() {
 		addListeners();
+		FrameStats.getInstance().registerMBean();
 		zfactory = new ZFactory(Z.class.getResourceAsStream("z.properties"));
 		loadSettings();
+		if (recoverEdits() || editJournal.setAside()) {
+			editJournal.start();
+		} // else the journal is disabled to keep the old edits
+		saveQueue.setJournal(editJournal);
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			@Override
+			public void run() {
+				saveQueue.flush();
+				editJournal.stop();
+				layoutStore.save();
+			}
+		}));
 		timer.schedule(new TimerTask() {
 			@Override
 			public void run() {
@@ -184,6 +294,66 @@ public class Z implements MouseListener, MouseWheelListener,
 		}
 	}
 
+	/**
+	 * Offers to save the edits left in the journal by a crash. Methods are
+	 * spliced back into their files if those did not change since; anything
+	 * else is written next to its file as ".recovered". Returns false if
+	 * there were edits that were not (all) saved, so the journal is kept.
+	 */
+	private boolean recoverEdits() {
+		final List<EditJournal.Edit> edits = editJournal.getUnsaved();
+		if (edits.isEmpty()) {
+			return true;
+		}
+		if (JOptionPane.YES_OPTION != JOptionPane.showConfirmDialog(null,
+				"Z stopped before saving " + edits.size()
+						+ " edit(s), the last of " + edits.get(0)
+						+ ".\nSave them now?", "Unsaved edits",
+				JOptionPane.YES_NO_OPTION)) {
+			return false;
+		}
+		final Map<File, List<EditJournal.Edit>> byFile = new LinkedHashMap<File, List<EditJournal.Edit>>();
+		for (EditJournal.Edit edit : edits) {
+			if (!byFile.containsKey(edit.file)) {
+				byFile.put(edit.file, new ArrayList<EditJournal.Edit>());
+			}
+			byFile.get(edit.file).add(edit);
+		}
+		final List<File> recovered = new ArrayList<File>();
+		boolean ok = true;
+		for (Map.Entry<File, List<EditJournal.Edit>> entry : byFile.entrySet()) {
+			final File file = entry.getKey();
+			try {
+				final ZCodeSaver saver = new ZCodeSaver(
+						zfactory.getApiFactory(file));
+				final ZCodeSaver.Transaction transaction = saver.begin(file);
+				for (EditJournal.Edit edit : entry.getValue()) {
+					final ZNode node = edit.toNode();
+					if (edit.nodeType == ZNodeType.METHOD && edit.isCurrent()) {
+						transaction.add(node);
+					} else {
+						final File copy = new File(saver.getTargetFile(node)
+								.getPath() + ".recovered");
+						FileUtils.writeLines(copy, node.getCodeLines(), true);
+						recovered.add(copy);
+					}
+				}
+				transaction.commit();
+			} catch (IOException e) {
+				log.error("could not recover edits of " + file, e);
+				ok = false;
+			} catch (RuntimeException e) {
+				log.error("could not recover edits of " + file, e);
+				ok = false;
+			}
+		}
+		if (!recovered.isEmpty()) {
+			JOptionPane.showMessageDialog(null,
+					"Some edits could not be put back, see: " + recovered);
+		}
+		return ok;
+	}
+
 	private void addListeners() {
 		display.addMouseWheelListener(Z.this);
 		display.addMouseListener(Z.this);
@@ -283,6 +453,7 @@ public class Z implements MouseListener, MouseWheelListener,
 
 	protected void clicked(ZNode node) {
 		log.info("selected: " + node);
+		semanticZoom.reset();
 		selectedNode = new ZCodeLoader(apiFactory).load(node);
 		synchronized (zNodes) {
 			zNodes.clear();
@@ -304,8 +475,12 @@ public class Z implements MouseListener, MouseWheelListener,
 		for (ZNode dep : selectedNode.getDependencies()) {
 			sizeMap.put(dep, size);
 		}
+		// large nodes leave the second level to semantic zoom
+		final boolean eager = selectedNode.getSubmodules().size() <= EAGER_LOAD_MAX;
+
 		for (ZNode sub : selectedNode.getSubmodules()) {
-			sub = new ZCodeLoader(apiFactory).load(sub);
+			if (eager)
+				sub = new ZCodeLoader(apiFactory).load(sub);
 			sizeMap.put(sub, size + logSize(sub.getSubmodules().size()));
 			synchronized (zNodes) {
 				zNodes.addAll(sub.getSubmodules());
@@ -327,8 +502,13 @@ public class Z implements MouseListener, MouseWheelListener,
 			new Thread(new Runnable() {
 				@Override
 				public void run() {
-					ZNode dep = createNewZNode(point, type,
-							new FakeDependencySelector().get());
+					final Artifact artifact = new FakeDependencySelector()
+							.get();
+					ZNode dep = artifact == null ? null : createNewZNode(
+							point, type, artifact.artifactId, asList(
+									"groupId: " + artifact.groupId,
+									"artifactId: " + artifact.artifactId,
+									"version: " + artifact.version));
 					if (dep != null)
 						selectedNode.getDependencies().add(dep);
 				}
@@ -336,10 +516,11 @@ public class Z implements MouseListener, MouseWheelListener,
 		} else {
 			name = display.showInputDialog("Name for new " + type.name(), "Z");
 		}
-		return createNewZNode(point, type, name);
+		return createNewZNode(point, type, name, null);
 	}
 
-	private ZNode createNewZNode(Point point, ZNodeType type, String name) {
+	private ZNode createNewZNode(Point point, ZNodeType type, String name,
+			List<String> code) {
 		if (name == null) {
 			return null;
 		}
@@ -347,8 +528,8 @@ public class Z implements MouseListener, MouseWheelListener,
 		final ZNode zNode = new ZNode(zp.x, zp.y, name.trim());
 		zNode.setNodeType(type);
 		zNode.setParentFile(selectedNode.getParentFile());
-		if (type == ZNodeType.DEPENDENCY) {
-			zNode.setCode(asList("artifactId=" + name, "groupId=" + name));
+		if (code != null) {
+			zNode.setCode(code);
 		}
 		synchronized (zNodes) {
 			zNodes.add(zNode);
@@ -405,6 +586,7 @@ public class Z implements MouseListener, MouseWheelListener,
 	}
 
 	ZNode findZNodeAt(Point p) {
+		final long start = FrameStats.getInstance().start();
 		ZNode found = null;
 		synchronized (zNodes) {
 			for (ZNode z : zNodes) {
@@ -414,6 +596,7 @@ public class Z implements MouseListener, MouseWheelListener,
 				}
 			}
 		}
+		FrameStats.getInstance().record(Metric.HIT_TEST, start);
 		return found;
 	}
 
@@ -501,6 +684,10 @@ public class Z implements MouseListener, MouseWheelListener,
 		return settings;
 	}
 
+	public int getLayoutVersion() {
+		return layoutVersion.get();
+	}
+
 	public State getState() {
 		return state;
 	}
@@ -518,6 +705,11 @@ public class Z implements MouseListener, MouseWheelListener,
 		if (!links.isEmpty())
 			return;
 		switch (e.getKeyChar()) {
+		case 'o':
+			// toggle the frame-stats overlay
+			final FrameStats stats = FrameStats.getInstance();
+			stats.setOverlayVisible(!stats.isOverlayVisible());
+			break;
 		case 's':
 			// TODO: Search!!!!
 			String name = display.showInputDialog("Search", "Z");
@@ -562,9 +754,36 @@ public class Z implements MouseListener, MouseWheelListener,
 		log.info("api=" + apiFactory);
 		final ZNode node = new ZCodeLoader(apiFactory).load(file);
 		selectedNode = node;
+		final CompileLoop previous = compileLoop;
+		if (previous != null) {
+			previous.shutdown();
+		}
+		final Compiler compiler = apiFactory.getCompiler();
+		if (compiler == null || compiler instanceof JavaMavenCompiler) {
+			// no compiler in process (JavaIncrementalCompiler.isAvailable()
+			// is false), running maven after every save is too much
+			compileLoop = null;
+		} else {
+			compileLoop = new CompileLoop(compiler,
+					apiFactory.getDependencyManager(), compileListener);
+			requestCompiles(node);
+		}
 		return node;
 	}
 
+	/*
+	 * compiles what was loaded and each module of a reactor; the loop skips
+	 * those without sources (e.g. the reactor's own pom)
+	 */
+	private void requestCompiles(ZNode node) {
+		compileLoop.request(node);
+		for (ZNode sub : node.getSubmodules()) {
+			if (sub.getNodeType() == ZNodeType.MODULE) {
+				requestCompiles(sub);
+			}
+		}
+	}
+
 	private void loadSettings() {
 		if (settings.getProperty(UserSettings.DIRECTION) != null) {
 			direction = Direction.valueOf(settings
@@ -579,12 +798,16 @@ public class Z implements MouseListener, MouseWheelListener,
 		}
 	}
 
-	private ZNodePositioner makeNodePositioner() {
+	ZNodePositioner makeNodePositioner() {
 		switch (nodeLayout) {
 		case BLOOM:
 			return new BloomZNodePositioner();
 		case RANDOM:
 			return new RandomZNodePositioner();
+		case FORCE:
+			return forcePositioner;
+		case TREEMAP:
+			return new TreemapZNodePositioner(selectedNode);
 		default:
 			return new GridZNodePositioner();
 		}
@@ -619,6 +842,10 @@ public class Z implements MouseListener, MouseWheelListener,
 	public void mouseDragged(MouseEvent e) {
 		if (e.getButton() != MouseEvent.BUTTON3) {
 			point2 = e.getPoint();
+			if (draggedNode != null) {
+				// its links follow it
+				layoutVersion.incrementAndGet();
+			}
 		}
 	}
 
@@ -640,9 +867,11 @@ public class Z implements MouseListener, MouseWheelListener,
 		}
 		if (hoveredNode != node && hoveredNode != null) {
 			hoveredNode.setSize(hoveredNode.getSize() * 1f / 1.1f);
+			sceneDirty = true;
 		}
 		if (node != null && hoveredNode != node) {
 			node.setSize(node.getSize() * 1.1f);
+			sceneDirty = true;
 		}
 		hoveredNode = node;
 		hoverText = node == null ? null : node.getName();
@@ -689,6 +918,7 @@ public class Z implements MouseListener, MouseWheelListener,
 			} else {
 				draggedNode.getLocation().setLocation(
 						translateToZNodePoint(point2));
+				rememberMove(draggedNode);
 				updateSubLocations(draggedNode, true, draggedNode.getLocation());
 				draggedNode = null;
 			}
@@ -700,11 +930,8 @@ public class Z implements MouseListener, MouseWheelListener,
 	public void mouseWheelMoved(MouseWheelEvent e) {
 		if (e.isControlDown()) {
 			log.debug("zoom:" + e.getWheelRotation());
-			if (e.getWheelRotation() > 0 && scale > 0.125f) {
-				scale /= 2f;
-			} else if (e.getWheelRotation() < 0 && scale < 32) {
-				scale *= 2f;
-			}
+			scale *= (float) Math.pow(ZOOM_STEP, -e.getWheelRotation());
+			scale = Math.max(0.125f, Math.min(32f, scale));
 			log.debug("Scale:" + scale);
 			if (!edit.getEditors().isEmpty()) {
 				for (Editor editor : edit.getEditors()) {
@@ -716,6 +943,13 @@ public class Z implements MouseListener, MouseWheelListener,
 
 	@Override
 	public void run() {
+		final long start = FrameStats.getInstance().start();
+		animate();
+		FrameStats.getInstance().record(Metric.ANIMATE, start);
+	}
+
+	/** Advances the current animation by one tick. */
+	private void animate() {
 		if ((state == State.ANIMATING && aniCount.incrementAndGet() >= 100)
 				|| (state == State.TIME_TRAVEL && aniCount.addAndGet(1) >= 999)
 				|| (state == State.SELECTING && aniCount.addAndGet(2) >= 100)) {
@@ -735,6 +969,10 @@ public class Z implements MouseListener, MouseWheelListener,
 		count.incrementAndGet();
 		if (count.get() >= 20) {
 			count.set(0);
+			if (state == State.NORMAL) {
+				semanticZoom.update();
+				refineForceLayout();
+			}
 		}
 		final float time = aniCount.get() / 100f;
 
@@ -755,22 +993,11 @@ public class Z implements MouseListener, MouseWheelListener,
 					(int) point.getY());
 		} else if (getState() == State.ANIMATING)
 			synchronized (zNodes) {
-				for (ZNode node : zNodes) {
-					if (pointMap.containsKey(node)) {
-						node.getLocation().setLocation(
-								animator.animate(node.getLocation(),
-										pointMap.get(node), time,
-										AnimationType.COSINE));
-					}
-					if (sizeMap.containsKey(node)) {
-						final Float size = sizeMap.get(node);
-						final Float currentSize = node.getSize();
-						node.setSize((float) animator.animate(
-								new Point2D.Float(currentSize, 0),
-								new Point2D.Float(size, 0), time,
-								AnimationType.COSINE).getX());
-					}
+				if (sceneDirty) {
+					sceneDirty = false;
+					scene.rebuild(zNodes, pointMap, sizeMap);
 				}
+				scene.animate(time, AnimationType.COSINE);
 			}
 		else if (getState() == State.TIME_TRAVEL
 				&& aniCount.get() * diffsMap.getLogSize() / 1000 > (aniCount
@@ -796,6 +1023,18 @@ public class Z implements MouseListener, MouseWheelListener,
 		}
 	}
 
+	/** Runs more force-layout iterations until it settles. */
+	private void refineForceLayout() {
+		if (nodeLayout == NodeLayout.FORCE && selectedNode != null
+				&& pointMap.containsKey(selectedNode)
+				&& !forcePositioner.isConverged(selectedNode)) {
+			updateSubLocations(selectedNode, false, pointMap.get(selectedNode));
+			// glide to the refined positions
+			aniCount.set(0);
+			state = State.ANIMATING;
+		}
+	}
+
 	private void updateEditorSize(Editor editor) {
 		ZNode editorNode = edit.getNode(editor);
 		int width = display.getWidth() - 50;
@@ -803,11 +1042,45 @@ public class Z implements MouseListener, MouseWheelListener,
 		editor.getEditorPanel().setPreferredSize(new Dimension(width, height));
 	}
 
+	/** Stores where the user dragged the given node to. */
+	private void rememberMove(ZNode node) {
+		final Point2D.Float loc = node.getLocation();
+		synchronized (zNodes) {
+			pointMap.put(node, new Point2D.Float(loc.x, loc.y));
+			ZNode parent = null;
+			if (selectedNode != null
+					&& (selectedNode.getSubmodules().contains(node) || selectedNode
+							.getDependencies().contains(node))) {
+				parent = selectedNode;
+			} else {
+				for (ZNode z : zNodes) {
+					if (z.getSubmodules().contains(node)) {
+						parent = z;
+						break;
+					}
+				}
+			}
+			final float[] frame = parent == null ? null : layoutFrames
+					.get(parent);
+			if (frame != null) {
+				layoutStore.moved(parent, getLayoutVariant(), node,
+						(loc.x - frame[0]) / frame[2], (loc.y - frame[1])
+								/ frame[3]);
+			}
+		}
+	}
+
+	/** Key for remembered layouts: layout and direction. */
+	String getLayoutVariant() {
+		return nodeLayout + "/" + direction;
+	}
+
 	public void saveSettings() {
 		settings.setProperty(UserSettings.DIRECTION, direction.toString());
 		settings.setProperty(UserSettings.LAYOUT, nodeLayout.toString());
 		settings.setProperty(UserSettings.ORDER, order.toString());
 		settings.save();
+		layoutStore.save();
 	}
 
 	private void selectTask(final ZTask task) {
@@ -857,12 +1130,35 @@ public class Z implements MouseListener, MouseWheelListener,
 
 		final KeyListener keyAdapter = new KeyListener() {
 
+			/* change count of the text last queued */
+			int queued = ((ZCodeEditor) editor).getChangeCount();
+
+			/*
+			 * queues the text as soon as it changed (so it is journaled),
+			 * after the editor has handled the key
+			 */
+			void saveIfChanged() {
+				SwingUtilities.invokeLater(new Runnable() {
+					@Override
+					public void run() {
+						final int count = ((ZCodeEditor) editor)
+								.getChangeCount();
+						if (count != queued) {
+							queued = count;
+							((ZCodeEditor) editor).saveLater(saveQueue,
+									saveListener, SaveQueue.DELAY);
+						}
+					}
+				});
+			}
+
 			@Override
 			public void keyPressed(KeyEvent e) {
 				if (e.getKeyCode() == KeyEvent.VK_ESCAPE) {
 					endEditing();
 				} else if (e.getKeyCode() == KeyEvent.VK_S && e.isControlDown()) {
-					((ZCodeEditor) editor).save();
+					queued = ((ZCodeEditor) editor).getChangeCount();
+					((ZCodeEditor) editor).saveLater(saveQueue, saveListener, 0);
 				} else if (e.getKeyCode() == KeyEvent.VK_W && e.isControlDown()) {
 					// close just this editor.
 					edit.remove(editor);
@@ -878,6 +1174,8 @@ public class Z implements MouseListener, MouseWheelListener,
 						log.error(e1.getMessage());
 					}
 					display.setCursor(new Cursor(Cursor.DEFAULT_CURSOR));
+				} else {
+					saveIfChanged(); // e.g. delete, paste or undo
 				}
 			}
 
@@ -887,19 +1185,7 @@ public class Z implements MouseListener, MouseWheelListener,
 
 			@Override
 			public void keyTyped(KeyEvent e) {
-				if (e.getKeyChar() == '\n') {
-					SwingUtilities.invokeLater(new Runnable() {
-						@Override
-						public void run() {
-							try {
-								Thread.sleep(100); // 1/10 second
-							} catch (InterruptedException e) {
-							}
-							((ZCodeEditor) editor).save();
-							Swutil.flashMessage(display, "Saved " + z.getName());
-						}
-					});
-				}
+				saveIfChanged();
 			}
 		};
 		((ZCodeEditor) editor).addKeyListener(keyAdapter);
@@ -963,30 +1249,118 @@ public class Z implements MouseListener, MouseWheelListener,
 	}
 
 	private void updateSubLocations(ZNode node, boolean immediate, Point2D loc) {
-		final Point center = new Point((int) Math.round(loc.getX()),
-				(int) Math.round(loc.getY()));
-		// make bigger when more nodes
-		final float factor = selectedNode == node ? (1.3f + logSize(node
-				.getSubmodules().size()) / 2.2f) : 1.2f;
+		final long start = FrameStats.getInstance().start();
+		final ZNodePositioner inner = makeNodePositioner();
+		final ZNodePositioner positioner = new DirectionZNodePositioner(
+				direction, inner);
+		final TreemapZNodePositioner treemap = inner instanceof TreemapZNodePositioner ? (TreemapZNodePositioner) inner
+				: null;
+
+		synchronized (layoutLock) {
+			// the positioners may take long, paint goes on meanwhile
+			final Map<ZNode, Map<ZNode, Point2D>> maps = new HashMap<ZNode, Map<ZNode, Point2D>>();
+			final Map<ZNode, double[]> cells = new HashMap<ZNode, double[]>();
+			computeLayouts(node, positioner, treemap, maps, cells);
+			synchronized (zNodes) {
+				if (node == selectedNode) {
+					layoutFrames.clear();
+				}
+				layoutSubLocations(node, immediate, loc, maps,
+						treemap == null ? null : cells);
+				sceneDirty = true;
+				layoutVersion.incrementAndGet();
+			}
+		}
+		FrameStats.getInstance().record(Metric.LAYOUT, start);
+	}
+
+	/**
+	 * Gets the positions (-1 to 1) of the sub-modules of node and recursively
+	 * theirs, from the layout store or the positioner, and their treemap
+	 * cell sizes.
+	 */
+	private void computeLayouts(ZNode node, ZNodePositioner positioner,
+			TreemapZNodePositioner treemap,
+			Map<ZNode, Map<ZNode, Point2D>> maps, Map<ZNode, double[]> cells) {
+		final boolean withDeps = node == selectedNode;
+		Map<ZNode, Point2D> map = layoutStore.get(node, getLayoutVariant(),
+				withDeps);
+
+		if (map == null) {
+			map = positioner.getNewPositions(node);
+			// treemap sizes and unsettled force layouts are not worth keeping
+			if (treemap == null
+					&& (nodeLayout != NodeLayout.FORCE || forcePositioner
+							.isConverged(node))) {
+				layoutStore.put(node, getLayoutVariant(), withDeps, map);
+			}
+		}
+		maps.put(node, map);
+		for (ZNode sub : node.getSubmodules()) {
+			if (treemap != null) {
+				cells.put(sub, treemap.getCellSize(sub));
+			}
+		}
+		for (ZNode sub : node.getSubmodules()) {
+			computeLayouts(sub, positioner, treemap, maps, cells);
+		}
+	}
+
+	/**
+	 * Lays out the sub-modules of node around loc (and recursively theirs),
+	 * converting the computed positions from the -1 to 1 range to pixels in
+	 * place.
+	 */
+	private void layoutSubLocations(ZNode node, boolean immediate,
+			Point2D loc, Map<ZNode, Map<ZNode, Point2D>> maps,
+			Map<ZNode, double[]> cells) {
+		final long cx = Math.round(loc.getX()), cy = Math.round(loc.getY());
+		// make bigger when more nodes (treemap cells nest inside their node)
+		float factor = selectedNode == node ? (1.3f + logSize(node
+				.getSubmodules().size()) / 2.2f) : (cells == null ? 1.2f
+				: 1f);
+		if (selectedNode == node && cells != null) {
+			// the treemap leaves room for the selected node
+			factor = Math.max(factor,
+					(float) (1 / TreemapZNodePositioner.PARENT));
+		}
 		int size = Math.round(sizeMap.get(node) * factor);
 		final float xRatio = display.getWidth() / display.getHeight();
-		Map<ZNode, Point2D> map = new PixelZNodePositioner(center,
-				new Dimension((int) (size * xRatio), size),
-				new DirectionZNodePositioner(direction, makeNodePositioner()))
-				.getNewPositions(node);
+		final double halfW = (int) (size * xRatio) * 0.5;
+		final double halfH = size * 0.5;
+		final boolean withDeps = node == selectedNode;
+		final Map<ZNode, Point2D> map = maps.get(node);
+
+		layoutFrames.put(node, new float[] { cx, cy, (float) halfW,
+				(float) halfH });
 
 		for (ZNode sub : node.getSubmodules()) {
-			pointMap.put(sub, map.get(sub));
+			final Point2D p = map.get(sub);
+			p.setLocation(cx + halfW * p.getX(), cy + halfH * p.getY());
+			pointMap.put(sub, p);
+			if (cells != null) {
+				// up and down swap the sides of the cell
+				final double[] c = cells.get(sub);
+				final boolean swap = direction == Direction.UP
+						|| direction == Direction.DOWN;
+				final float cell = (float) Math.min(c[swap ? 1 : 0] * halfW,
+						c[swap ? 0 : 1] * halfH);
+				sizeMap.put(sub, cell * 0.9f);
+				if (immediate)
+					sub.setSize(cell * 0.9f);
+			}
 			if (immediate)
-				sub.setLocation((java.awt.geom.Point2D.Float) map.get(sub));
+				sub.getLocation().setLocation(p);
 
-			updateSubLocations(sub, immediate, map.get(sub));
+			layoutSubLocations(sub, immediate, p, maps, cells);
 		}
-		if (node == selectedNode)
+		if (withDeps)
 			for (ZNode dep : node.getDependencies()) {
-				pointMap.put(dep, map.get(dep));
+				final Point2D p = map.get(dep);
+				p.setLocation(cx + halfW * p.getX(), cy + halfH * p.getY());
+				pointMap.put(dep, p);
 				if (immediate)
-					dep.setLocation((java.awt.geom.Point2D.Float) map.get(dep));
+					dep.getLocation().setLocation(p);
 			}
 	}
 
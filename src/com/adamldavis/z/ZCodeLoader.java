@@ -9,10 +9,16 @@ import java.io.FilenameFilter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.apache.commons.io.FileUtils;
 import org.slf4j.Logger;
@@ -23,6 +29,10 @@ import com.adamldavis.z.api.APIFactory;
 import com.adamldavis.z.api.CodeFormatter;
 import com.adamldavis.z.api.DependencyManager;
 import com.adamldavis.z.api.LanguageParser;
+import com.adamldavis.z.perf.FrameStats;
+import com.adamldavis.z.perf.FrameStats.Metric;
+import com.adamldavis.z.util.ThreadingUtil;
+import com.google.common.base.Function;
 
 public class ZCodeLoader {
 
@@ -51,35 +61,20 @@ public class ZCodeLoader {
 		this.languageParser = languageParser;
 	}
 
+	/** Load a module, directory or file. */
 	public ZNode load(File file) {
+		final long start = FrameStats.getInstance().start();
+		try {
+			return loadFile(file);
+		} finally {
+			FrameStats.getInstance().record(Metric.LOAD, start);
+		}
+	}
+
+	private ZNode loadFile(File file) {
 		if (file.isFile()) {
 			if (file.getName().equals(getDependencyMgrFilename())) {
-				List<ZNode> deps = dependencyManager.getDependencies(file);
-
-				ZNode node = new ZNode(ZNodeType.MODULE,
-						dependencyManager.getProjectName(file), "", "xml", file);
-				node.getDependencies().addAll(deps);
-				node.setParentFile(file.getParentFile());
-				node.replaceCode(dependencyManager.loadCode(file));
-				final File src = dependencyManager.getSourceFolder(file);
-
-				if (src == null || !src.isDirectory()) {
-					for (File f : file.getParentFile().listFiles()) {
-						if (ignore.contains(f.getName()))
-							continue;
-						if (f.isDirectory()) {
-							node.getSubmodules().add(load(f));
-						} else if (f.isFile() && !f.getName().startsWith(".")) {
-							node.getSubmodules().add(loadPlainFile(f, false));
-						}
-					}
-				} else {
-					node.getSubmodules().addAll(loadPackages(src));
-				}
-				for (ZNode pack : node.getSubmodules()) {
-					pack.getDependencies().addAll(deps);
-				}
-				return node;
+				return loadModule(file, true);
 			}
 			final String name = file.getName();
 			final String ext = name.substring(name.lastIndexOf(".") + 1);
@@ -95,7 +90,7 @@ public class ZCodeLoader {
 			for (File f : file.listFiles()) {
 				if (f.isFile()
 						&& f.getName().equals(getDependencyMgrFilename())) {
-					return load(f);
+					return loadFile(f);
 				}
 			}
 
@@ -104,6 +99,177 @@ public class ZCodeLoader {
 		throw new IllegalArgumentException("Unknown file type: " + file);
 	}
 
+	/**
+	 * Loads the module of the given dependency file. If reactor, the modules
+	 * it lists are loaded too, see {@link #loadModules(ZNode, File, Map)}.
+	 */
+	private ZNode loadModule(File file, boolean reactor) {
+		List<ZNode> deps = dependencyManager.getDependencies(file);
+
+		ZNode node = new ZNode(ZNodeType.MODULE,
+				dependencyManager.getProjectName(file), "", "xml", file);
+		node.getDependencies().addAll(deps);
+		node.setParentFile(file.getParentFile());
+		node.replaceCode(dependencyManager.loadCode(file));
+		try {
+			addTransitiveDependencies(node, deps);
+		} catch (RuntimeException e) {
+			// resolution is extra, it never fails loading the module
+			log.error("resolving dependencies of " + file, e);
+		}
+		final File src = dependencyManager.getSourceFolder(file);
+		final Map<File, File> modules = reactor ? findModules(file)
+				: new HashMap<File, File>(0);
+		final Set<File> moduleDirs = new HashSet<File>();
+
+		// modules are loaded as modules (by the reactor), not as directories
+		for (File module : dependencyManager.getModules(file)) {
+			moduleDirs.add(canonical(module).getParentFile());
+		}
+		if (src == null || !src.isDirectory()) {
+			for (File f : file.getParentFile().listFiles()) {
+				if (ignore.contains(f.getName())
+						|| moduleDirs.contains(canonical(f)))
+					continue;
+				if (f.isDirectory()) {
+					node.getSubmodules().add(loadFile(f));
+				} else if (f.isFile() && !f.getName().startsWith(".")) {
+					node.getSubmodules().add(loadPlainFile(f, false));
+				}
+			}
+		} else {
+			node.getSubmodules().addAll(loadPackages(src));
+		}
+		for (ZNode pack : node.getSubmodules()) {
+			pack.getDependencies().addAll(deps);
+		}
+		if (!modules.isEmpty()) {
+			loadModules(node, file, modules);
+		}
+		return node;
+	}
+
+	/**
+	 * Adds what the module's dependencies bring in to its dependencies, each
+	 * linked from the dependency that brought it in. The direct ones stay
+	 * those read from the dependency file, so they can be edited.
+	 */
+	private void addTransitiveDependencies(ZNode module, List<ZNode> direct) {
+		final List<ZNode> all = dependencyManager
+				.getTransitiveDependencies(module);
+		final Set<ZNode> brought = new HashSet<ZNode>();
+		for (ZNode dep : all) {
+			brought.addAll(dep.getDependencies());
+		}
+		final Map<String, ZNode> byKey = new HashMap<String, ZNode>();
+		for (ZNode dep : direct) {
+			byKey.put(dependencyManager.getDependencyKey(dep), dep);
+		}
+		for (ZNode dep : all) {
+			if (brought.contains(dep)) {
+				module.getDependencies().add(dep);
+				continue;
+			}
+			final ZNode declared = byKey.get(dependencyManager
+					.getDependencyKey(dep));
+			if (declared == null) {
+				module.getDependencies().add(dep); // e.g. from a parent
+			} else {
+				declared.getDependencies().addAll(dep.getDependencies());
+			}
+		}
+	}
+
+	/**
+	 * Finds the modules of the given dependency file and their modules, as
+	 * each module's file mapped to the file listing it.
+	 */
+	private Map<File, File> findModules(File rootFile) {
+		final Map<File, File> parents = new LinkedHashMap<File, File>();
+		final LinkedList<File> todo = new LinkedList<File>();
+
+		todo.add(canonical(rootFile));
+		while (!todo.isEmpty()) {
+			final File file = todo.removeFirst();
+			for (File sub : dependencyManager.getModules(file)) {
+				sub = canonical(sub);
+				if (!parents.containsKey(sub) && !sub.equals(canonical(rootFile))) {
+					parents.put(sub, file);
+					todo.add(sub);
+				}
+			}
+		}
+		return parents;
+	}
+
+	/**
+	 * Loads all modules of a reactor in parallel, adds each under the module
+	 * listing it, and replaces dependencies on artifacts built in the reactor
+	 * with the module building it, so modules are linked to the modules they
+	 * depend on.
+	 */
+	private void loadModules(ZNode root, File rootFile, Map<File, File> parents) {
+		final List<File> files = new ArrayList<File>(parents.keySet());
+		final ExecutorService pool = Executors.newFixedThreadPool(Math.max(1,
+				Math.min(files.size(), Runtime.getRuntime()
+						.availableProcessors())));
+		final List<ZNode> loaded;
+		try {
+			loaded = ThreadingUtil.parallelTransform(files,
+					new Function<File, ZNode>() {
+						@Override
+						public ZNode apply(File file) {
+							return loadModule(file, false);
+						}
+					}, pool).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return;
+		} catch (ExecutionException e) {
+			log.error("loading modules of " + rootFile, e);
+			return;
+		} finally {
+			pool.shutdown();
+		}
+		final Map<File, ZNode> nodes = new HashMap<File, ZNode>();
+		final Map<String, ZNode> byKey = new HashMap<String, ZNode>();
+
+		nodes.put(canonical(rootFile), root);
+		for (int i = 0; i < files.size(); i++) {
+			if (loaded.get(i) == null) {
+				log.error("could not load module {}", files.get(i));
+				continue;
+			}
+			nodes.put(files.get(i), loaded.get(i));
+			byKey.put(dependencyManager.getModuleKey(files.get(i)),
+					loaded.get(i));
+		}
+		for (File file : files) {
+			final ZNode node = nodes.get(file);
+			final ZNode parent = nodes.get(parents.get(file));
+			if (node == null || parent == null) {
+				continue;
+			}
+			parent.getSubmodules().add(node);
+			final List<ZNode> deps = node.getDependencies();
+			for (int i = 0; i < deps.size(); i++) {
+				final ZNode module = byKey.get(dependencyManager
+						.getDependencyKey(deps.get(i)));
+				if (module != null && module != node) {
+					deps.set(i, module);
+				}
+			}
+		}
+	}
+
+	private static File canonical(File file) {
+		try {
+			return file.getCanonicalFile();
+		} catch (IOException e) {
+			return file.getAbsoluteFile();
+		}
+	}
+
 	private String getDependencyMgrFilename() {
 		return dependencyManager == null ? null : dependencyManager
 				.getStandardFileName();
@@ -189,7 +355,15 @@ public class ZCodeLoader {
 
 	/** Load a module, package or class. */
 	public ZNode load(ZNode node) {
+		final long start = FrameStats.getInstance().start();
+		try {
+			return loadNode(node);
+		} finally {
+			FrameStats.getInstance().record(Metric.LOAD, start);
+		}
+	}
 
+	private ZNode loadNode(ZNode node) {
 		log.info("load: " + node);
 		log.info("parentFile=" + node.getParentFile());
 		if (!node.getSubmodules().isEmpty()) {
@@ -199,6 +373,9 @@ public class ZCodeLoader {
 		switch (node.getNodeType()) {
 
 		case CLASS:
+			if (node.getParentFile().isFile()) {
+				break; // a class in a jar
+			}
 			final String extension = node.getExtension();
 			final String filename = node.getName()
 					+ (extension.length() > 0 ? ("." + extension) : "");
@@ -222,9 +399,9 @@ public class ZCodeLoader {
 			File depFile = new File(node.getParentFile(),
 					getDependencyMgrFilename());
 			if (depFile.isFile()) {
-				return load(depFile);
+				return loadFile(depFile);
 			} else {
-				return load(node.getParentFile());
+				return loadFile(node.getParentFile());
 			}
 		case PACKAGE:
 			node.getSubmodules().addAll(loadClassFiles(node.getParentFile()));
@@ -232,6 +409,13 @@ public class ZCodeLoader {
 		case METHOD:
 			languageParser.loadMethodHierarchy(node);
 			break;
+		case DEPENDENCY:
+			node.getSubmodules().addAll(
+					dependencyManager.getDependencyContents(node));
+			node.getDependencies().clear();
+			node.getDependencies().addAll(
+					dependencyManager.getTransitiveDependencies(node));
+			break;
 		default: // do nothing
 		}
 		for (ZNode sub : node.getSubmodules()) {
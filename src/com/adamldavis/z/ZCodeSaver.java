@@ -2,15 +2,26 @@ package com.adamldavis.z;
 
 import static java.util.Arrays.asList;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.LineIterator;
+import org.apache.commons.io.IOUtils;
 
+import com.adamldavis.z.ZNode.ZNodeType;
 import com.adamldavis.z.api.APIFactory;
 import com.adamldavis.z.api.CodeFormatter;
 import com.adamldavis.z.api.DependencyManager;
@@ -75,7 +86,41 @@ public class ZCodeSaver {
 		return code;
 	}
 
+	/** Gets the file the given node is saved into. */
+	public File getTargetFile(ZNode zNode) {
+		switch (zNode.getNodeType()) {
+		case CLASS:
+			String extension = "".equals(zNode.getExtension()) ? languageParser
+					.getValidFileExtensions().get(0) : zNode.getExtension();
+			return new File(zNode.getParentFile(), zNode.getName() + "."
+					+ extension);
+		case PACKAGE:
+			return new File(zNode.getParentFile(),
+					languageParser.getPackageFilename());
+		default:
+			return zNode.getParentFile();
+		}
+	}
+
 	public void save(ZNode zNode) {
+		if (zNode.getNodeType() == ZNodeType.METHOD) {
+			Transaction transaction = begin(zNode.getParentFile());
+			transaction.add(zNode);
+			transaction.commit();
+		} else {
+			prepare(zNode).run();
+		}
+	}
+
+	/**
+	 * Does all the reading and changing of a node (other than a method) its
+	 * save needs and returns what is left: writing the file, which touches
+	 * nothing of the node and so may run on another thread.
+	 */
+	public Runnable prepare(ZNode zNode) {
+		final File file;
+		final List<String> data;
+
 		switch (zNode.getNodeType()) {
 		case CLASS:
 			if ("".equals(zNode.getExtension())) {
@@ -83,7 +128,8 @@ public class ZCodeSaver {
 						0));
 			}
 			String filename = zNode.getName() + "." + zNode.getExtension();
-			save(new File(zNode.getParentFile(), filename), getClassCode(zNode));
+			file = new File(zNode.getParentFile(), filename);
+			data = getClassCode(zNode);
 			break;
 		case PACKAGE:
 			String dir = zNode.getName().replace('.', File.separatorChar);
@@ -97,74 +143,318 @@ public class ZCodeSaver {
 						+ zNode.getName().replaceAll("\\W", ".")
 						+ (languageParser.requiresSemicolon() ? ";" : ""));
 			}
-			save(new File(zNode.getParentFile(),
-					languageParser.getPackageFilename()), zNode.getCodeLines());
+			file = new File(zNode.getParentFile(),
+					languageParser.getPackageFilename());
+			data = new ArrayList<String>(zNode.getCodeLines());
 			break;
 		case MODULE:
 		case DEPENDENCY:
 			if (dependencyManager == null) {
 				// this is probably a text-file
-				save(zNode.getParentFile(), zNode.getCodeLines());
+				file = zNode.getParentFile();
+				data = new ArrayList<String>(zNode.getCodeLines());
+				break;
 			}
-			if (!zNode.isCodeEmpty()) {
-				dependencyManager.save(zNode);
+			if (zNode.isCodeEmpty()) {
+				return NOTHING;
 			}
-			break;
-		case METHOD:
-			saveMethod(zNode);
-			updateLineNumbers(zNode);
-			break;
+			// the dependency manager gets a copy to read on its own
+			final ZNode copy = new ZNode(zNode.getNodeType(), zNode.getName(),
+					"", zNode.getExtension(), zNode.getParentFile());
+			copy.setCode(zNode.getCodeLines());
+			return new Runnable() {
+				@Override
+				public void run() {
+					dependencyManager.save(copy);
+				}
+			};
+		default:
+			throw new IllegalArgumentException(
+					"methods are saved by a Transaction: " + zNode);
 		}
+		return new Runnable() {
+			@Override
+			public void run() {
+				save(file, data);
+			}
+		};
 	}
 
-	private void updateLineNumbers(ZNode methodNode) {
-		List<ZNode> list = new LinkedList<ZNode>(methodNode.getParentNode()
-				.getSubmodules());
-		boolean pastMethod = false;
-		final int diff = methodNode.getCodeLineSize()
-				- methodNode.getOriginalSize();
+	private static final Runnable NOTHING = new Runnable() {
+		@Override
+		public void run() {
+		}
+	};
 
-		for (ZNode method : list) {
-			if (methodNode == method) {
-				pastMethod = true;
-				continue;
-			}
-			if (pastMethod) {
-				method.setLineNumber(method.getLineNumber() + diff);
+	/**
+	 * The save of a method as it was asked for: its code and where it and
+	 * the other methods of its class were in the file. Taken on the event
+	 * thread, so the file can be written on another without reading nodes
+	 * the painter and editor use.
+	 */
+	public static class MethodSave {
+
+		final ZNode method;
+
+		final List<String> code;
+
+		int lineNumber;
+
+		int originalSize;
+
+		/* line numbers of the other methods of the class */
+		final Map<ZNode, Integer> siblings = new HashMap<ZNode, Integer>();
+
+		public MethodSave(ZNode method, String code) {
+			this(method, ZNode.lines(code));
+		}
+
+		MethodSave(ZNode method, List<String> code) {
+			this.method = method;
+			this.code = new ArrayList<String>(code);
+			this.lineNumber = method.getLineNumber();
+			this.originalSize = method.getOriginalSize();
+			if (method.getParentNode() != null) {
+				for (ZNode sibling : method.getParentNode().getSubmodules()) {
+					if (sibling != method) {
+						siblings.put(sibling, sibling.getLineNumber());
+					}
+				}
 			}
 		}
+
+		public ZNode getMethod() {
+			return method;
+		}
 	}
 
-	/** Overwrite only the method represented by given node. */
-	private void saveMethod(ZNode zNode) {
-		int n = 0, start, end;
-		try {
-			start = zNode.getLineNumber();
-			end = start + zNode.getOriginalSize();
-			final File classFile = zNode.getParentFile();
-			LineIterator iter = FileUtils.lineIterator(classFile);
-			File temp = File.createTempFile(classFile.getName() + "_z", null);
-
-			// iterate through file, copying it, except overwriting the method
-			for (String line = null; iter.hasNext(); n++) {
-				line = iter.next();
-				if (n > start && n < end) {
-					// skip these lines
-				} else if (n == start) {
-					FileUtils.writeLines(temp, zNode.getCodeLines(), true);
-					if (start == end) { // new method
-						FileUtils.writeLines(temp, asList(line), true);
+	/**
+	 * Method saves for one file, written together by {@link #commit()}: the
+	 * file is copied once, line by line, into a temp file next to it with
+	 * every method replaced, which is then renamed over the file. Line
+	 * numbers of all methods of the class are then taken from the result.
+	 * {@link #write()} only does the file work, the nodes are changed by
+	 * {@link Written#apply()}.
+	 */
+	public class Transaction {
+
+		final File file;
+
+		final Map<ZNode, MethodSave> methods = new LinkedHashMap<ZNode, MethodSave>();
+
+		Transaction(File file) {
+			this.file = file;
+		}
+
+		public File getFile() {
+			return file;
+		}
+
+		/** Adds (or replaces) the save of a method of this file. */
+		public void add(ZNode method) {
+			add(new MethodSave(method, method.getCodeLines()));
+		}
+
+		/** Adds (or replaces) the save of a method of this file. */
+		public void add(MethodSave save) {
+			final ZNode method = save.method;
+			if (method.getNodeType() != ZNodeType.METHOD
+					|| !file.equals(method.getParentFile())) {
+				throw new IllegalArgumentException("not a method of " + file
+						+ ": " + method);
+			}
+			methods.remove(method);
+			methods.put(method, save);
+		}
+
+		public boolean isEmpty() {
+			return methods.isEmpty();
+		}
+
+		/**
+		 * Takes where methods are from the given positions (line number and,
+		 * if not -1, original size by node) instead of from the saves, e.g.
+		 * for writes whose results are not applied to the nodes yet.
+		 */
+		public void setPositions(Map<ZNode, int[]> positions) {
+			for (MethodSave save : methods.values()) {
+				int[] position = positions.get(save.method);
+				if (position != null) {
+					save.lineNumber = position[0];
+					if (position[1] >= 0) {
+						save.originalSize = position[1];
+					}
+				}
+				for (Map.Entry<ZNode, Integer> sibling : save.siblings
+						.entrySet()) {
+					position = positions.get(sibling.getKey());
+					if (position != null) {
+						sibling.setValue(position[0]);
 					}
-				} else
-					FileUtils.writeLines(temp, asList(line), true);
+				}
 			}
-			iter.close();
+		}
+
+		/** Writes the file and changes the nodes to match. */
+		public void commit() {
+			write().apply();
+		}
 
-			if (!classFile.delete() || !temp.renameTo(classFile)) {
-				throw new RuntimeException("rename failed!");
+		/** Writes the file, touching no node. */
+		public Written write() {
+			final Written result = new Written();
+			if (methods.isEmpty()) {
+				return result;
 			}
-		} catch (IOException e) {
-			throw new RuntimeException("file=" + zNode.getParentFile());
+			// methods by start line; lines of other methods to update
+			final Map<Integer, MethodSave> starts = new HashMap<Integer, MethodSave>();
+			final Map<Integer, List<ZNode>> others = new HashMap<Integer, List<ZNode>>();
+			final Map<ZNode, Integer> siblings = new LinkedHashMap<ZNode, Integer>();
+			for (MethodSave save : methods.values()) {
+				if (starts.put(save.lineNumber, save) != null) {
+					throw new IllegalStateException("two methods at line "
+							+ save.lineNumber + " of " + file);
+				}
+				siblings.putAll(save.siblings);
+			}
+			siblings.keySet().removeAll(methods.keySet());
+			for (Map.Entry<ZNode, Integer> sibling : siblings.entrySet()) {
+				List<ZNode> list = others.get(sibling.getValue());
+				if (list == null) {
+					others.put(sibling.getValue(),
+							list = new ArrayList<ZNode>(1));
+				}
+				list.add(sibling.getKey());
+			}
+			BufferedReader in = null;
+			BufferedWriter out = null;
+			File temp = null;
+			try {
+				temp = File.createTempFile(file.getName() + "_z", null, file
+						.getAbsoluteFile().getParentFile());
+				in = new BufferedReader(new InputStreamReader(
+						new FileInputStream(file), encoding));
+				final FileOutputStream fos = new FileOutputStream(temp);
+				out = new BufferedWriter(new OutputStreamWriter(fos, encoding));
+				int end = -1; // of the method being replaced
+				int written = 0;
+
+				// copy the file, except overwriting the methods
+				int n = 0;
+				for (String line; (line = in.readLine()) != null; n++) {
+					final MethodSave save = starts.get(n);
+					if (save != null) {
+						result.lines.put(save.method, written);
+						writeLines(out, save.code);
+						written += save.code.size();
+						end = n + save.originalSize;
+						if (end > n) {
+							continue; // replaced
+						} // else new method
+					} else if (n < end) {
+						continue; // skip these lines
+					}
+					if (others.containsKey(n)) {
+						for (ZNode sibling : others.get(n)) {
+							result.lines.put(sibling, written);
+						}
+					}
+					writeLines(out, asList(line));
+					written++;
+				}
+				out.flush();
+				fos.getFD().sync();
+				out.close();
+				replace(temp, file);
+				temp = null;
+			} catch (IOException e) {
+				throw new RuntimeException("file=" + file, e);
+			} finally {
+				IOUtils.closeQuietly(in);
+				IOUtils.closeQuietly(out);
+				if (temp != null) {
+					temp.delete();
+				}
+			}
+			result.saves.addAll(methods.values());
+			methods.clear();
+			return result;
+		}
+	}
+
+	/** What a {@link Transaction} wrote, to be applied to the nodes. */
+	public static class Written {
+
+		/* new line numbers of the methods written and their siblings */
+		final Map<ZNode, Integer> lines = new LinkedHashMap<ZNode, Integer>();
+
+		final List<MethodSave> saves = new ArrayList<MethodSave>();
+
+		/** The methods written. */
+		public List<ZNode> getMethods() {
+			final List<ZNode> list = new ArrayList<ZNode>(saves.size());
+			for (MethodSave save : saves) {
+				list.add(save.method);
+			}
+			return list;
+		}
+
+		/**
+		 * Where the nodes are now in the file: line number and original size
+		 * (-1 if unchanged) by node.
+		 */
+		public Map<ZNode, int[]> getPositions() {
+			final Map<ZNode, int[]> positions = new HashMap<ZNode, int[]>();
+			for (Map.Entry<ZNode, Integer> entry : lines.entrySet()) {
+				positions.put(entry.getKey(), new int[] { entry.getValue(), -1 });
+			}
+			for (MethodSave save : saves) {
+				final int[] position = positions.get(save.method);
+				if (position != null) {
+					position[1] = save.code.size();
+				}
+			}
+			return positions;
+		}
+
+		/**
+		 * Sets the code, line numbers and original sizes of the nodes to what
+		 * was written. Call on the event thread.
+		 */
+		public void apply() {
+			for (MethodSave save : saves) {
+				save.method.setCode(save.code);
+				save.method.setOriginalSize(save.code.size());
+			}
+			for (Map.Entry<ZNode, Integer> entry : lines.entrySet()) {
+				entry.getKey().setLineNumber(entry.getValue());
+			}
+		}
+	}
+
+	/** Starts collecting method saves for the given file. */
+	public Transaction begin(File file) {
+		return new Transaction(file);
+	}
+
+	private static void writeLines(BufferedWriter out, List<String> lines)
+			throws IOException {
+		for (String line : lines) {
+			out.write(line);
+			out.newLine();
+		}
+	}
+
+	/**
+	 * Renames temp to target. Within one directory that replaces target
+	 * atomically on POSIX systems; where renaming cannot replace a file
+	 * (Windows) target is deleted first.
+	 */
+	static void replace(File temp, File target) throws IOException {
+		if (!temp.renameTo(target)
+				&& (!target.delete() || !temp.renameTo(target))) {
+			throw new IOException("renaming " + temp + " to " + target
+					+ " failed");
 		}
 	}
 
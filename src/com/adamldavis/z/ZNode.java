@@ -47,6 +47,7 @@ public class ZNode implements Serializable {
 	private int lineNumber = 0; // only for things in files, like functions
 	private ZNode parentNode; // null if no parent
 	private int originalSize = 0;
+	private volatile NodeStatus status = NodeStatus.OKAY;
 
 	public ZNode() {
 		setLocation(new Point2D.Float(0, 0));
@@ -94,7 +95,12 @@ public class ZNode implements Serializable {
 
 	private void setCode(String code) {
 		this.code.clear();
-		this.code.addAll(Arrays.asList(code.split("(\n\r)|\n")));
+		this.code.addAll(lines(code));
+	}
+
+	/** Splits code into lines the way nodes hold it. */
+	static List<String> lines(String code) {
+		return Arrays.asList(code.split("(\n\r)|\n"));
 	}
 
 	public void setCode(Collection<String> code) {
@@ -238,6 +244,15 @@ public class ZNode implements Serializable {
 		return lineNumber;
 	}
 
+	/** How the node last compiled. */
+	public NodeStatus getStatus() {
+		return status;
+	}
+
+	public void setStatus(NodeStatus status) {
+		this.status = status;
+	}
+
 	public void setLineNumber(int lineNumber) {
 		this.lineNumber = lineNumber;
 	}
@@ -254,4 +269,9 @@ public class ZNode implements Serializable {
 		return originalSize;
 	}
 
+	/** Sets the number of lines of this node in its file, e.g. once saved. */
+	public void setOriginalSize(int originalSize) {
+		this.originalSize = originalSize;
+	}
+
 }
@@ -0,0 +1,109 @@
+/** Copyright 2012, Adam L. Davis, all rights reserved. */
+package com.adamldavis.z;
+
+import java.awt.geom.Point2D;
+import java.util.Collection;
+import java.util.Map;
+
+import com.adamldavis.z.SmoothAnimator.AnimationType;
+
+/**
+ * Structure-of-arrays copy of the visible nodes and their layout targets.
+ * {@link #rebuild} copies where the nodes are and where they go once after
+ * a layout (or after a node was moved by hand); {@link #animate} then moves
+ * every node toward its target in the arrays, without reading the nodes,
+ * allocating or looking anything up, and only stores the results into the
+ * nodes for painting.
+ *
+ * @author Adam L. Davis
+ *
+ */
+public class ZScene {
+
+	static final byte HAS_POINT = 1;
+
+	static final byte HAS_SIZE = 2;
+
+	private ZNode[] nodes = new ZNode[0];
+
+	private float[] x = new float[0], y = new float[0], size = new float[0];
+
+	private float[] targetX = new float[0], targetY = new float[0],
+			targetSize = new float[0];
+
+	private byte[] flags = new byte[0];
+
+	private int count;
+
+	/**
+	 * Copies the given nodes, where they are now and any targets found in
+	 * the maps. Arrays are only reallocated when they need to grow.
+	 */
+	public void rebuild(Collection<ZNode> zNodes,
+			Map<ZNode, Point2D> pointMap, Map<ZNode, Float> sizeMap) {
+		ensureCapacity(zNodes.size());
+		count = 0;
+		for (ZNode node : zNodes) {
+			final int i = count++;
+			final Point2D target = pointMap.get(node);
+			final Float tsize = sizeMap.get(node);
+
+			nodes[i] = node;
+			x[i] = node.getLocation().x;
+			y[i] = node.getLocation().y;
+			size[i] = node.getSize();
+			flags[i] = 0;
+			if (target != null) {
+				targetX[i] = (float) target.getX();
+				targetY[i] = (float) target.getY();
+				flags[i] |= HAS_POINT;
+			}
+			if (tsize != null) {
+				targetSize[i] = tsize;
+				flags[i] |= HAS_SIZE;
+			}
+		}
+		for (int i = count; i < nodes.length; i++) {
+			nodes[i] = null; // don't keep old nodes alive
+		}
+	}
+
+	private void ensureCapacity(int n) {
+		if (n <= nodes.length) {
+			return;
+		}
+		final int cap = Math.max(n, nodes.length * 3 / 2);
+		nodes = new ZNode[cap];
+		x = new float[cap];
+		y = new float[cap];
+		size = new float[cap];
+		targetX = new float[cap];
+		targetY = new float[cap];
+		targetSize = new float[cap];
+		flags = new byte[cap];
+	}
+
+	/**
+	 * Moves every node toward its target like
+	 * {@link SmoothAnimator#animate(Point2D, Point2D, float, AnimationType)}
+	 * from its current position, and stores the result into the nodes.
+	 */
+	public void animate(float time, AnimationType type) {
+		final float w = (float) SmoothAnimator.weight(time, type);
+		final ZNode[] nodes = this.nodes;
+		final float[] x = this.x, y = this.y, size = this.size;
+
+		for (int i = 0; i < count; i++) {
+			if ((flags[i] & HAS_POINT) != 0) {
+				x[i] += (targetX[i] - x[i]) * w;
+				y[i] += (targetY[i] - y[i]) * w;
+				nodes[i].getLocation().setLocation(x[i], y[i]);
+			}
+			if ((flags[i] & HAS_SIZE) != 0) {
+				size[i] += (targetSize[i] - size[i]) * w;
+				nodes[i].setSize(size[i]);
+			}
+		}
+	}
+
+}
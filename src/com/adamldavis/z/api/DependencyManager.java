@@ -24,4 +24,23 @@ public interface DependencyManager {
 	/** folder for binaries of compiled code (or src if dynamic). */
 	File getCompiledFolder(File dependencyFile);
 
+	/** Dependency files of the modules built with this one (IE a reactor). */
+	List<File> getModules(File dependencyFile);
+
+	/** Id of what the given file builds (IE groupId:artifactId), or null. */
+	String getModuleKey(File dependencyFile);
+
+	/** Id of what the given dependency node needs, like getModuleKey. */
+	String getDependencyKey(ZNode dependencyNode);
+
+	/** Packages (with their classes) of what the dependency provides. */
+	List<ZNode> getDependencyContents(ZNode dependencyNode);
+
+	/**
+	 * All that the given module or dependency node needs, directly or not,
+	 * nearest first. The dependencies of each node returned are those it
+	 * brought in.
+	 */
+	List<ZNode> getTransitiveDependencies(ZNode node);
+
 }
@@ -10,4 +10,7 @@ public interface LineError extends LineExecution {
 
 	String getLocation();
 
+	/** If only a warning (the code still compiles). */
+	boolean isWarning();
+
 }
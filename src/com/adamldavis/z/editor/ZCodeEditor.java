@@ -9,6 +9,7 @@ import neoe.ne.EditorAdapter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.adamldavis.z.SaveQueue;
 import com.adamldavis.z.ZCodeSaver;
 import com.adamldavis.z.ZNode;
 import com.adamldavis.z.api.APIFactory;
@@ -30,6 +31,7 @@ public class ZCodeEditor extends EditorAdapter {
 		super();
 		panel = getEditorPanel();
 		setText(apiFactory.getCodeFormatter().format(zNode.getCode()));
+		setKeywords(apiFactory.getLanguageParser().getReservedWords());
 		this.zNode = zNode;
 		this.apiFactory = apiFactory;
 		panel.requestFocus();
@@ -41,6 +43,13 @@ public class ZCodeEditor extends EditorAdapter {
 		new ZCodeSaver(apiFactory).save(zNode);
 	}
 
+	/** Queues the current text to be saved off the event thread. */
+	public void saveLater(SaveQueue queue, SaveQueue.Listener listener,
+			long delay) {
+		queue.submit(zNode, getText(), new ZCodeSaver(apiFactory), listener,
+				delay);
+	}
+
 	public void addKeyListener(KeyListener keyAdapter) {
 		editor.addKeyListener(keyAdapter);
 	}
@@ -20,6 +20,8 @@ import javax.swing.JFrame;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 
+import neoe.ne.EditorAdapter;
+
 import org.apache.commons.io.FileUtils;
 
 import com.adamldavis.z.ZNode;
@@ -147,6 +149,9 @@ public class ZEdit {
 
 	public void remove(Editor editor) {
 		editors.remove(editor);
+		if (editor instanceof EditorAdapter) {
+			((EditorAdapter) editor).close();
+		}
 	}
 
 	public void updatePaneSize() {
@@ -300,6 +300,20 @@ public class ZMenu extends MouseAdapter implements MouseMotionListener,
 				actionListener.actionPerformed(e);
 			}
 		});
+		layout.add("Force").addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				z.setNodeLayout(NodeLayout.FORCE);
+				actionListener.actionPerformed(e);
+			}
+		});
+		layout.add("Treemap").addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				z.setNodeLayout(NodeLayout.TREEMAP);
+				actionListener.actionPerformed(e);
+			}
+		});
 		return layout;
 	}
 
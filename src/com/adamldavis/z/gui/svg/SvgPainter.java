@@ -0,0 +1,130 @@
+/** Copyright 2012, Adam L. Davis, all rights reserved. */
+package com.adamldavis.z.gui.svg;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.io.Writer;
+
+import com.adamldavis.z.ZNode;
+import com.adamldavis.z.ZNodeLink;
+import com.adamldavis.z.gui.Painter;
+
+/**
+ * Writes nodes and links as SVG elements, mirroring the shapes drawn by
+ * ZNodePainter.
+ *
+ * @author Adam L. Davis
+ *
+ */
+public class SvgPainter implements Painter {
+
+	final Writer out;
+
+	final float scale;
+
+	final Color lineColor;
+
+	final Color fillColor;
+
+	public SvgPainter(Writer out, float scale, Color lineColor, Color fillColor) {
+		this.out = out;
+		this.scale = scale;
+		this.lineColor = lineColor;
+		this.fillColor = fillColor;
+	}
+
+	public void start(int width, int height, Color background)
+			throws IOException {
+		out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		out.write("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"" + width
+				+ "\" height=\"" + height + "\">\n");
+		out.write("<rect width=\"100%\" height=\"100%\" fill=\""
+				+ hex(background) + "\"/>\n");
+	}
+
+	public void end() throws IOException {
+		out.write("</svg>\n");
+		out.flush();
+	}
+
+	@Override
+	public void paint(Object object) {
+		try {
+			if (object instanceof ZNode) {
+				draw((ZNode) object);
+			} else if (object instanceof ZNodeLink) {
+				final ZNodeLink link = (ZNodeLink) object;
+				line(link.getNode1(), link.getNode2(), 2f);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/** Draws a line from node1 to node2. */
+	public void line(ZNode node1, ZNode node2, float width) throws IOException {
+		out.write(String.format(
+				"<line x1=\"%.1f\" y1=\"%.1f\" x2=\"%.1f\" y2=\"%.1f\""
+						+ " stroke=\"%s\" stroke-width=\"%.1f\"/>\n",
+				node1.getLocation().x * scale, node1.getLocation().y * scale,
+				node2.getLocation().x * scale, node2.getLocation().y * scale,
+				hex(lineColor), width));
+	}
+
+	void draw(ZNode node) throws IOException {
+		final float size = node.getSize() * scale;
+		final float x = node.getLocation().x * scale - size * 0.5f;
+		final float y = node.getLocation().y * scale - size * 0.5f;
+		final String style = String.format(
+				" fill=\"%s\" stroke=\"%s\"/>\n", hex(fillColor),
+				hex(lineColor));
+
+		switch (node.getNodeType()) {
+		case CLASS:
+			out.write(String.format(
+					"<rect x=\"%.1f\" y=\"%.1f\" width=\"%.1f\" height=\"%.1f\"",
+					x, y, size, size) + style);
+			break;
+		case CALLEE:
+		case METHOD:
+			out.write(String.format(
+					"<rect x=\"%.1f\" y=\"%.1f\" width=\"%.1f\" height=\"%.1f\"",
+					x, y + size / 8, size, size * 0.75f) + style);
+			break;
+		case PACKAGE:
+			out.write(String.format(
+					"<ellipse cx=\"%.1f\" cy=\"%.1f\" rx=\"%.1f\" ry=\"%.1f\"",
+					x + size / 2, y + size / 2, size / 2, size * 0.375f)
+					+ style);
+			break;
+		case CALLER:
+		case DEPENDENCY:
+			out.write(String.format(
+					"<circle cx=\"%.1f\" cy=\"%.1f\" r=\"%.1f\""
+							+ " stroke-dasharray=\"4,4\"", x + size / 2, y
+							+ size / 2, size / 2)
+					+ style);
+			break;
+		default:
+			out.write(String.format("<circle cx=\"%.1f\" cy=\"%.1f\" r=\"%.1f\"",
+					x + size / 2, y + size / 2, size / 2) + style);
+		}
+		if (node.getName() != null && size > 20) {
+			out.write(String.format(
+					"<text x=\"%.1f\" y=\"%.1f\" font-size=\"%.1f\" fill=\"%s\">%s</text>\n",
+					x - 1, y, Math.max(size * 16 / 80, 5), hex(lineColor),
+					escape(node.getName())));
+		}
+	}
+
+	static String hex(Color color) {
+		return String.format("#%02x%02x%02x", color.getRed(),
+				color.getGreen(), color.getBlue());
+	}
+
+	static String escape(String text) {
+		return text.replace("&", "&amp;").replace("<", "&lt;")
+				.replace(">", "&gt;");
+	}
+
+}
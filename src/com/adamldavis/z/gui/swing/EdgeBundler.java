@@ -0,0 +1,172 @@
+/** Copyright 2012, Adam L. Davis, all rights reserved. */
+package com.adamldavis.z.gui.swing;
+
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Path2D;
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.adamldavis.z.ZNode;
+
+/**
+ * Hierarchical edge bundling (Holten 2006) of the dependency links of one
+ * node. Dependency names are split into a package tree ("java.util" is under
+ * "java", "slf4j-api" under "slf4j"); each link is a B-spline through the
+ * centers of the groups it passes, pulled toward a straight line by
+ * {@link #BETA}. Links to the same package therefore share most of their
+ * path. The spline is built once per layout and kept as a single path; it
+ * is only re-scaled when the zoom changes.
+ *
+ * @author Adam L. Davis
+ *
+ */
+public class EdgeBundler {
+
+	/** Bundling strength: 1 follows the tree, 0 is a straight line. */
+	public static final double BETA = 0.85;
+
+	/** A group of dependencies sharing a name prefix. */
+	static class Group {
+		final Map<String, Group> children = new TreeMap<String, Group>();
+
+		final List<ZNode> leaves = new ArrayList<ZNode>();
+
+		double x, y;
+
+		int count;
+	}
+
+	private ZNode source;
+
+	private int version = -1;
+
+	private float scale;
+
+	/** Bundled links in node coordinates. */
+	private final Path2D.Float path = new Path2D.Float();
+
+	/** Bundled links in screen coordinates for the current scale. */
+	private final Path2D.Float scaled = new Path2D.Float();
+
+	/**
+	 * Gets the bundled dependency links of the given node in screen
+	 * coordinates, rebuilding them only when the layout version changed.
+	 */
+	public Path2D.Float getPath(ZNode node, int layoutVersion, float scale) {
+		if (node != source || layoutVersion != version) {
+			source = node;
+			version = layoutVersion;
+			build(node);
+			this.scale = Float.NaN;
+		}
+		if (scale != this.scale) {
+			this.scale = scale;
+			scaled.reset();
+			scaled.append(path.getPathIterator(new AffineTransform(scale, 0,
+					0, scale, 1, 1)), false);
+		}
+		return scaled;
+	}
+
+	void build(ZNode node) {
+		path.reset();
+		final Group root = new Group();
+		for (ZNode dep : node.getDependencies()) {
+			Group group = root;
+			for (String part : dep.getName().split("[.\\-]")) {
+				Group child = group.children.get(part);
+				if (child == null) {
+					group.children.put(part, child = new Group());
+				}
+				group = child;
+			}
+			group.leaves.add(dep);
+		}
+		center(root);
+
+		final List<Point2D.Double> points = new ArrayList<Point2D.Double>();
+		final Point2D.Float start = node.getLocation();
+		for (ZNode dep : node.getDependencies()) {
+			points.clear();
+			points.add(new Point2D.Double(start.x, start.y));
+			Group group = root;
+			for (String part : dep.getName().split("[.\\-]")) {
+				if (group.count > 1) {
+					points.add(new Point2D.Double(group.x, group.y));
+				}
+				group = group.children.get(part);
+			}
+			if (group.count > 1) {
+				points.add(new Point2D.Double(group.x, group.y));
+			}
+			points.add(new Point2D.Double(dep.getLocation().x,
+					dep.getLocation().y));
+			straighten(points, BETA);
+			spline(path, points);
+		}
+	}
+
+	/** Places every group at the mean location of its dependencies. */
+	private static void center(Group group) {
+		double x = 0, y = 0;
+		int count = 0;
+		for (Group child : group.children.values()) {
+			center(child);
+			x += child.x * child.count;
+			y += child.y * child.count;
+			count += child.count;
+		}
+		for (ZNode leaf : group.leaves) {
+			x += leaf.getLocation().x;
+			y += leaf.getLocation().y;
+			count++;
+		}
+		group.count = count;
+		if (count > 0) {
+			group.x = x / count;
+			group.y = y / count;
+		}
+	}
+
+	/** Moves control points toward the line from first to last point. */
+	static void straighten(List<Point2D.Double> points, double beta) {
+		final int n = points.size() - 1;
+		final Point2D.Double first = points.get(0), last = points.get(n);
+		for (int i = 1; i < n; i++) {
+			final Point2D.Double p = points.get(i);
+			final double t = (double) i / n;
+			p.x = beta * p.x + (1 - beta) * (first.x + t * (last.x - first.x));
+			p.y = beta * p.y + (1 - beta) * (first.y + t * (last.y - first.y));
+		}
+	}
+
+	/**
+	 * Appends a uniform cubic B-spline through the control points (ends
+	 * repeated so it starts and ends on them) as Bezier segments.
+	 */
+	static void spline(Path2D path, List<Point2D.Double> points) {
+		final int n = points.size();
+		path.moveTo(points.get(0).x, points.get(0).y);
+		if (n == 2) {
+			path.lineTo(points.get(1).x, points.get(1).y);
+			return;
+		}
+		for (int i = -2; i < n - 1; i++) {
+			// segment i starts at (q0 + 4 q1 + q2) / 6, the end of i - 1
+			final Point2D.Double q1 = get(points, i + 1);
+			final Point2D.Double q2 = get(points, i + 2);
+			final Point2D.Double q3 = get(points, i + 3);
+			path.curveTo((2 * q1.x + q2.x) / 3, (2 * q1.y + q2.y) / 3,
+					(q1.x + 2 * q2.x) / 3, (q1.y + 2 * q2.y) / 3,
+					(q1.x + 4 * q2.x + q3.x) / 6, (q1.y + 4 * q2.y + q3.y) / 6);
+		}
+	}
+
+	private static Point2D.Double get(List<Point2D.Double> points, int i) {
+		return points.get(Math.max(0, Math.min(points.size() - 1, i)));
+	}
+
+}
@@ -0,0 +1,59 @@
+/** Copyright 2012, Adam L. Davis, all rights reserved. */
+package com.adamldavis.z.gui.swing;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+
+import com.adamldavis.z.perf.FrameStats;
+import com.adamldavis.z.perf.FrameStats.Metric;
+
+/**
+ * Paints the FPS and timing percentiles of {@link FrameStats} in the top-left
+ * corner.
+ *
+ * @author Adam L. Davis
+ *
+ */
+public class FrameStatsPainter extends Graphics2DPainter {
+
+	static final Font font = new Font(Font.MONOSPACED, Font.PLAIN, 12);
+
+	final Color color;
+
+	public FrameStatsPainter(Graphics2D graphics2d, Color color) {
+		super(graphics2d);
+		this.color = color;
+	}
+
+	@Override
+	public void paint(Object object) {
+		if (object instanceof FrameStats) {
+			final FrameStats stats = (FrameStats) object;
+			final Font oldFont = graphics2d.getFont();
+			int y = 40;
+
+			graphics2d.setFont(font);
+			graphics2d.setColor(color);
+			graphics2d.drawString(String.format("fps %5.1f  nodes %d  links %d",
+					stats.getFramesPerSecond(), stats.getNodeCount(),
+					stats.getLinkCount()), 8, y);
+			for (Metric metric : Metric.values()) {
+				y += 14;
+				graphics2d.drawString(String.format(
+						"%-8s p50 %6.2f  p95 %6.2f  p99 %6.2f ms", metric,
+						stats.getPercentile(metric, 50),
+						stats.getPercentile(metric, 95),
+						stats.getPercentile(metric, 99)), 8, y);
+			}
+			final long alloc = stats.getAllocatedBytesPerSecond();
+			if (alloc >= 0) {
+				y += 14;
+				graphics2d.drawString(
+						String.format("alloc %d KB/s", alloc / 1024), 8, y);
+			}
+			graphics2d.setFont(oldFont);
+		}
+	}
+
+}
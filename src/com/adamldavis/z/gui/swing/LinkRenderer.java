@@ -0,0 +1,126 @@
+/** Copyright 2012, Adam L. Davis, all rights reserved. */
+package com.adamldavis.z.gui.swing;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.Stroke;
+import java.awt.geom.Path2D;
+import java.awt.geom.Point2D;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.Map;
+
+import com.adamldavis.z.ZNodeLink;
+import com.adamldavis.z.ZNodeLink.LinkType;
+
+/**
+ * Draws links in batches: one Path2D per link-type, so thousands of links
+ * cost a handful of draw calls instead of one GradientPaint and drawLine
+ * each. The gradient is approximated by a short highlighted segment at the
+ * start of each link. Above {@link #getSimplifyThreshold()} links, draws
+ * without antialiasing or highlights and skips links shorter than a pixel.
+ *
+ * @author Adam L. Davis
+ *
+ */
+public class LinkRenderer {
+
+	public static final Stroke THIN = new BasicStroke(1f);
+
+	public static final Stroke THICK = new BasicStroke(2f);
+
+	/** Fraction of each link drawn in the highlight color. */
+	static final float HIGHLIGHT = 0.25f;
+
+	private final Map<LinkType, Path2D.Float> lines = new EnumMap<LinkType, Path2D.Float>(
+			LinkType.class);
+
+	private final Map<LinkType, Stroke> strokes = new EnumMap<LinkType, Stroke>(
+			LinkType.class);
+
+	private final Path2D.Float highlights = new Path2D.Float();
+
+	private int simplifyThreshold = 2000;
+
+	public LinkRenderer() {
+		for (LinkType type : LinkType.values()) {
+			lines.put(type, new Path2D.Float());
+			strokes.put(type, THICK);
+		}
+	}
+
+	/**
+	 * Paints all given links.
+	 *
+	 * @param lineColor
+	 *            Color of the links.
+	 * @param highlightColor
+	 *            Color at the start of each link.
+	 */
+	public void paint(Graphics2D g2d, Collection<ZNodeLink> links,
+			Color lineColor, Color highlightColor) {
+		if (links.isEmpty()) {
+			return;
+		}
+		final boolean simple = isSimplified(links.size());
+
+		for (Path2D.Float path : lines.values()) {
+			path.reset();
+		}
+		highlights.reset();
+		for (ZNodeLink link : links) {
+			final Point2D.Float p1 = link.getNode1().getLocation();
+			final Point2D.Float p2 = link.getNode2().getLocation();
+			final float dx = p2.x - p1.x, dy = p2.y - p1.y;
+
+			if (simple && dx * dx + dy * dy < 1f) {
+				continue;
+			}
+			final Path2D.Float path = lines.get(link.getLinkType());
+			path.moveTo(p1.x, p1.y);
+			path.lineTo(p2.x, p2.y);
+			if (!simple) {
+				highlights.moveTo(p1.x, p1.y);
+				highlights.lineTo(p1.x + dx * HIGHLIGHT, p1.y + dy * HIGHLIGHT);
+			}
+		}
+		final Object antialias = g2d
+				.getRenderingHint(RenderingHints.KEY_ANTIALIASING);
+		if (simple) {
+			g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+					RenderingHints.VALUE_ANTIALIAS_OFF);
+		}
+		g2d.setColor(lineColor);
+		for (Map.Entry<LinkType, Path2D.Float> entry : lines.entrySet()) {
+			g2d.setStroke(strokes.get(entry.getKey()));
+			g2d.draw(entry.getValue());
+		}
+		if (!simple) {
+			g2d.setColor(highlightColor);
+			g2d.setStroke(THICK);
+			g2d.draw(highlights);
+		}
+		if (antialias != null) {
+			g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, antialias);
+		}
+	}
+
+	public void setStroke(LinkType type, Stroke stroke) {
+		strokes.put(type, stroke);
+	}
+
+	public boolean isSimplified(int linkCount) {
+		return linkCount > simplifyThreshold;
+	}
+
+	public int getSimplifyThreshold() {
+		return simplifyThreshold;
+	}
+
+	public void setSimplifyThreshold(int simplifyThreshold) {
+		this.simplifyThreshold = simplifyThreshold;
+	}
+
+}
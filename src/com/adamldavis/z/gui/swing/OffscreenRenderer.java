@@ -0,0 +1,277 @@
+/** Copyright 2012, Adam L. Davis, all rights reserved. */
+package com.adamldavis.z.gui.swing;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.RenderingHints;
+import java.awt.geom.Point2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.adamldavis.z.BloomZNodePositioner;
+import com.adamldavis.z.DirectionZNodePositioner;
+import com.adamldavis.z.PixelZNodePositioner;
+import com.adamldavis.z.Z;
+import com.adamldavis.z.Z.Direction;
+import com.adamldavis.z.ZCodeLoader;
+import com.adamldavis.z.ZFactory;
+import com.adamldavis.z.ZNode;
+import com.adamldavis.z.api.APIFactory;
+import com.adamldavis.z.gui.ColorManager;
+import com.adamldavis.z.gui.ColorSetting;
+import com.adamldavis.z.gui.Painter;
+import com.adamldavis.z.gui.svg.SvgPainter;
+import com.adamldavis.z.perf.FrameStats;
+import com.adamldavis.z.perf.FrameStats.Metric;
+
+/**
+ * Renders a project with the regular painters onto offscreen images (no
+ * JFrame needed), so it works with -Djava.awt.headless=true. Images larger
+ * than the tile size are written as several PNG tiles. Also used as a
+ * reproducible rendering benchmark.
+ *
+ * <pre>
+ * OffscreenRenderer &lt;project&gt; &lt;out.png|out.svg&gt; [width height] [--bench frames]
+ * </pre>
+ *
+ * @author Adam L. Davis
+ *
+ */
+public class OffscreenRenderer {
+
+	private static final Logger log = LoggerFactory
+			.getLogger(OffscreenRenderer.class);
+
+	public static final int DEFAULT_TILE = 4096;
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println("usage: OffscreenRenderer <project> "
+					+ "<out.png|out.svg> [width height] [--bench frames]");
+			return;
+		}
+		System.setProperty("java.awt.headless", "true");
+		final File project = new File(args[0]);
+		final File out = new File(args[1]);
+		int width = 1600, height = 1200, bench = 0;
+
+		for (int i = 2; i < args.length; i++) {
+			if ("--bench".equals(args[i])) {
+				bench = Integer.parseInt(args[++i]);
+			} else if (i + 1 < args.length) {
+				width = Integer.parseInt(args[i]);
+				height = Integer.parseInt(args[++i]);
+			}
+		}
+		final APIFactory apiFactory = new ZFactory(
+				Z.class.getResourceAsStream("z.properties"))
+				.getApiFactory(project);
+		final OffscreenRenderer renderer = new OffscreenRenderer(
+				new ZCodeLoader(apiFactory), project, width, height);
+
+		if (bench > 0) {
+			renderer.benchmark(bench);
+		}
+		if (out.getName().endsWith(".svg")) {
+			renderer.writeSvg(out);
+		} else {
+			renderer.writePng(out, DEFAULT_TILE);
+		}
+	}
+
+	final ColorManager colorManager = new ColorManager();
+
+	final ZNode root;
+
+	final List<ZNode> nodes = new ArrayList<ZNode>();
+
+	final int width;
+
+	final int height;
+
+	public OffscreenRenderer(ZCodeLoader loader, File project, int width,
+			int height) {
+		this(loader, loader.load(project), width, height);
+	}
+
+	public OffscreenRenderer(ZCodeLoader loader, ZNode root, int width,
+			int height) {
+		this.root = loader.load(root);
+		this.width = width;
+		this.height = height;
+		for (ZNode sub : this.root.getSubmodules()) {
+			loader.load(sub);
+		}
+		layout();
+	}
+
+	/** Lays out two levels deep like Z.clicked, but immediately. */
+	void layout() {
+		final float selSize = Math.min(width, height) / 2.2f;
+		final float size = selSize * 0.2f;
+
+		nodes.clear();
+		nodes.add(root);
+		nodes.addAll(root.getDependencies());
+		root.setSize(selSize);
+		root.setLocation(new Point2D.Float(width / 2f, height / 2f));
+		for (ZNode dep : root.getDependencies()) {
+			dep.setSize(size);
+		}
+		for (ZNode sub : root.getSubmodules()) {
+			nodes.add(sub);
+			sub.setSize(size + Z.logSize(sub.getSubmodules().size()));
+			for (ZNode sub2 : sub.getSubmodules()) {
+				nodes.add(sub2);
+				sub2.setSize(size * 0.2f + Z.logSize(sub2.getCodeLineSize()));
+			}
+		}
+		layout(root, selSize * (1.3f + Z.logSize(root.getSubmodules().size())
+				/ 2.2f), true);
+	}
+
+	private void layout(ZNode node, float size, boolean withDeps) {
+		final Point center = new Point(Math.round(node.getLocation().x),
+				Math.round(node.getLocation().y));
+		final int isize = Math.round(size);
+		final Map<ZNode, Point2D> map = new PixelZNodePositioner(center,
+				new Dimension(isize * width / height, isize),
+				new DirectionZNodePositioner(Direction.LR,
+						new BloomZNodePositioner())).getNewPositions(node);
+
+		for (ZNode sub : node.getSubmodules()) {
+			sub.setLocation(toFloat(map.get(sub)));
+			layout(sub, sub.getSize() * 1.2f, false);
+		}
+		if (withDeps) {
+			for (ZNode dep : node.getDependencies()) {
+				dep.setLocation(toFloat(map.get(dep)));
+			}
+		}
+	}
+
+	private static Point2D.Float toFloat(Point2D p) {
+		return new Point2D.Float((float) p.getX(), (float) p.getY());
+	}
+
+	/** Paints the whole scene with the on-screen painters. */
+	public void paint(Graphics2D g2d) {
+		final Color lineColor = colorManager.getColorFor(ColorSetting.LINE);
+		final Painter nodePainter = new ZNodePainter(g2d, 1f, lineColor);
+		final Painter selNodePainter = new ZNodePainterWithLines(g2d, 1f,
+				lineColor);
+
+		g2d.addRenderingHints(new RenderingHints(
+				RenderingHints.KEY_ANTIALIASING,
+				RenderingHints.VALUE_ANTIALIAS_ON));
+		for (ZNode node : nodes) {
+			if (node == root) {
+				selNodePainter.paint(node);
+			} else {
+				nodePainter.paint(node);
+			}
+		}
+	}
+
+	/** Renders the given region of the scene. */
+	public BufferedImage render(int x, int y, int w, int h) {
+		final BufferedImage image = new BufferedImage(w, h,
+				BufferedImage.TYPE_INT_RGB);
+		final Graphics2D g2d = image.createGraphics();
+
+		try {
+			g2d.setColor(colorManager.getColorFor(ColorSetting.BACKGROUND));
+			g2d.fillRect(0, 0, w, h);
+			g2d.translate(-x, -y);
+			g2d.setClip(x, y, w, h);
+			paint(g2d);
+		} finally {
+			g2d.dispose();
+		}
+		return image;
+	}
+
+	/**
+	 * Writes the scene as PNG. If larger than tileSize in either dimension,
+	 * writes tiles named like name_col_row.png instead.
+	 */
+	public void writePng(File file, int tileSize) throws IOException {
+		if (width <= tileSize && height <= tileSize) {
+			ImageIO.write(render(0, 0, width, height), "png", file);
+			return;
+		}
+		final String name = file.getName().replaceFirst("\\.png$", "");
+
+		for (int y = 0, row = 0; y < height; y += tileSize, row++) {
+			for (int x = 0, col = 0; x < width; x += tileSize, col++) {
+				final File tile = new File(file.getParentFile(), name + "_"
+						+ col + "_" + row + ".png");
+				ImageIO.write(
+						render(x, y, Math.min(tileSize, width - x),
+								Math.min(tileSize, height - y)), "png", tile);
+				log.info("wrote {}", tile);
+			}
+		}
+	}
+
+	public void writeSvg(File file) throws IOException {
+		final Writer out = new OutputStreamWriter(new FileOutputStream(file),
+				"UTF-8");
+		try {
+			final SvgPainter painter = new SvgPainter(out, 1f,
+					colorManager.getColorFor(ColorSetting.LINE),
+					colorManager.getColorFor(ColorSetting.OKAY));
+			painter.start(width, height,
+					colorManager.getColorFor(ColorSetting.BACKGROUND));
+			for (ZNode dep : root.getDependencies()) {
+				painter.line(root, dep, 1f);
+			}
+			for (ZNode sub : root.getSubmodules()) {
+				painter.line(root, sub, 2f);
+			}
+			for (ZNode node : nodes) {
+				painter.paint(node);
+			}
+			painter.end();
+		} finally {
+			out.close();
+		}
+	}
+
+	/** Paints the given number of frames and prints the timings. */
+	public void benchmark(int frames) {
+		final FrameStats stats = new FrameStats(frames);
+		final BufferedImage image = new BufferedImage(width, height,
+				BufferedImage.TYPE_INT_RGB);
+
+		for (int i = 0; i < frames; i++) {
+			final Graphics2D g2d = image.createGraphics();
+			final long start = stats.start();
+			paint(g2d);
+			stats.record(Metric.PAINT, start);
+			stats.frame(nodes.size(), 0, -1);
+			g2d.dispose();
+		}
+		System.out.println(String.format(
+				"%d nodes, %d frames %dx%d: p50 %.2f p95 %.2f p99 %.2f ms",
+				nodes.size(), frames, width, height,
+				stats.getPercentile(Metric.PAINT, 50),
+				stats.getPercentile(Metric.PAINT, 95),
+				stats.getPercentile(Metric.PAINT, 99)));
+	}
+
+}
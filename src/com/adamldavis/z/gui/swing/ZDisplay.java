@@ -1,11 +1,9 @@
 /** Copyright 2012, Adam L. Davis, all rights reserved. */
 package com.adamldavis.z.gui.swing;
 
-import java.awt.BasicStroke;
 import java.awt.BorderLayout;
 import java.awt.Color;
 import java.awt.Dimension;
-import java.awt.GradientPaint;
 import java.awt.Graphics2D;
 import java.awt.Point;
 import java.awt.RenderingHints;
@@ -29,6 +27,8 @@ import com.adamldavis.z.git.GitUser;
 import com.adamldavis.z.gui.ColorManager;
 import com.adamldavis.z.gui.ColorSetting;
 import com.adamldavis.z.gui.Painter;
+import com.adamldavis.z.perf.FrameStats;
+import com.adamldavis.z.perf.FrameStats.Metric;
 
 /**
  * @author Adam L. Davis
@@ -43,6 +43,10 @@ public class ZDisplay extends Display2d {
 
 	ColorManager colorManager = new ColorManager();
 
+	final LinkRenderer linkRenderer = new LinkRenderer();
+
+	final EdgeBundler edgeBundler = new EdgeBundler();
+
 	public ZDisplay(Z z) {
 		super(false, 2, 35, new Dimension(800, 600));
 		setTitle("Z");
@@ -61,6 +65,9 @@ public class ZDisplay extends Display2d {
 	protected void paintBuffered(Graphics2D g2d) {
 		if (z.getZNodes() == null)
 			return;
+		final FrameStats stats = FrameStats.getInstance();
+		final long start = stats.start();
+		final long allocated = stats.currentThreadAllocatedBytes();
 		final List<ZNode> zNodes = new LinkedList<ZNode>(z.getZNodes());
 		final Point point1 = z.getPoint1();
 		final Point point2 = z.getPoint2();
@@ -83,8 +90,11 @@ public class ZDisplay extends Display2d {
 		Color hoverColor = colorManager.getColorFor(ColorSetting.HOVER);
 		final Painter hoverPainter = new ZNodePainter(g2d, z.getScale(),
 				hoverColor);
+		// bundle only once nodes stopped moving
 		final Painter selNodePainter = new ZNodePainterWithLines(g2d,
-				z.getScale(), lineColor);
+				z.getScale(), lineColor,
+				z.getState() == State.ANIMATING ? null : edgeBundler,
+				z.getLayoutVersion());
 		final Painter taskNodePainter = new ZNodePainter(g2d, z.getScale(),
 				colorManager.getColorFor(ColorSetting.SELECTED_TASK));
 		final Painter userPainter = new UserPainter(g2d);
@@ -125,15 +135,7 @@ public class ZDisplay extends Display2d {
 		// g2d.setColor(colorManager.getColorFor(ColorSetting.LINE));
 		// g2d.drawRect(8, 30, 42, 20);
 		// g2d.drawString("Back", 8, 45);
-		g2d.setStroke(new BasicStroke(2.0f));
-		for (ZNodeLink link : links) {
-			g2d.setPaint(new GradientPaint(link.getNode1().getLocation(),
-					Color.YELLOW, link.getNode2().getLocation(), lineColor));
-			g2d.drawLine((int) link.getNode1().getLocation().getX(), (int) link
-					.getNode1().getLocation().getY(), (int) link.getNode2()
-					.getLocation().getX(), (int) link.getNode2().getLocation()
-					.getY());
-		}
+		linkRenderer.paint(g2d, links, lineColor, Color.YELLOW);
 		g2d.setColor(lineColor);
 		g2d.drawLine(0, height - 25, width, height - 25);
 		new ZTasksPainter(g2d, height - 25, 20, z.getTaskList().getActiveTask())
@@ -146,6 +148,14 @@ public class ZDisplay extends Display2d {
 
 		final Painter menuPainter = new ZMenuPainter(g2d);
 		menuPainter.paint(z.getMenu());
+
+		stats.record(Metric.PAINT, start);
+		stats.frame(zNodes.size(), links.size(),
+				allocated < 0 ? -1 : stats.currentThreadAllocatedBytes()
+						- allocated);
+		if (stats.isOverlayVisible()) {
+			new FrameStatsPainter(g2d, hoverColor).paint(stats);
+		}
 	}
 
 	public Dimension getDimension() {
@@ -60,12 +60,20 @@ public class ZNodePainter extends Graphics2DPainter implements Painter {
 		float sat = halfPlusLog(node.getCodeLineSize());
 		// TODO: Use ? to get Test-coverage for value
 		float value = halfPlusLog(node.getCodeLineSize());
-		// TODO: actually keep track of error/warnings
-		final Color todoColor = colorManager.getColorFor(ColorSetting.TODO);
-		final Color okayColor = colorManager.getColorFor(ColorSetting.OKAY);
-		final Color hsvColor = node.hasTodo() ? hsv(
-				ColorUtil.findHue(todoColor), sat, value) : hsv(
-				ColorUtil.findHue(okayColor), sat, value);
+		final ColorSetting setting;
+		switch (node.getStatus()) {
+		case FAIL:
+			setting = ColorSetting.FAIL;
+			break;
+		case WARNING:
+			setting = ColorSetting.WARN;
+			break;
+		default:
+			setting = node.hasTodo() ? ColorSetting.TODO : ColorSetting.OKAY;
+		}
+		final Color hsvColor = hsv(
+				ColorUtil.findHue(colorManager.getColorFor(setting)), sat,
+				value);
 		// TODO:remove this HACK
 		if (Color.GRAY.equals(color)) {
 			g2d.setColor(color.brighter());
@@ -1,12 +1,11 @@
 /** Copyright 2012, Adam L. Davis, all rights reserved. */
 package com.adamldavis.z.gui.swing;
 
-import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Graphics2D;
+import java.awt.geom.Path2D;
 
 import com.adamldavis.z.ZNode;
-import com.adamldavis.z.gui.ColorManager;
 import com.adamldavis.z.gui.ColorSetting;
 
 /**
@@ -15,8 +14,24 @@ import com.adamldavis.z.gui.ColorSetting;
  */
 public class ZNodePainterWithLines extends ZNodePainter {
 
+	/* Null to draw straight dependency lines. */
+	final EdgeBundler bundler;
+
+	final int layoutVersion;
+
 	public ZNodePainterWithLines(Graphics2D graphics2d, float size, Color color) {
+		this(graphics2d, size, color, null, 0);
+	}
+
+	/**
+	 * Draws dependency lines bundled by the given bundler, which keeps them
+	 * until layoutVersion changes.
+	 */
+	public ZNodePainterWithLines(Graphics2D graphics2d, float size,
+			Color color, EdgeBundler bundler, int layoutVersion) {
 		super(graphics2d, size, color);
+		this.bundler = bundler;
+		this.layoutVersion = layoutVersion;
 	}
 
 	@Override
@@ -28,23 +43,32 @@ public class ZNodePainterWithLines extends ZNodePainter {
 		super.paint(object);
 	}
 
-	ColorManager colorManager = new ColorManager();
-
+	/** Draws dependency and sub-module lines as one path each. */
 	void drawLines(ZNode node, Graphics2D g2d) {
-		for (ZNode dep : node.getDependencies()) {
-			g2d.setColor(colorManager.getColorFor(ColorSetting.LINE));
-			g2d.setStroke(new BasicStroke(1f));
-			g2d.drawLine(scale(node.getLocation().x),
-					scale(node.getLocation().y), scale(dep.getLocation().x),
-					scale(dep.getLocation().y));
+		final int x = scale(node.getLocation().x);
+		final int y = scale(node.getLocation().y);
+		final Path2D.Float deps;
+		final Path2D.Float subs = new Path2D.Float();
+
+		if (bundler == null) {
+			deps = new Path2D.Float();
+			for (ZNode dep : node.getDependencies()) {
+				deps.moveTo(x, y);
+				deps.lineTo(scale(dep.getLocation().x),
+						scale(dep.getLocation().y));
+			}
+		} else {
+			deps = bundler.getPath(node, layoutVersion, scale);
 		}
 		for (ZNode sub : node.getSubmodules()) {
-			g2d.setColor(colorManager.getColorFor(ColorSetting.LINE));
-			g2d.setStroke(new BasicStroke(2f));
-			g2d.drawLine(scale(node.getLocation().x),
-					scale(node.getLocation().y), scale(sub.getLocation().x),
-					scale(sub.getLocation().y));
+			subs.moveTo(x, y);
+			subs.lineTo(scale(sub.getLocation().x), scale(sub.getLocation().y));
 		}
+		g2d.setColor(colorManager.getColorFor(ColorSetting.LINE));
+		g2d.setStroke(LinkRenderer.THIN);
+		g2d.draw(deps);
+		g2d.setStroke(LinkRenderer.THICK);
+		g2d.draw(subs);
 	}
 
 }
@@ -0,0 +1,724 @@
+/** Copyright 2012, Adam L. Davis, all rights reserved. */
+package com.adamldavis.z.java;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.adamldavis.z.java.PomModel.Element;
+
+/**
+ * Resolves transitive dependencies from the poms in the local repository,
+ * without network access. Poms are read as maven would see them (parents,
+ * properties, dependencyManagement including imported boms), then the
+ * dependency graph is walked breadth first: the nearest version of an
+ * artifact wins, test, provided and optional dependencies of dependencies
+ * are left out, scopes are narrowed along the path, and exclusions apply to
+ * everything below where they are declared. Effective poms and the resolved
+ * graph of each groupId:artifactId:version are memoized, and the walk takes
+ * in the memoized graph of a dependency whole where nothing above it
+ * (exclusions or management) changes it, instead of walking it again.
+ *
+ * @author Adam L. Davis
+ *
+ */
+public class DependencyResolver {
+
+	private static final Logger log = LoggerFactory
+			.getLogger(DependencyResolver.class);
+
+	public static final String COMPILE = "compile", PROVIDED = "provided",
+			RUNTIME = "runtime", TEST = "test", SYSTEM = "system",
+			IMPORT = "import";
+
+	static final int CACHE_SIZE = 4096;
+
+	private static final Pattern PROPERTY = Pattern.compile("\\$\\{([^}]+)\\}");
+
+	/** A dependency as declared in an (effective) pom. */
+	static class Dependency {
+		final String groupId, artifactId, version, scope, type;
+
+		final boolean optional;
+
+		/** groupId:artifactId of excluded artifacts, either may be "*". */
+		final Set<String> exclusions;
+
+		Dependency(String groupId, String artifactId, String version,
+				String scope, String type, boolean optional,
+				Set<String> exclusions) {
+			this.groupId = groupId;
+			this.artifactId = artifactId;
+			this.version = version;
+			this.scope = scope;
+			this.type = type;
+			this.optional = optional;
+			this.exclusions = exclusions;
+		}
+
+		String getKey() {
+			return groupId + ":" + artifactId;
+		}
+
+		/* with ${name}s replaced by the given properties */
+		Dependency interpolate(Map<String, String> properties) {
+			final Set<String> all = new HashSet<String>();
+			for (String exclusion : exclusions) {
+				all.add(DependencyResolver.interpolate(exclusion, properties));
+			}
+			return new Dependency(text(groupId, properties), text(artifactId,
+					properties), text(version, properties), text(scope,
+					properties), text(type, properties), optional, all);
+		}
+
+		private static String text(String text, Map<String, String> properties) {
+			return text == null ? null : DependencyResolver.interpolate(text,
+					properties);
+		}
+
+		/* with version and scope from the managed one where not given */
+		Dependency manage(Dependency managed) {
+			if (managed == null || version != null && scope != null) {
+				return this;
+			}
+			final Set<String> all = new HashSet<String>(exclusions);
+			all.addAll(managed.exclusions);
+			return new Dependency(groupId, artifactId, version == null ? managed.version
+					: version, scope == null ? managed.scope : scope, type,
+					optional, all);
+		}
+	}
+
+	/* a pom with its parents, properties and management applied */
+	static class Model {
+		String groupId, artifactId, version;
+
+		/* the poms it was built from (parents, boms) and when they changed */
+		final Map<File, Long> sources = new HashMap<File, Long>();
+
+		final Map<String, String> properties = new HashMap<String, String>();
+
+		/*
+		 * as declared here and in the parents, not interpolated: a child's
+		 * properties apply to what it inherits too
+		 */
+		final Map<String, Dependency> declaredManaged = new LinkedHashMap<String, Dependency>(),
+				declaredDependencies = new LinkedHashMap<String, Dependency>();
+
+		/* interpolated, with boms imported and management applied */
+		final Map<String, Dependency> managed = new LinkedHashMap<String, Dependency>();
+
+		final Map<String, Dependency> dependencies = new LinkedHashMap<String, Dependency>();
+
+		/* if the pom could not be read; kept so it is not read again */
+		boolean unreadable;
+	}
+
+	/** A dependency in the resolved graph. */
+	public static class Resolved {
+		public final String groupId, artifactId, version, scope;
+
+		/** Nearer dependency that brought this one in, null if direct. */
+		public final Resolved parent;
+
+		/** Distance from the root, 1 for direct dependencies. */
+		public final int depth;
+
+		/** If its pom is not in the local repository. */
+		public final boolean missing;
+
+		Resolved(String groupId, String artifactId, String version,
+				String scope, Resolved parent, boolean missing) {
+			this.groupId = groupId;
+			this.artifactId = artifactId;
+			this.version = version;
+			this.scope = scope;
+			this.parent = parent;
+			this.depth = parent == null ? 1 : parent.depth + 1;
+			this.missing = missing;
+		}
+
+		@Override
+		public String toString() {
+			return groupId + ":" + artifactId + ":" + version + ":" + scope;
+		}
+	}
+
+	private static DependencyResolver instance;
+
+	/** The resolver of the local repository, see {@link LocalRepository}. */
+	public static synchronized DependencyResolver getInstance() {
+		if (instance == null) {
+			instance = new DependencyResolver(LocalRepository.getInstance());
+		}
+		return instance;
+	}
+
+	private final LocalRepository repository;
+
+	/* effective poms by path; checked against their sources when used */
+	private final Map<String, Model> models = lru();
+
+	/* resolved graphs by groupId:artifactId:version */
+	private final Map<String, List<Resolved>> graphs = lru();
+
+	public DependencyResolver(LocalRepository repository) {
+		this.repository = repository;
+	}
+
+	private static <T> Map<String, T> lru() {
+		return new LinkedHashMap<String, T>(64, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, T> eldest) {
+				return size() > CACHE_SIZE;
+			}
+		};
+	}
+
+	/**
+	 * Everything the given pom (IE a module's) needs, nearest first. All its
+	 * own dependencies are included whatever their scope.
+	 */
+	public List<Resolved> resolve(File pomFile) {
+		final Model model = model(pomFile, new HashSet<String>());
+		return model == null ? Collections.<Resolved> emptyList() : resolve(
+				model, false, new HashSet<String>());
+	}
+
+	/*
+	 * resolves, walking again below each dependency whose memoized graph
+	 * turns out not to fit
+	 */
+	private List<Resolved> resolve(Model root, boolean asDependency,
+			Set<String> resolving) {
+		final Set<String> walk = new HashSet<String>();
+		while (true) {
+			final List<Resolved> list = resolve(root, asDependency,
+					resolving, walk);
+			if (list != null) {
+				return list;
+			}
+		}
+	}
+
+	/**
+	 * Everything the given artifact brings in when depended on, nearest
+	 * first; memoized. Empty if its pom is not in the local repository. As
+	 * when depended on, its own dependencyManagement only applies to its
+	 * direct dependencies.
+	 */
+	public List<Resolved> resolve(String groupId, String artifactId,
+			String version) {
+		return graph(groupId, artifactId, version, new HashSet<String>());
+	}
+
+	/* the memoized graph, or null if it is being resolved (a cycle) */
+	private List<Resolved> graph(String groupId, String artifactId,
+			String version, Set<String> resolving) {
+		final String gav = groupId + ":" + artifactId + ":" + version;
+		synchronized (graphs) {
+			final List<Resolved> graph = graphs.get(gav);
+			if (graph != null) {
+				return graph;
+			}
+		}
+		if (!resolving.add(gav)) {
+			return null;
+		}
+		final Model model = model(groupId, artifactId, version,
+				new HashSet<String>());
+		final List<Resolved> graph = model == null ? Collections
+				.<Resolved> emptyList() : Collections.unmodifiableList(resolve(
+				model, true, resolving));
+		resolving.remove(gav);
+		synchronized (graphs) {
+			graphs.put(gav, graph);
+		}
+		return graph;
+	}
+
+	/*
+	 * one step of the walk: a dependency reached through parent, or an entry
+	 * of the memoized graph of an ancestor; ordered as the breadth first walk
+	 * meets them, by depth and then by the path of positions to them
+	 */
+	private static class Step implements Comparable<Step> {
+		final Dependency dependency;
+		final Resolved found;
+		/* groupId:artifactId:version of the graph found is in */
+		String origin;
+		final Resolved parent;
+		final int depth;
+		final int[] path;
+		final String scope;
+		final Set<String> exclusions;
+
+		Step(Dependency dependency, Resolved found, Resolved parent,
+				int depth, int[] path, String scope, Set<String> exclusions) {
+			this.dependency = dependency;
+			this.found = found;
+			this.parent = parent;
+			this.depth = depth;
+			this.path = path;
+			this.scope = scope;
+			this.exclusions = exclusions;
+		}
+
+		@Override
+		public int compareTo(Step other) {
+			if (depth != other.depth) {
+				return depth < other.depth ? -1 : 1;
+			}
+			for (int i = 0; i < path.length && i < other.path.length; i++) {
+				if (path[i] != other.path[i]) {
+					return path[i] < other.path[i] ? -1 : 1;
+				}
+			}
+			return path.length - other.path.length;
+		}
+	}
+
+	private static int[] append(int[] path, int i) {
+		final int[] longer = new int[path.length + 1];
+		System.arraycopy(path, 0, longer, 0, path.length);
+		longer[path.length] = i;
+		return longer;
+	}
+
+	/* null if a memoized graph did not fit, it is then added to walk */
+	private List<Resolved> resolve(Model root, boolean asDependency,
+			Set<String> resolving, Set<String> walk) {
+		final Map<String, Resolved> chosen = new LinkedHashMap<String, Resolved>();
+		final PriorityQueue<Step> queue = new PriorityQueue<Step>();
+		/* entries of memoized graphs taken, to what they are here */
+		final Map<Resolved, Resolved> taken = new IdentityHashMap<Resolved, Resolved>();
+		chosen.put(root.groupId + ":" + root.artifactId, null);
+
+		int i = 0;
+		for (Dependency dep : root.dependencies.values()) {
+			final String scope = asDependency ? transitiveScope(COMPILE, dep)
+					: scope(dep);
+			if (scope != null) {
+				queue.add(new Step(dep, null, null, 1, new int[] { i },
+						scope, dep.exclusions));
+			}
+			i++;
+		}
+		while (!queue.isEmpty()) {
+			final Step step = queue.poll();
+			if (step.found != null) {
+				if (!take(step, chosen, taken)) {
+					walk.add(step.origin);
+					return null;
+				}
+				continue;
+			}
+			Dependency dep = step.dependency;
+			if (chosen.containsKey(dep.getKey())) {
+				continue; // nearest wins
+			}
+			String scope = step.scope;
+			if (step.parent != null && !asDependency) {
+				// the root's management decides versions of transitive ones
+				final Dependency managed = root.managed.get(dep.getKey());
+				if (managed != null && managed.version != null) {
+					dep = new Dependency(dep.groupId, dep.artifactId,
+							managed.version, dep.scope, dep.type, false,
+							dep.exclusions);
+				}
+				if (managed != null && managed.scope != null
+						&& !TEST.equals(scope)) {
+					scope = managed.scope;
+				}
+			}
+			final Model model = SYSTEM.equals(scope) || dep.version == null ? null
+					: model(dep.groupId, dep.artifactId, dep.version,
+							new HashSet<String>());
+			final Resolved resolved = new Resolved(dep.groupId,
+					dep.artifactId, dep.version, scope, step.parent,
+					model == null && !SYSTEM.equals(scope));
+			chosen.put(dep.getKey(), resolved);
+			if (model == null) {
+				continue;
+			}
+			// what it brings in is known, unless changed from above
+			final String gav = dep.groupId + ":" + dep.artifactId + ":"
+					+ dep.version;
+			final List<Resolved> graph = step.exclusions.isEmpty()
+					&& !walk.contains(gav) ? graph(dep.groupId,
+					dep.artifactId, dep.version, resolving) : null;
+			if (graph != null && (asDependency || !manages(root, graph))) {
+				int k = 0;
+				for (Resolved found : graph) {
+					final Step next = new Step(null, found, resolved,
+							step.depth + found.depth, append(step.path, k++),
+							scope, step.exclusions);
+					next.origin = gav;
+					queue.add(next);
+				}
+				continue;
+			}
+			int j = 0;
+			for (Dependency child : model.dependencies.values()) {
+				final String childScope = transitiveScope(scope, child);
+				j++;
+				if (childScope == null || excluded(step.exclusions, child)) {
+					continue;
+				}
+				final Set<String> exclusions;
+				if (child.exclusions.isEmpty()) {
+					exclusions = step.exclusions;
+				} else {
+					exclusions = new HashSet<String>(step.exclusions);
+					exclusions.addAll(child.exclusions);
+				}
+				queue.add(new Step(child, null, resolved, step.depth + 1,
+						append(step.path, j), childScope, exclusions));
+			}
+		}
+		final List<Resolved> list = new ArrayList<Resolved>(chosen.size());
+		for (Resolved resolved : chosen.values()) {
+			if (resolved != null) {
+				list.add(resolved);
+			}
+		}
+		return list;
+	}
+
+	/*
+	 * takes an entry of the memoized graph of an ancestor, if it is the
+	 * nearest and what brought it in there was taken here too. False if what
+	 * brought it in lost to another version here: the graph left out what
+	 * that entry was nearer than, so it does not fit.
+	 */
+	private static boolean take(Step step, Map<String, Resolved> chosen,
+			Map<Resolved, Resolved> taken) {
+		final Resolved found = step.found;
+		final String key = found.groupId + ":" + found.artifactId;
+		if (chosen.containsKey(key)) {
+			return true; // nearest wins
+		}
+		final Resolved parent = found.parent == null ? step.parent : taken
+				.get(found.parent);
+		if (parent == null) {
+			// same version nearer: it brings in the same, from there
+			final Resolved other = chosen.get(found.parent.groupId + ":"
+					+ found.parent.artifactId);
+			return other != null
+					&& String.valueOf(other.version).equals(
+							String.valueOf(found.parent.version));
+		}
+		final Resolved resolved = new Resolved(found.groupId,
+				found.artifactId, found.version, narrow(step.scope,
+						found.scope), parent, found.missing);
+		chosen.put(key, resolved);
+		taken.put(found, resolved);
+		return true;
+	}
+
+	/* scope of a dependency in childScope of one in scope (compile) */
+	static String narrow(String scope, String childScope) {
+		if (SYSTEM.equals(childScope) || COMPILE.equals(scope)) {
+			return childScope;
+		}
+		return RUNTIME.equals(scope) ? RUNTIME : scope;
+	}
+
+	/* if the root's management would change anything in the graph */
+	private static boolean manages(Model root, List<Resolved> graph) {
+		if (root.managed.isEmpty()) {
+			return false;
+		}
+		for (Resolved resolved : graph) {
+			final Dependency managed = root.managed.get(resolved.groupId
+					+ ":" + resolved.artifactId);
+			if (managed != null
+					&& (managed.scope != null || managed.version != null
+							&& !managed.version.equals(resolved.version))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static String scope(Dependency dep) {
+		return dep.scope == null ? COMPILE : dep.scope;
+	}
+
+	/* scope of a dependency of a dependency in the given scope, or null */
+	static String transitiveScope(String parentScope, Dependency dep) {
+		final String scope = scope(dep);
+		if (dep.optional || TEST.equals(scope) || PROVIDED.equals(scope)
+				|| IMPORT.equals(scope)) {
+			return null;
+		}
+		if (SYSTEM.equals(scope)) {
+			return SYSTEM;
+		}
+		if (COMPILE.equals(parentScope)) {
+			return scope;
+		}
+		if (RUNTIME.equals(parentScope)) {
+			return RUNTIME;
+		}
+		return PROVIDED.equals(parentScope) || TEST.equals(parentScope) ? parentScope
+				: null;
+	}
+
+	static boolean excluded(Set<String> exclusions, Dependency dep) {
+		return exclusions.contains(dep.getKey())
+				|| exclusions.contains(dep.groupId + ":*")
+				|| exclusions.contains("*:" + dep.artifactId)
+				|| exclusions.contains("*:*");
+	}
+
+	/* the effective pom of an artifact, null if not in the repository */
+	private Model model(String groupId, String artifactId, String version,
+			Set<String> seen) {
+		if (version.startsWith("[") || version.startsWith("(")) {
+			// a range: take the latest there is
+			final LocalRepository.Artifact latest = repository.find(groupId,
+					artifactId, null);
+			if (latest == null) {
+				return null;
+			}
+			version = latest.version;
+		}
+		final File pom = repository.getPom(groupId, artifactId, version);
+		return pom.isFile() ? model(pom, seen) : null;
+	}
+
+	/* the effective pom, null if it (or a pom it is built from) is unreadable */
+	private Model model(File pomFile, Set<String> seen) {
+		final String key = pomFile.getAbsolutePath();
+		synchronized (models) {
+			final Model model = models.get(key);
+			if (model != null && isCurrent(model)) {
+				return model.unreadable ? null : model;
+			}
+		}
+		if (!seen.add(key)) {
+			log.warn("cycle of parents or imports at {}", pomFile);
+			return new Model();
+		}
+		Model model;
+		try {
+			model = build(pomFile, seen);
+		} catch (RuntimeException e) {
+			log.warn("could not read {}: {}", pomFile, e.getMessage());
+			model = new Model();
+			model.sources.put(pomFile, pomFile.lastModified());
+			model.unreadable = true;
+		}
+		synchronized (models) {
+			models.put(key, model);
+		}
+		return model.unreadable ? null : model;
+	}
+
+	/* if none of the poms the model was built from changed since */
+	private static boolean isCurrent(Model model) {
+		for (Map.Entry<File, Long> source : model.sources.entrySet()) {
+			if (source.getKey().lastModified() != source.getValue()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private Model build(File pomFile, Set<String> seen) {
+		final Model model = new Model();
+		model.sources.put(pomFile, pomFile.lastModified());
+		final Element root = PomModel.read(pomFile).getRoot();
+		final Element parentElement = root.getChild("parent");
+		final Model parent = parentElement == null ? null : parent(pomFile,
+				parentElement, seen);
+
+		if (parent != null) {
+			model.sources.putAll(parent.sources);
+			model.properties.putAll(parent.properties);
+			model.declaredManaged.putAll(parent.declaredManaged);
+			model.declaredDependencies.putAll(parent.declaredDependencies);
+			for (String prefix : new String[] { "project.parent.", "parent." }) {
+				model.properties.put(prefix + "groupId", parent.groupId);
+				model.properties.put(prefix + "artifactId", parent.artifactId);
+				model.properties.put(prefix + "version", parent.version);
+			}
+		}
+		final Element properties = root.getChild("properties");
+		if (properties != null) {
+			for (Element property : properties.getChildren()) {
+				model.properties.put(property.getName(), property
+						.getTextContent().trim());
+			}
+		}
+		model.groupId = text(root, MavenDependencyManager.GROUP_ID, model);
+		model.artifactId = text(root, MavenDependencyManager.ARTIFACT_ID, model);
+		model.version = text(root, MavenDependencyManager.VERSION, model);
+		if (parent != null) {
+			if (model.groupId == null) {
+				model.groupId = parent.groupId;
+			}
+			if (model.version == null) {
+				model.version = parent.version;
+			}
+		}
+		for (String prefix : new String[] { "project.", "pom.", "" }) {
+			model.properties.put(prefix + "groupId", model.groupId);
+			model.properties.put(prefix + "artifactId", model.artifactId);
+			model.properties.put(prefix + "version", model.version);
+		}
+		final Element management = root.getChild("dependencyManagement");
+		final Element managed = management == null ? null : management
+				.getChild(PomModel.DEPENDENCIES);
+		if (managed != null) {
+			for (Element element : managed
+					.getChildren(MavenDependencyManager.DEPENDENCY)) {
+				final Dependency dep = dependency(element);
+				model.declaredManaged.put(dep.getKey(), dep);
+			}
+		}
+		final Element dependencies = root.getChild(PomModel.DEPENDENCIES);
+		if (dependencies != null) {
+			for (Element element : dependencies
+					.getChildren(MavenDependencyManager.DEPENDENCY)) {
+				final Dependency dep = dependency(element);
+				model.declaredDependencies.put(dep.getKey(), dep);
+			}
+		}
+
+		// interpolated once, with the properties as this pom leaves them
+		final List<Dependency> imports = new ArrayList<Dependency>();
+		for (Dependency declared : model.declaredManaged.values()) {
+			final Dependency dep = declared.interpolate(model.properties);
+			if (IMPORT.equals(dep.scope)) {
+				imports.add(dep);
+			} else {
+				model.managed.put(dep.getKey(), dep);
+			}
+		}
+		// what is managed here wins over what the boms manage
+		for (Dependency dep : imports) {
+			final Model bom = dep.version == null ? null : model(dep.groupId,
+					dep.artifactId, dep.version, seen);
+			if (bom != null) {
+				model.sources.putAll(bom.sources);
+				for (Dependency imported : bom.managed.values()) {
+					if (!model.managed.containsKey(imported.getKey())) {
+						model.managed.put(imported.getKey(), imported);
+					}
+				}
+			}
+		}
+		for (Dependency declared : model.declaredDependencies.values()) {
+			final Dependency dep = declared.interpolate(model.properties);
+			model.dependencies.put(dep.getKey(),
+					dep.manage(model.managed.get(dep.getKey())));
+		}
+		return model;
+	}
+
+	/* the parent next to the pom if it is that one, else from the repository */
+	private Model parent(File pomFile, Element parent, Set<String> seen) {
+		final String groupId = parent.getChildText(MavenDependencyManager.GROUP_ID);
+		final String artifactId = parent
+				.getChildText(MavenDependencyManager.ARTIFACT_ID);
+		final String version = parent.getChildText(MavenDependencyManager.VERSION);
+		final String path = parent.getChildText("relativePath");
+		File file = new File(pomFile.getParentFile(), path == null ? "../pom.xml"
+				: path);
+		if (file.isDirectory()) {
+			file = new File(file, "pom.xml");
+		}
+		if (file.isFile()) {
+			final PomModel pom;
+			try {
+				pom = PomModel.read(file);
+			} catch (RuntimeException e) {
+				log.warn("could not read {}: {}", file, e.getMessage());
+				return null;
+			}
+			if (pom.getArtifactId() != null
+					&& pom.getArtifactId().equals(artifactId)
+					&& String.valueOf(pom.getGroupId()).equals(groupId)) {
+				return model(file, seen);
+			}
+		}
+		if (groupId == null || artifactId == null || version == null) {
+			return null;
+		}
+		final Model model = model(groupId, artifactId, version, seen);
+		if (model == null) {
+			log.info("parent {}:{}:{} of {} not in local repository",
+					new Object[] { groupId, artifactId, version, pomFile });
+		}
+		return model;
+	}
+
+	/* as declared, see Dependency.interpolate */
+	private static Dependency dependency(Element element) {
+		final Set<String> exclusions = new HashSet<String>();
+		final Element list = element.getChild("exclusions");
+		if (list != null) {
+			for (Element exclusion : list.getChildren("exclusion")) {
+				exclusions.add(exclusion
+						.getChildText(MavenDependencyManager.GROUP_ID)
+						+ ":"
+						+ exclusion
+								.getChildText(MavenDependencyManager.ARTIFACT_ID));
+			}
+		}
+		return new Dependency(
+				element.getChildText(MavenDependencyManager.GROUP_ID),
+				element.getChildText(MavenDependencyManager.ARTIFACT_ID),
+				element.getChildText(MavenDependencyManager.VERSION),
+				element.getChildText("scope"), element.getChildText("type"),
+				"true".equals(element.getChildText("optional")), exclusions);
+	}
+
+	private static String text(Element element, String name, Model model) {
+		final String text = element.getChildText(name);
+		return text == null ? null : interpolate(text, model.properties);
+	}
+
+	/** Replaces ${name} with the property's value, also within values. */
+	static String interpolate(String text, Map<String, String> properties) {
+		for (int i = 0; i < 10 && text.indexOf("${") >= 0; i++) {
+			final Matcher matcher = PROPERTY.matcher(text);
+			final StringBuffer buffer = new StringBuffer();
+			boolean replaced = false;
+			while (matcher.find()) {
+				String value = properties.get(matcher.group(1));
+				if (value == null) {
+					value = System.getProperty(matcher.group(1));
+				}
+				replaced |= value != null;
+				matcher.appendReplacement(buffer, Matcher
+						.quoteReplacement(value == null ? matcher.group()
+								: value));
+			}
+			matcher.appendTail(buffer);
+			text = buffer.toString();
+			if (!replaced) {
+				break;
+			}
+		}
+		return text;
+	}
+
+}
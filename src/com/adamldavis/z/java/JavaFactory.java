@@ -26,7 +26,8 @@ public class JavaFactory implements APIFactory {
 
 	@Override
 	public Compiler getCompiler() {
-		return new JavaMavenCompiler();
+		return JavaIncrementalCompiler.isAvailable() ? new JavaIncrementalCompiler()
+				: new JavaMavenCompiler();
 	}
 
 	@Override
@@ -0,0 +1,543 @@
+/** Copyright 2012, Adam L. Davis, all rights reserved. */
+package com.adamldavis.z.java;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.JavaFileObject.Kind;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.adamldavis.z.ZNode;
+import com.adamldavis.z.api.Compiler;
+import com.adamldavis.z.api.DependencyManager;
+import com.adamldavis.z.api.LineError;
+import com.adamldavis.z.api.ProgressListener;
+import com.adamldavis.z.runner.LineErrorImpl;
+
+/**
+ * Compiles java in process with javax.tools. Each module (source folder) is
+ * compiled in full once; after that only sources changed on disk since (and
+ * the one of the node given, in case its change did not move the time
+ * stamp), and the sources that depend on them through any number of
+ * imports or uses in the same package, are compiled again. Compiled classes are kept in memory, where the next
+ * compile finds them ahead of the compiled folder, and are also written to
+ * the compiled folder so code can be run. The errors and warnings of the
+ * whole module are returned, by file and line.
+ *
+ * @author Adam L. Davis
+ *
+ */
+public class JavaIncrementalCompiler implements Compiler {
+
+	static final Logger log = LoggerFactory
+			.getLogger(JavaIncrementalCompiler.class);
+
+	private static final Pattern IMPORT = Pattern
+			.compile("\\bimport\\s+(static\\s+)?([\\w\\.]+(\\.\\*)?)\\s*;");
+
+	private static final Pattern PACKAGE = Pattern
+			.compile("\\bpackage\\s+([\\w\\.]+)\\s*;");
+
+	/* modules by source folder, kept between compiles */
+	private static final Map<File, Module> modules = new HashMap<File, Module>();
+
+	private final DependencyManager dependencyManager;
+
+	private final JavaCompiler javac;
+
+	public JavaIncrementalCompiler() {
+		this(new MavenDependencyManager(), ToolProvider.getSystemJavaCompiler());
+	}
+
+	public JavaIncrementalCompiler(DependencyManager dependencyManager,
+			JavaCompiler javac) {
+		this.dependencyManager = dependencyManager;
+		this.javac = javac;
+	}
+
+	/** If there is a compiler in this VM (it is not just a JRE). */
+	public static boolean isAvailable() {
+		return ToolProvider.getSystemJavaCompiler() != null;
+	}
+
+	@Override
+	public List<LineError> compile(ZNode node, ProgressListener listener) {
+		final File root = JavaMavenCompiler.getRoot(dependencyManager,
+				node.getParentFile());
+		if (root == null) {
+			log.warn("no {} above {}", dependencyManager.getStandardFileName(),
+					node.getParentFile());
+			listener.update(100);
+			return new ArrayList<LineError>(0);
+		}
+		final File pom = new File(root, dependencyManager.getStandardFileName());
+		final File src = canonical(dependencyManager.getSourceFolder(pom));
+		if (!src.isDirectory()) {
+			log.info("no source folder {}", src);
+			listener.update(100);
+			return new ArrayList<LineError>(0);
+		}
+		Module module;
+		synchronized (modules) {
+			module = modules.get(src);
+			if (module == null) {
+				modules.put(src, module = new Module(src));
+			}
+		}
+		synchronized (module) {
+			module.bin = dependencyManager.getCompiledFolder(pom);
+			module.pom = pom;
+			return module.compile(getFile(node), listener);
+		}
+	}
+
+	/* the source file of a class or method node, else null */
+	private static File getFile(ZNode node) {
+		switch (node.getNodeType()) {
+		case METHOD:
+			return node.getParentFile();
+		case CLASS:
+			return new File(node.getParentFile(), node.getName() + ".java");
+		default:
+			return null;
+		}
+	}
+
+	/* what is known of a module between compiles */
+	class Module {
+		final File src;
+
+		File bin, pom;
+
+		/* sources as last compiled (or failed) */
+		final Map<File, Source> sources = new HashMap<File, Source>();
+
+		/* compiled classes by binary name */
+		final Map<String, byte[]> classes = new HashMap<String, byte[]>();
+
+		Module(File src) {
+			this.src = src;
+		}
+
+		List<LineError> compile(File edited, ProgressListener listener) {
+			final long start = System.currentTimeMillis();
+			listener.update(0);
+			final Set<File> changed = new LinkedHashSet<File>();
+			final Set<File> found = new HashSet<File>();
+			edited = edited == null ? null : canonical(edited);
+			for (File file : FileUtils.listFiles(src, new String[] { "java" },
+					true)) {
+				file = canonical(file);
+				found.add(file);
+				final Source source = sources.get(file);
+				if (source == null || !source.compiled
+						|| source.lastModified != file.lastModified()
+						|| file.equals(edited)) {
+					changed.add(file);
+				}
+			}
+			final Set<Source> removed = new HashSet<Source>();
+			for (Source source : sources.values()) {
+				if (!found.contains(source.file)) {
+					removed.add(source);
+				}
+			}
+			for (Source source : removed) {
+				sources.remove(source.file);
+				forget(source, Collections.<String> emptySet());
+			}
+			// read imports of changed sources, then add their dependents
+			for (File file : changed) {
+				final Source source = new Source(file);
+				final Source old = sources.put(file, source);
+				if (old != null) {
+					source.classes.addAll(old.classes);
+				}
+			}
+			// and what depends on those, transitively (e.g. a class extending
+			// one that extends a changed one)
+			final Set<File> toCompile = new LinkedHashSet<File>(changed);
+			final LinkedList<Source> touched = new LinkedList<Source>(removed);
+			for (File file : changed) {
+				touched.add(sources.get(file));
+			}
+			while (!touched.isEmpty()) {
+				final Source source = touched.removeFirst();
+				for (Source other : sources.values()) {
+					if (!toCompile.contains(other.file)
+							&& other.dependsOn(source)) {
+						toCompile.add(other.file);
+						touched.add(other);
+					}
+				}
+			}
+			listener.update(10);
+			if (!toCompile.isEmpty()) {
+				run(toCompile);
+			}
+			final List<LineError> errors = new ArrayList<LineError>();
+			for (Source source : sources.values()) {
+				errors.addAll(source.errors);
+			}
+			log.info("compiled {} of {} sources in {} ms", new Object[] {
+					toCompile.size(), sources.size(),
+					System.currentTimeMillis() - start });
+			listener.update(100);
+			return errors;
+		}
+
+		private void run(Set<File> files) {
+			final DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+			final StandardJavaFileManager standard = javac
+					.getStandardFileManager(diagnostics, Locale.getDefault(),
+							null);
+			final MemoryFileManager manager = new MemoryFileManager(standard,
+					this);
+			try {
+				final List<File> classpath = new ArrayList<File>();
+				classpath.add(bin);
+				classpath.addAll(getDependencyJars());
+				standard.setLocation(StandardLocation.CLASS_PATH, classpath);
+				standard.setLocation(StandardLocation.SOURCE_PATH,
+						Arrays.asList(src));
+				final String encoding = PomModel.read(pom).findText(
+						"project.build.sourceEncoding");
+				final List<String> options = Arrays.asList("-g", "-encoding",
+						encoding == null ? "UTF-8" : encoding.trim(),
+						"-implicit:none");
+				final boolean ok = javac.getTask(null, manager, diagnostics,
+						options, null, standard.getJavaFileObjectsFromFiles(files))
+						.call();
+				for (File file : files) {
+					sources.get(file).errors.clear();
+				}
+				for (Diagnostic<? extends JavaFileObject> d : diagnostics
+						.getDiagnostics()) {
+					if (d.getKind() == Diagnostic.Kind.NOTE
+							|| d.getKind() == Diagnostic.Kind.OTHER) {
+						continue;
+					}
+					final File file = d.getSource() == null ? null
+							: canonical(new File(d.getSource().toUri()));
+					final Source source = file == null ? null : sources
+							.get(file);
+					final LineError error = new LineErrorImpl(
+							file == null ? src.getPath() : file.getPath(),
+							(int) d.getLineNumber(), d.getMessage(null),
+							d.getKind() != Diagnostic.Kind.ERROR);
+					if (source == null) {
+						log.warn("{}", error);
+					} else {
+						source.errors.add(error);
+					}
+				}
+				if (ok) {
+					for (File file : files) {
+						final Source source = sources.get(file);
+						source.compiled = true;
+						forget(source, manager.getOutputs(file));
+						source.classes.addAll(manager.getOutputs(file));
+					}
+					writeClasses(manager.outputs.keySet());
+				}
+			} catch (IOException e) {
+				log.error("compile failed", e);
+			} finally {
+				try {
+					manager.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+
+		/* drops the classes the source no longer makes */
+		private void forget(Source source, Collection<String> keep) {
+			for (String name : source.classes) {
+				if (!keep.contains(name)) {
+					classes.remove(name);
+					new File(bin, name.replace('.', '/') + ".class").delete();
+				}
+			}
+			source.classes.clear();
+		}
+
+		private void writeClasses(Collection<String> names) throws IOException {
+			for (String name : names) {
+				FileUtils.writeByteArrayToFile(
+						new File(bin, name.replace('.', '/') + ".class"),
+						classes.get(name));
+			}
+		}
+
+		private List<File> getDependencyJars() {
+			final List<File> jars = new ArrayList<File>();
+			final LocalRepository repository = LocalRepository.getInstance();
+			for (DependencyResolver.Resolved dep : DependencyResolver
+					.getInstance().resolve(pom)) {
+				// main sources compile against compile and provided jars
+				if (dep.version == null
+						|| DependencyResolver.RUNTIME.equals(dep.scope)
+						|| DependencyResolver.TEST.equals(dep.scope)) {
+					continue;
+				}
+				final File jar = new File(repository.getPom(dep.groupId,
+						dep.artifactId, dep.version).getParentFile(),
+						dep.artifactId + "-" + dep.version + ".jar");
+				if (jar.isFile()) {
+					jars.add(jar);
+				}
+			}
+			return jars;
+		}
+	}
+
+	/* a source file: its package, imports and what it compiled to */
+	static class Source {
+		final File file;
+
+		final long lastModified;
+
+		final String packageName, className;
+
+		final Set<String> imports = new HashSet<String>();
+
+		final List<LineError> errors = new ArrayList<LineError>();
+
+		final Set<String> classes = new HashSet<String>();
+
+		boolean compiled;
+
+		private String text;
+
+		Source(File file) {
+			this.file = file;
+			this.lastModified = file.lastModified();
+			final String name = file.getName();
+			this.className = name.substring(0, name.length() - ".java".length());
+			String pack = "";
+			for (String line : lines()) {
+				Matcher m = PACKAGE.matcher(line);
+				if (m.find()) {
+					pack = m.group(1);
+				}
+				m = IMPORT.matcher(line);
+				while (m.find()) {
+					imports.add(m.group(2));
+				}
+			}
+			this.packageName = pack;
+		}
+
+		private List<String> lines() {
+			try {
+				return FileUtils.readLines(file);
+			} catch (IOException e) {
+				log.warn("could not read {}", file);
+				return new LinkedList<String>();
+			}
+		}
+
+		String getName() {
+			return packageName.length() == 0 ? className : packageName + "."
+					+ className;
+		}
+
+		/**
+		 * If this imports the other source's class or package, or shares its
+		 * package and names it.
+		 */
+		boolean dependsOn(Source other) {
+			if (other == this) {
+				return false;
+			}
+			final String name = other.getName();
+			if (imports.contains(name) || imports.contains(name + ".*")
+					|| imports.contains(other.packageName + ".*")) {
+				return true;
+			}
+			for (String imported : imports) {
+				// static imports and nested classes
+				if (imported.startsWith(name + ".")) {
+					return true;
+				}
+			}
+			if (!packageName.equals(other.packageName)) {
+				return false;
+			}
+			if (text == null) {
+				final StringBuilder builder = new StringBuilder();
+				for (String line : lines()) {
+					builder.append(line).append('\n');
+				}
+				text = builder.toString();
+			}
+			return Pattern.compile("\\b" + Pattern.quote(other.className) + "\\b")
+					.matcher(text).find();
+		}
+	}
+
+	/*
+	 * Keeps compiled classes in memory and lists them on the class path ahead
+	 * of the compiled folder.
+	 */
+	static class MemoryFileManager extends
+			ForwardingJavaFileManager<StandardJavaFileManager> {
+
+		final Module module;
+
+		/* classes output by this compile, and the source of each */
+		final Map<String, File> outputs = new HashMap<String, File>();
+
+		MemoryFileManager(StandardJavaFileManager manager, Module module) {
+			super(manager);
+			this.module = module;
+		}
+
+		Set<String> getOutputs(File source) {
+			final Set<String> names = new HashSet<String>();
+			for (Map.Entry<String, File> entry : outputs.entrySet()) {
+				if (source.equals(entry.getValue())) {
+					names.add(entry.getKey());
+				}
+			}
+			return names;
+		}
+
+		@Override
+		public JavaFileObject getJavaFileForOutput(Location location,
+				final String className, Kind kind, FileObject sibling)
+				throws IOException {
+			if (kind != Kind.CLASS) {
+				return super.getJavaFileForOutput(location, className, kind,
+						sibling);
+			}
+			outputs.put(className,
+					sibling == null ? null : canonical(new File(sibling.toUri())));
+			return new MemoryClass(className) {
+				@Override
+				public OutputStream openOutputStream() {
+					return new ByteArrayOutputStream() {
+						@Override
+						public void close() throws IOException {
+							super.close();
+							module.classes.put(className, toByteArray());
+						}
+					};
+				}
+			};
+		}
+
+		@Override
+		public Iterable<JavaFileObject> list(Location location,
+				String packageName, Set<Kind> kinds, boolean recurse)
+				throws IOException {
+			final Iterable<JavaFileObject> listed = super.list(location,
+					packageName, kinds, recurse);
+			if (location != StandardLocation.CLASS_PATH
+					|| !kinds.contains(Kind.CLASS)) {
+				return listed;
+			}
+			final List<JavaFileObject> list = new ArrayList<JavaFileObject>();
+			final Set<String> names = new HashSet<String>();
+			for (String name : module.classes.keySet()) {
+				final int dot = name.lastIndexOf('.');
+				final String pack = dot < 0 ? "" : name.substring(0, dot);
+				if (pack.equals(packageName) || recurse
+						&& pack.startsWith(packageName + ".")) {
+					list.add(new MemoryClass(name));
+					names.add(name);
+				}
+			}
+			for (JavaFileObject file : listed) {
+				if (file.getKind() != Kind.CLASS
+						|| !names.contains(inferBinaryName(location, file))) {
+					list.add(file);
+				}
+			}
+			return list;
+		}
+
+		@Override
+		public String inferBinaryName(Location location, JavaFileObject file) {
+			if (file instanceof MemoryClass) {
+				return ((MemoryClass) file).name;
+			}
+			return super.inferBinaryName(location, file);
+		}
+
+		@Override
+		public boolean isSameFile(FileObject a, FileObject b) {
+			if (a instanceof MemoryClass || b instanceof MemoryClass) {
+				return a.toUri().equals(b.toUri());
+			}
+			return super.isSameFile(a, b);
+		}
+
+		/* a class in memory */
+		class MemoryClass extends SimpleJavaFileObject {
+			final String name;
+
+			MemoryClass(String name) {
+				super(URI.create("mem:///" + name.replace('.', '/') + ".class"),
+						Kind.CLASS);
+				this.name = name;
+			}
+
+			/* newer than the sources not compiled again */
+			@Override
+			public long getLastModified() {
+				return System.currentTimeMillis();
+			}
+
+			@Override
+			public InputStream openInputStream() throws IOException {
+				final byte[] bytes = module.classes.get(name);
+				if (bytes == null) {
+					throw new IOException("not compiled: " + name);
+				}
+				return new ByteArrayInputStream(bytes);
+			}
+		}
+	}
+
+	static File canonical(File file) {
+		try {
+			return file.getCanonicalFile();
+		} catch (IOException e) {
+			return file.getAbsoluteFile();
+		}
+	}
+
+}
@@ -0,0 +1,518 @@
+/** Copyright 2012, Adam L. Davis, all rights reserved. */
+package com.adamldavis.z.java;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Index of the local maven repository (~/.m2/repository): every
+ * groupId:artifactId:version found, and the classes of its jar, read from
+ * the jar's central directory when first asked for. The index is kept in
+ * ~/.z-m2index and refreshed in the background; directories whose
+ * modification time did not change are not listed again, and class listings
+ * are kept while the jar is unchanged. Artifacts are looked up by prefix of
+ * artifactId or groupId:artifactId.
+ *
+ * @author Adam L. Davis
+ *
+ */
+public class LocalRepository {
+
+	private static final Logger log = LoggerFactory
+			.getLogger(LocalRepository.class);
+
+	public static final String FILENAME = ".z-m2index";
+
+	static final int VERSION = 1;
+
+	/** A jar (or pom-only) artifact in the repository. */
+	public static class Artifact {
+		public final String groupId, artifactId, version;
+
+		/** Version directory, relative to the repository. */
+		final String dir;
+
+		/* of the jar, to know when classes must be read again */
+		long jarModified, jarLength;
+
+		List<String> classes;
+
+		Artifact(String groupId, String artifactId, String version, String dir) {
+			this.groupId = groupId;
+			this.artifactId = artifactId;
+			this.version = version;
+			this.dir = dir;
+		}
+
+		public String getKey() {
+			return groupId + ":" + artifactId;
+		}
+
+		@Override
+		public String toString() {
+			return groupId + ":" + artifactId + ":" + version;
+		}
+	}
+
+	/* a directory as last listed */
+	static class Dir {
+		final long modified;
+
+		final String[] subdirs;
+
+		final Artifact artifact;
+
+		Dir(long modified, String[] subdirs, Artifact artifact) {
+			this.modified = modified;
+			this.subdirs = subdirs;
+			this.artifact = artifact;
+		}
+	}
+
+	private static LocalRepository instance;
+
+	/**
+	 * The index of ~/.m2/repository, refreshing itself once when created and
+	 * saved on exit.
+	 */
+	public static synchronized LocalRepository getInstance() {
+		if (instance == null) {
+			final String home = System.getProperty("user.home", ".");
+			final LocalRepository repository = new LocalRepository(new File(
+					home, ".m2/repository"), new File(home, FILENAME));
+			repository.refreshLater();
+			Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+				@Override
+				public void run() {
+					repository.save();
+				}
+			}));
+			instance = repository;
+		}
+		return instance;
+	}
+
+	final File root;
+
+	final File indexFile;
+
+	/*
+	 * the directories as last listed and the artifacts of them by lower-case
+	 * artifactId and groupId:artifactId; never changed once published
+	 */
+	static class Index {
+		final Map<String, Dir> dirs;
+
+		final TreeMap<String, List<Artifact>> byArtifactId = new TreeMap<String, List<Artifact>>();
+
+		final TreeMap<String, List<Artifact>> byKey = new TreeMap<String, List<Artifact>>();
+
+		Index(Map<String, Dir> dirs) {
+			this.dirs = dirs;
+			for (Dir dir : dirs.values()) {
+				if (dir.artifact != null) {
+					add(byArtifactId, dir.artifact.artifactId.toLowerCase(),
+							dir.artifact);
+					add(byKey, dir.artifact.getKey().toLowerCase(),
+							dir.artifact);
+				}
+			}
+		}
+	}
+
+	/* swapped whole by load and refresh, so lookups never wait on a walk */
+	private volatile Index index = new Index(new HashMap<String, Dir>());
+
+	/* one load, refresh or save at a time */
+	private final Object walkLock = new Object();
+
+	private volatile boolean dirty;
+
+	public LocalRepository(File root, File indexFile) {
+		this.root = root;
+		this.indexFile = indexFile;
+		load();
+	}
+
+	/** Refreshes the index in a daemon thread. */
+	public void refreshLater() {
+		final Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				refresh();
+				save();
+			}
+		}, "m2 index");
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MIN_PRIORITY);
+		thread.start();
+	}
+
+	/** Walks the repository, listing only directories changed since. */
+	public void refresh() {
+		synchronized (walkLock) {
+			final Map<String, Dir> old = index.dirs;
+			final Map<String, Dir> found = new HashMap<String, Dir>();
+			walk("", root, old, found);
+			if (!found.keySet().equals(old.keySet())) {
+				dirty = true;
+			}
+			index = new Index(found);
+		}
+	}
+
+	private void walk(String path, File dir, Map<String, Dir> old,
+			Map<String, Dir> found) {
+		final long modified = dir.lastModified();
+		Dir entry = old.get(path);
+		if (entry == null || entry.modified != modified) {
+			final List<String> subdirs = new ArrayList<String>();
+			final File[] files = dir.listFiles();
+			if (files == null) {
+				return;
+			}
+			for (File file : files) {
+				if (file.isDirectory() && !file.getName().startsWith(".")) {
+					subdirs.add(file.getName());
+				}
+			}
+			entry = new Dir(modified, subdirs.toArray(new String[subdirs
+					.size()]), findArtifact(path, dir));
+			if (entry.artifact != null && old.get(path) != null
+					&& old.get(path).artifact != null) {
+				// keep its classes, checked against the jar when asked
+				final Artifact artifact = old.get(path).artifact;
+				synchronized (artifact) {
+					entry.artifact.classes = artifact.classes;
+					entry.artifact.jarModified = artifact.jarModified;
+					entry.artifact.jarLength = artifact.jarLength;
+				}
+			}
+			dirty = true;
+		}
+		found.put(path, entry);
+		for (String sub : entry.subdirs) {
+			walk(path.length() == 0 ? sub : path + "/" + sub, new File(dir,
+					sub), old, found);
+		}
+	}
+
+	/* a version directory holds artifactId-version.pom */
+	private static Artifact findArtifact(String path, File dir) {
+		final int v = path.lastIndexOf('/');
+		final int a = v < 0 ? -1 : path.lastIndexOf('/', v - 1);
+		if (a < 0) {
+			return null;
+		}
+		final String version = path.substring(v + 1);
+		final String artifactId = path.substring(a + 1, v);
+		if (!new File(dir, artifactId + "-" + version + ".pom").isFile()) {
+			return null;
+		}
+		return new Artifact(path.substring(0, a).replace('/', '.'),
+				artifactId, version, path);
+	}
+
+	private static void add(Map<String, List<Artifact>> map, String key,
+			Artifact artifact) {
+		List<Artifact> list = map.get(key);
+		if (list == null) {
+			map.put(key, list = new ArrayList<Artifact>(2));
+		}
+		list.add(artifact);
+	}
+
+	/**
+	 * Artifacts whose artifactId or groupId:artifactId starts with the given
+	 * text (ignoring case), one per groupId:artifactId (the latest version),
+	 * at most max.
+	 */
+	public List<Artifact> search(String prefix, int max) {
+		final String p = prefix.toLowerCase();
+		final Map<String, Artifact> latest = new TreeMap<String, Artifact>();
+		final Index index = this.index;
+		for (TreeMap<String, List<Artifact>> map : asList(index.byArtifactId,
+				index.byKey)) {
+			final SortedMap<String, List<Artifact>> matches = map.subMap(p, p
+					+ Character.MAX_VALUE);
+			for (List<Artifact> list : matches.values()) {
+				for (Artifact artifact : list) {
+					final Artifact other = latest.get(artifact.getKey());
+					if (other == null
+							|| compareVersions(artifact.version, other.version) > 0) {
+						latest.put(artifact.getKey(), artifact);
+					}
+				}
+				if (latest.size() >= max) {
+					break;
+				}
+			}
+		}
+		final List<Artifact> list = new ArrayList<Artifact>(latest.values());
+		return list.size() > max ? list.subList(0, max) : list;
+	}
+
+	private static List<TreeMap<String, List<Artifact>>> asList(
+			TreeMap<String, List<Artifact>> a, TreeMap<String, List<Artifact>> b) {
+		final List<TreeMap<String, List<Artifact>>> list = new ArrayList<TreeMap<String, List<Artifact>>>(
+				2);
+		list.add(a);
+		list.add(b);
+		return list;
+	}
+
+	/**
+	 * Gets the given artifact; the latest one if version is null or not
+	 * there. Null if not in the repository.
+	 */
+	public Artifact find(String groupId, String artifactId, String version) {
+		final List<Artifact> list = index.byKey.get((groupId + ":" + artifactId)
+				.toLowerCase());
+		if (list == null) {
+			return null;
+		}
+		Artifact found = null;
+		for (Artifact artifact : list) {
+			if (artifact.version.equals(version)) {
+				return artifact;
+			}
+			if (found == null
+					|| compareVersions(artifact.version, found.version) > 0) {
+				found = artifact;
+			}
+		}
+		return found;
+	}
+
+	/** Versions found of the given artifact. */
+	public List<String> getVersions(String groupId, String artifactId) {
+		final List<String> versions = new ArrayList<String>();
+		final List<Artifact> list = index.byKey.get((groupId + ":" + artifactId)
+				.toLowerCase());
+		if (list != null) {
+			for (Artifact artifact : list) {
+				versions.add(artifact.version);
+			}
+		}
+		return versions;
+	}
+
+	public File getDirectory(Artifact artifact) {
+		return new File(root, artifact.dir);
+	}
+
+	public File getPom(Artifact artifact) {
+		return new File(getDirectory(artifact), artifact.artifactId + "-"
+				+ artifact.version + ".pom");
+	}
+
+	/** Where the pom of the given version is, whether indexed or not. */
+	public File getPom(String groupId, String artifactId, String version) {
+		return new File(root, groupId.replace('.', '/') + "/" + artifactId
+				+ "/" + version + "/" + artifactId + "-" + version + ".pom");
+	}
+
+	public File getJar(Artifact artifact) {
+		return new File(getDirectory(artifact), artifact.artifactId + "-"
+				+ artifact.version + ".jar");
+	}
+
+	/**
+	 * Names of the (top-level) classes in the artifact's jar, read from its
+	 * central directory once per version of the jar.
+	 */
+	public List<String> getClasses(Artifact artifact) {
+		final File jar = getJar(artifact);
+		if (!jar.isFile()) {
+			return Collections.emptyList();
+		}
+		synchronized (artifact) {
+			if (artifact.classes != null
+					&& artifact.jarModified == jar.lastModified()
+					&& artifact.jarLength == jar.length()) {
+				return artifact.classes;
+			}
+		}
+		final List<String> classes = new ArrayList<String>();
+		ZipFile zip = null;
+		try {
+			zip = new ZipFile(jar);
+			for (Enumeration<? extends ZipEntry> e = zip.entries(); e
+					.hasMoreElements();) {
+				final String name = e.nextElement().getName();
+				if (name.endsWith(".class") && name.indexOf('$') < 0
+						&& !name.startsWith("META-INF/")) {
+					classes.add(name.substring(0, name.length() - 6).replace(
+							'/', '.'));
+				}
+			}
+		} catch (IOException e) {
+			log.warn("could not read {}: {}", jar, e.getMessage());
+		} finally {
+			if (zip != null) {
+				try {
+					zip.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+		Collections.sort(classes);
+		final List<String> list = Collections.unmodifiableList(classes);
+		synchronized (artifact) {
+			artifact.classes = list;
+			artifact.jarModified = jar.lastModified();
+			artifact.jarLength = jar.length();
+		}
+		dirty = true;
+		return list;
+	}
+
+	/** Compares versions numerically where both parts are numbers. */
+	public static int compareVersions(String v1, String v2) {
+		final String[] p1 = v1.split("[.\\-]"), p2 = v2.split("[.\\-]");
+		for (int i = 0; i < Math.min(p1.length, p2.length); i++) {
+			int c;
+			try {
+				c = Long.valueOf(p1[i]).compareTo(Long.valueOf(p2[i]));
+			} catch (NumberFormatException e) {
+				c = p1[i].compareTo(p2[i]);
+			}
+			if (c != 0) {
+				return c;
+			}
+		}
+		return p1.length - p2.length;
+	}
+
+	private void load() {
+		synchronized (walkLock) {
+			read();
+		}
+	}
+
+	private void read() {
+		if (!indexFile.isFile()) {
+			return;
+		}
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(indexFile)));
+			if (in.readInt() != VERSION
+					|| !in.readUTF().equals(root.getAbsolutePath())) {
+				return;
+			}
+			final Map<String, Dir> map = new HashMap<String, Dir>();
+			for (int n = in.readInt(); n > 0; n--) {
+				final String path = in.readUTF();
+				final long modified = in.readLong();
+				final String[] subdirs = new String[in.readInt()];
+				for (int i = 0; i < subdirs.length; i++) {
+					subdirs[i] = in.readUTF();
+				}
+				Artifact artifact = null;
+				if (in.readBoolean()) {
+					artifact = new Artifact(in.readUTF(), in.readUTF(),
+							in.readUTF(), path);
+					artifact.jarModified = in.readLong();
+					artifact.jarLength = in.readLong();
+					final int count = in.readInt();
+					if (count >= 0) {
+						final List<String> classes = new ArrayList<String>(
+								count);
+						for (int i = 0; i < count; i++) {
+							classes.add(in.readUTF());
+						}
+						artifact.classes = Collections.unmodifiableList(classes);
+					}
+				}
+				map.put(path, new Dir(modified, subdirs, artifact));
+			}
+			index = new Index(map);
+		} catch (IOException e) {
+			log.warn("could not read {}: {}", indexFile, e.getMessage());
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+	}
+
+	/** Writes the index if it changed. */
+	public void save() {
+		synchronized (walkLock) {
+			if (dirty) {
+				write(index.dirs);
+			}
+		}
+	}
+
+	private void write(Map<String, Dir> dirs) {
+		dirty = false;
+		DataOutputStream out = null;
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(
+					new FileOutputStream(indexFile)));
+			out.writeInt(VERSION);
+			out.writeUTF(root.getAbsolutePath());
+			out.writeInt(dirs.size());
+			for (Map.Entry<String, Dir> entry : dirs.entrySet()) {
+				final Dir dir = entry.getValue();
+				out.writeUTF(entry.getKey());
+				out.writeLong(dir.modified);
+				out.writeInt(dir.subdirs.length);
+				for (String sub : dir.subdirs) {
+					out.writeUTF(sub);
+				}
+				final Artifact artifact = dir.artifact;
+				out.writeBoolean(artifact != null);
+				if (artifact != null) {
+					final long jarModified, jarLength;
+					final List<String> classes;
+					synchronized (artifact) {
+						jarModified = artifact.jarModified;
+						jarLength = artifact.jarLength;
+						classes = artifact.classes;
+					}
+					out.writeUTF(artifact.groupId);
+					out.writeUTF(artifact.artifactId);
+					out.writeUTF(artifact.version);
+					out.writeLong(jarModified);
+					out.writeLong(jarLength);
+					if (classes == null) {
+						out.writeInt(-1);
+					} else {
+						out.writeInt(classes.size());
+						for (String name : classes) {
+							out.writeUTF(name);
+						}
+					}
+				}
+			}
+		} catch (IOException e) {
+			dirty = true;
+			log.warn("could not write {}: {}", indexFile, e.getMessage());
+		} finally {
+			IOUtils.closeQuietly(out);
+		}
+	}
+
+}
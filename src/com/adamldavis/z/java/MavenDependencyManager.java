@@ -7,8 +7,10 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -22,7 +24,6 @@ import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
-import org.w3c.dom.Text;
 import org.xml.sax.SAXException;
 
 import com.adamldavis.z.ZNode;
@@ -30,7 +31,8 @@ import com.adamldavis.z.ZNode.ZNodeType;
 import com.adamldavis.z.api.DependencyManager;
 
 /**
- * Handles loading and saving of pom files.
+ * Handles loading and saving of pom files. Poms are read through the cached
+ * {@link PomModel}; saving edits them as DOM.
  * 
  * @author Adam Davis
  * 
@@ -53,6 +55,8 @@ public class MavenDependencyManager implements DependencyManager {
 
 	public static final String PROJECT = "project";
 
+	public static final String VERSION = "version";
+
 	public <T> T doInXmlFile(T list, File file, DoInXmlCallback<T> func) {
 		long lastModified = file.lastModified();
 
@@ -75,84 +79,22 @@ public class MavenDependencyManager implements DependencyManager {
 		return list;
 	}
 
-	String flatten(Node dep) {
-		return flatten(dep, new LinkedList<String>()).toString();
-	}
-
-	CharSequence flatten(final Node dep, final List<String> nest) {
-		final StringBuilder builder = new StringBuilder();
-
-		for (Node child = dep.getFirstChild(); child != null; child = child
-				.getNextSibling()) {
-			if (child instanceof Element) {
-				if (DEPENDENCIES.equals(child.getNodeName())) {
-					// skip
-				} else if (child.getChildNodes().getLength() == 1
-						&& child.getFirstChild() instanceof Text) {
-					StringBuilder name = new StringBuilder();
-
-					for (String nestName : nest) {
-						name.append(nestName).append('.');
-					}
-					name.append(child.getNodeName());
-					builder.append(name).append(": ")
-							.append(child.getTextContent()).append('\n');
-				} else {
-					List<String> list = new LinkedList<String>(nest);
-					list.add(child.getNodeName());
-					builder.append(flatten(child, list));
-				}
-			}
-		}
-		return builder;
-	}
-
-	private List<ZNode> getDependencies(Document doc, File file,
-			final List<ZNode> list) throws ParserConfigurationException,
-			SAXException, IOException, FileNotFoundException {
-
-		NodeList depsList = doc.getDocumentElement().getElementsByTagName(
-				DEPENDENCIES);
-
-		if (depsList.getLength() == 0) {
-			return list;
-		}
-		Node deps = depsList.item(0);
-		NodeList dependencyNodes = deps.getChildNodes();
-
-		for (int i = 0; i < dependencyNodes.getLength(); i++) {
-			Node dep = dependencyNodes.item(i);
-			if (DEPENDENCY.equals(dep.getNodeName())) {
-				final String artifaceId = getNodeContent(ARTIFACT_ID, dep);
-
-				list.add(new ZNode(ZNodeType.DEPENDENCY, artifaceId,
-						flatten(dep), "xml", file));
-			}
-		}
-		return list;
-	}
-
 	@Override
 	public List<ZNode> getDependencies(final File dependencyFile) {
-		List<ZNode> list = new ArrayList<ZNode>(10);
-
-		return doInXmlFile(list, dependencyFile,
-				new DoInXmlCallback<List<ZNode>>() {
-
-					@Override
-					public List<ZNode> doInXml(Document doc, long lastModified,
-							List<ZNode> list)
-							throws ParserConfigurationException, SAXException,
-							IOException, FileNotFoundException {
-						final List<ZNode> dependencies = getDependencies(doc,
-								dependencyFile, list);
-
-						for (ZNode node : dependencies) {
-							node.setParentFile(dependencyFile.getParentFile());
-						}
-						return dependencies;
-					}
-				});
+		final List<PomModel.Element> deps = PomModel.read(dependencyFile)
+				.getDependencies();
+		final List<ZNode> list = new ArrayList<ZNode>(deps.size());
+
+		for (PomModel.Element dep : deps) {
+			final PomModel.Element artifactId = dep.getChild(ARTIFACT_ID);
+			final ZNode node = new ZNode(ZNodeType.DEPENDENCY,
+					artifactId == null ? null : artifactId.getTextContent(),
+					PomModel.flatten(dep, new LinkedList<String>()).toString(),
+					"xml", dependencyFile);
+			node.setParentFile(dependencyFile.getParentFile());
+			list.add(node);
+		}
+		return list;
 	}
 
 	private Node getNode(String name, Node depNode) {
@@ -172,42 +114,16 @@ public class MavenDependencyManager implements DependencyManager {
 
 	@Override
 	public String getProjectName(File dependencyFile) {
-		return doInXmlFile("z", dependencyFile, new DoInXmlCallback<String>() {
-
-			@Override
-			public String doInXml(Document doc, long lastModified, String name)
-					throws ParserConfigurationException, SAXException,
-					IOException, FileNotFoundException {
-				NodeList nodes = doc.getDocumentElement().getChildNodes();
-				for (int i = 0; i < nodes.getLength(); i++) {
-					if ("name".equals(nodes.item(i).getNodeName())) {
-						return nodes.item(i).getTextContent();
-					}
-				}
-				return name;
-			}
-		});
+		final String name = PomModel.read(dependencyFile).getName();
+		return name == null ? "z" : name;
 	}
 
 	@Override
 	public File getSourceFolder(final File dependencyFile) {
-		File file = new File(dependencyFile.getParentFile(), "src/main/java/");
-
-		return doInXmlFile(file, dependencyFile, new DoInXmlCallback<File>() {
-
-			@Override
-			public File doInXml(Document doc, long lastModified, File file)
-					throws ParserConfigurationException, SAXException,
-					IOException, FileNotFoundException {
-				NodeList nodes = doc.getElementsByTagName("sourceDirectory");
-
-				for (int i = 0; i < nodes.getLength();) {
-					return new File(dependencyFile.getParentFile(), nodes.item(
-							i).getTextContent());
-				}
-				return file;
-			}
-		});
+		final String dir = PomModel.read(dependencyFile).findText(
+				"sourceDirectory");
+		return new File(dependencyFile.getParentFile(),
+				dir == null ? "src/main/java/" : dir);
 	}
 
 	@Override
@@ -217,15 +133,7 @@ public class MavenDependencyManager implements DependencyManager {
 
 	@Override
 	public String loadCode(File dependencyFile) {
-		return doInXmlFile("", dependencyFile, new DoInXmlCallback<String>() {
-
-			@Override
-			public String doInXml(Document doc, long lastModified,
-					String inParameter) throws ParserConfigurationException,
-					SAXException, IOException, FileNotFoundException {
-				return flatten(doc.getDocumentElement());
-			}
-		});
+		return PomModel.read(dependencyFile).getCode();
 	}
 
 	@Override
@@ -263,6 +171,7 @@ public class MavenDependencyManager implements DependencyManager {
 				fis.close();
 			}
 			saveXML(file, doc);
+			PomModel.forget(file);
 
 		} catch (FileNotFoundException e) {
 			throw new IllegalArgumentException("File not found:" + file);
@@ -324,7 +233,7 @@ public class MavenDependencyManager implements DependencyManager {
 
 	protected void unflatten(Document doc, final Element node, String line)
 			throws DOMException {
-		if (line.indexOf('=') < 0) {
+		if (line.indexOf(": ") < 0) {
 			return;
 		}
 		String key = line.substring(0, line.indexOf(": "));
@@ -350,23 +259,148 @@ public class MavenDependencyManager implements DependencyManager {
 
 	@Override
 	public File getCompiledFolder(final File dependencyFile) {
-		File file = new File(dependencyFile.getParentFile(), "target/classes/");
+		final String dir = PomModel.read(dependencyFile).findText(
+				"outputDirectory");
+		return new File(dependencyFile.getParentFile(),
+				dir == null ? "target/classes/" : dir);
+	}
 
-		return doInXmlFile(file, dependencyFile, new DoInXmlCallback<File>() {
+	@Override
+	public List<File> getModules(File dependencyFile) {
+		final List<File> modules = new ArrayList<File>();
+		final PomModel.Element list = PomModel.read(dependencyFile).getRoot()
+				.getChild("modules");
+
+		if (list != null) {
+			for (PomModel.Element module : list.getChildren("module")) {
+				File file = new File(dependencyFile.getParentFile(), module
+						.getTextContent().trim());
+				if (file.isDirectory()) {
+					file = new File(file, getStandardFileName());
+				}
+				if (file.isFile()) {
+					modules.add(file);
+				}
+			}
+		}
+		return modules;
+	}
 
-			@Override
-			public File doInXml(Document doc, long lastModified, File file)
-					throws ParserConfigurationException, SAXException,
-					IOException, FileNotFoundException {
-				NodeList nodes = doc.getElementsByTagName("outputDirectory");
+	@Override
+	public String getModuleKey(File dependencyFile) {
+		final PomModel pom = PomModel.read(dependencyFile);
+		return pom.getGroupId() + ":" + pom.getArtifactId();
+	}
 
-				for (int i = 0; i < nodes.getLength();) {
-					return new File(dependencyFile.getParentFile(), nodes.item(
-							i).getTextContent());
-				}
-				return file;
+	@Override
+	public String getDependencyKey(ZNode dependencyNode) {
+		String groupId = getValue(dependencyNode, GROUP_ID);
+		String artifactId = getValue(dependencyNode, ARTIFACT_ID);
+
+		if (artifactId == null) {
+			artifactId = dependencyNode.getName();
+		}
+		if (groupId != null && groupId.startsWith("${")) {
+			// IE ${project.groupId}
+			final File pom = new File(dependencyNode.getParentFile(),
+					getStandardFileName());
+			if (pom.isFile()) {
+				groupId = PomModel.read(pom).getGroupId();
+			}
+		}
+		return groupId + ":" + artifactId;
+	}
+
+	/** Value of the given "key: value" line of the dependency, or null. */
+	static String getValue(ZNode dependencyNode, String key) {
+		for (String line : dependencyNode.getCodeLines()) {
+			if (line.startsWith(key + ": ")) {
+				return line.substring(key.length() + 2).trim();
 			}
-		});
+		}
+		return null;
+	}
+
+	/**
+	 * The packages and classes of the dependency's jar, if it is in the
+	 * local repository (see {@link LocalRepository}).
+	 */
+	@Override
+	public List<ZNode> getDependencyContents(ZNode dependencyNode) {
+		final String key = getDependencyKey(dependencyNode);
+		final LocalRepository repository = LocalRepository.getInstance();
+		final LocalRepository.Artifact artifact = repository.find(
+				key.substring(0, key.indexOf(':')),
+				key.substring(key.indexOf(':') + 1),
+				getValue(dependencyNode, VERSION));
+		final List<ZNode> packages = new ArrayList<ZNode>();
+
+		if (artifact == null) {
+			return packages;
+		}
+		final File jar = repository.getJar(artifact);
+		ZNode pack = null;
+		for (String name : repository.getClasses(artifact)) {
+			final int dot = name.lastIndexOf('.');
+			final String packageName = dot < 0 ? "" : name.substring(0, dot);
+			if (pack == null || !pack.getName().equals(packageName)) {
+				pack = new ZNode(ZNodeType.PACKAGE, packageName, "", "", jar);
+				packages.add(pack);
+			}
+			final ZNode type = new ZNode(ZNodeType.CLASS,
+					name.substring(dot + 1), name, "class", jar);
+			type.setParentNode(pack);
+			pack.getSubmodules().add(type);
+		}
+		return packages;
+	}
+
+	/**
+	 * Resolved from the poms in the local repository, see
+	 * {@link DependencyResolver}.
+	 */
+	@Override
+	public List<ZNode> getTransitiveDependencies(ZNode node) {
+		final DependencyResolver resolver = DependencyResolver.getInstance();
+		final List<DependencyResolver.Resolved> graph;
+
+		if (node.getNodeType() == ZNodeType.DEPENDENCY) {
+			final String key = getDependencyKey(node);
+			final String version = getValue(node, VERSION);
+			if (version == null) {
+				return new ArrayList<ZNode>(0);
+			}
+			graph = resolver.resolve(key.substring(0, key.indexOf(':')),
+					key.substring(key.indexOf(':') + 1), version);
+		} else {
+			final File pom = new File(node.getParentFile(),
+					getStandardFileName());
+			if (!pom.isFile()) {
+				return new ArrayList<ZNode>(0);
+			}
+			graph = resolver.resolve(pom);
+		}
+		final LocalRepository repository = LocalRepository.getInstance();
+		final Map<DependencyResolver.Resolved, ZNode> nodes = new HashMap<DependencyResolver.Resolved, ZNode>();
+		final List<ZNode> list = new ArrayList<ZNode>(graph.size());
+
+		for (DependencyResolver.Resolved resolved : graph) {
+			final File pom = repository.getPom(resolved.groupId,
+					resolved.artifactId, String.valueOf(resolved.version));
+			final ZNode dep = new ZNode(ZNodeType.DEPENDENCY,
+					resolved.artifactId, GROUP_ID + ": " + resolved.groupId
+							+ "\n" + ARTIFACT_ID + ": " + resolved.artifactId
+							+ "\n" + VERSION + ": " + resolved.version + "\n"
+							+ "scope: " + resolved.scope, "xml",
+					resolved.missing ? node.getParentFile() : pom
+							.getParentFile());
+			nodes.put(resolved, dep);
+			list.add(dep);
+			if (resolved.parent != null) {
+				nodes.get(resolved.parent).getDependencies().add(dep);
+			}
+		}
+		return list;
 	}
 
 }
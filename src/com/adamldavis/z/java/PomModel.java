@@ -0,0 +1,337 @@
+/** Copyright 2012, Adam L. Davis, all rights reserved. */
+package com.adamldavis.z.java;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * A pom file read once with StAX into an immutable tree of elements. Models
+ * are cached by path and kept while the file's modification time and length
+ * stay the same, so the many questions asked of one pom while loading and
+ * compiling a module parse it only once.
+ *
+ * @author Adam L. Davis
+ *
+ */
+public final class PomModel {
+
+	/** An element: its name, own text and child elements. */
+	public static final class Element {
+		final String name;
+
+		final String text;
+
+		final List<Element> children;
+
+		/* has exactly one child node, a text (like DOM's single Text child) */
+		final boolean textOnly;
+
+		Element(String name, String text, List<Element> children,
+				boolean textOnly) {
+			this.name = name;
+			this.text = text;
+			this.children = children;
+			this.textOnly = textOnly;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/** Text of this element (its own first) and all below it. */
+		public String getTextContent() {
+			if (children.isEmpty()) {
+				return text;
+			}
+			final StringBuilder builder = new StringBuilder(text);
+			for (Element child : children) {
+				builder.append(child.getTextContent());
+			}
+			return builder.toString();
+		}
+
+		public List<Element> getChildren() {
+			return children;
+		}
+
+		/** First child of the given name, or null. */
+		public Element getChild(String name) {
+			for (Element child : children) {
+				if (child.name.equals(name)) {
+					return child;
+				}
+			}
+			return null;
+		}
+
+		/** Trimmed text of the first child of the given name, or null. */
+		public String getChildText(String name) {
+			final Element child = getChild(name);
+			return child == null ? null : child.getTextContent().trim();
+		}
+
+		public List<Element> getChildren(String name) {
+			final List<Element> list = new ArrayList<Element>();
+			for (Element child : children) {
+				if (child.name.equals(name)) {
+					list.add(child);
+				}
+			}
+			return list;
+		}
+
+		/** First element of the given name here or below, in document order. */
+		public Element find(String name) {
+			for (Element child : children) {
+				if (child.name.equals(name)) {
+					return child;
+				}
+				final Element found = child.find(name);
+				if (found != null) {
+					return found;
+				}
+			}
+			return null;
+		}
+	}
+
+	public static final String DEPENDENCIES = "dependencies";
+
+	static final int CACHE_SIZE = 4096;
+
+	private static final XMLInputFactory factory = XMLInputFactory
+			.newInstance();
+
+	static {
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES,
+				false);
+	}
+
+	private static final Map<String, PomModel> cache = new LinkedHashMap<String, PomModel>(
+			64, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, PomModel> eldest) {
+			return size() > CACHE_SIZE;
+		}
+	};
+
+	/**
+	 * Gets the model of the given pom file, parsing it only if not cached or
+	 * changed since.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if there is no such file.
+	 */
+	public static PomModel read(File file) {
+		final String path = file.getAbsolutePath();
+		final long lastModified = file.lastModified(), length = file.length();
+		synchronized (cache) {
+			final PomModel model = cache.get(path);
+			if (model != null && model.lastModified == lastModified
+					&& model.length == length) {
+				return model;
+			}
+		}
+		final PomModel model;
+		InputStream in = null;
+		try {
+			in = new BufferedInputStream(new FileInputStream(file));
+			model = new PomModel(file, lastModified, length, parse(in));
+		} catch (FileNotFoundException e) {
+			throw new IllegalArgumentException("File not found:" + file);
+		} catch (XMLStreamException e) {
+			throw new RuntimeException(e);
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+		synchronized (cache) {
+			cache.put(path, model);
+		}
+		return model;
+	}
+
+	/** Drops the cached model of the file, e.g. after writing it. */
+	public static void forget(File file) {
+		synchronized (cache) {
+			cache.remove(file.getAbsolutePath());
+		}
+	}
+
+	static Element parse(InputStream in) throws XMLStreamException {
+		final XMLStreamReader reader;
+		synchronized (factory) {
+			reader = factory.createXMLStreamReader(in);
+		}
+		try {
+			// stacks of the open elements
+			final LinkedList<String> names = new LinkedList<String>();
+			final LinkedList<StringBuilder> texts = new LinkedList<StringBuilder>();
+			final LinkedList<List<Element>> children = new LinkedList<List<Element>>();
+			// child node count, and if the last child was text
+			final LinkedList<int[]> nodes = new LinkedList<int[]>();
+			Element root = null;
+
+			while (reader.hasNext()) {
+				final int event = reader.next();
+				switch (event) {
+				case XMLStreamConstants.START_ELEMENT:
+					if (!nodes.isEmpty()) {
+						nodes.getLast()[0]++;
+						nodes.getLast()[1] = 0;
+					}
+					names.add(reader.getLocalName());
+					texts.add(new StringBuilder());
+					children.add(new ArrayList<Element>(4));
+					nodes.add(new int[2]);
+					break;
+				case XMLStreamConstants.CHARACTERS:
+				case XMLStreamConstants.SPACE:
+				case XMLStreamConstants.ENTITY_REFERENCE:
+				case XMLStreamConstants.CDATA:
+					if (!nodes.isEmpty()) {
+						texts.getLast().append(reader.getText());
+						final int[] count = nodes.getLast();
+						if (count[1] == 0 || event == XMLStreamConstants.CDATA) {
+							count[0]++; // a new text node
+						}
+						count[1] = event == XMLStreamConstants.CDATA ? 0 : 1;
+					}
+					break;
+				case XMLStreamConstants.COMMENT:
+				case XMLStreamConstants.PROCESSING_INSTRUCTION:
+					if (!nodes.isEmpty()) {
+						nodes.getLast()[0]++;
+						nodes.getLast()[1] = 0;
+					}
+					break;
+				case XMLStreamConstants.END_ELEMENT:
+					final String text = texts.removeLast().toString();
+					final List<Element> list = children.removeLast();
+					final boolean textOnly = nodes.removeLast()[0] == 1
+							&& list.isEmpty() && text.length() > 0;
+					final Element element = new Element(names.removeLast(),
+							text, list.isEmpty() ? Collections
+									.<Element> emptyList() : Collections
+									.unmodifiableList(list), textOnly);
+					if (children.isEmpty()) {
+						root = element;
+					} else {
+						children.getLast().add(element);
+					}
+					break;
+				default:
+				}
+			}
+			return root;
+		} finally {
+			reader.close();
+		}
+	}
+
+	final File file;
+
+	final long lastModified, length;
+
+	final Element root;
+
+	private volatile String code;
+
+	private final List<Element> dependencies;
+
+	PomModel(File file, long lastModified, long length, Element root) {
+		this.file = file;
+		this.lastModified = lastModified;
+		this.length = length;
+		this.root = root;
+		final Element deps = root.find(DEPENDENCIES);
+		this.dependencies = deps == null ? Collections.<Element> emptyList()
+				: deps.getChildren(MavenDependencyManager.DEPENDENCY);
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public Element getRoot() {
+		return root;
+	}
+
+	/** The groupId, or the parent's if not given. */
+	public String getGroupId() {
+		final String groupId = root.getChildText(MavenDependencyManager.GROUP_ID);
+		final Element parent = root.getChild("parent");
+		return groupId == null && parent != null ? parent
+				.getChildText(MavenDependencyManager.GROUP_ID) : groupId;
+	}
+
+	public String getArtifactId() {
+		return root.getChildText(MavenDependencyManager.ARTIFACT_ID);
+	}
+
+	/** The content of &lt;name&gt;, or null. */
+	public String getName() {
+		final Element name = root.getChild("name");
+		return name == null ? null : name.getTextContent();
+	}
+
+	/** The &lt;dependency&gt; elements of the first &lt;dependencies&gt;. */
+	public List<Element> getDependencies() {
+		return dependencies;
+	}
+
+	/** The content of the first element of the given name, or null. */
+	public String findText(String name) {
+		final Element element = root.find(name);
+		return element == null ? null : element.getTextContent();
+	}
+
+	/** The whole pom minus dependencies as "a.b: value" lines. */
+	public String getCode() {
+		if (code == null) {
+			code = flatten(root, new LinkedList<String>()).toString();
+		}
+		return code;
+	}
+
+	/** Flattens the element (minus dependencies) as "a.b: value" lines. */
+	public static CharSequence flatten(Element element, List<String> nest) {
+		final StringBuilder builder = new StringBuilder();
+
+		for (Element child : element.children) {
+			if (DEPENDENCIES.equals(child.name)) {
+				// skip
+			} else if (child.textOnly) {
+				for (String nestName : nest) {
+					builder.append(nestName).append('.');
+				}
+				builder.append(child.name).append(": ").append(child.text)
+						.append('\n');
+			} else {
+				List<String> list = new LinkedList<String>(nest);
+				list.add(child.name);
+				builder.append(flatten(child, list));
+			}
+		}
+		return builder;
+	}
+
+}
@@ -0,0 +1,287 @@
+/** Copyright 2012, Adam L. Davis, all rights reserved. */
+package com.adamldavis.z.perf;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Records timings of the hot paths (paint, animate, layout, hit-test, load)
+ * into lock-free ring buffers. Writers never block: each sample claims a slot
+ * with an atomic increment and overwrites the oldest value.
+ *
+ * @author Adam L. Davis
+ *
+ */
+public class FrameStats implements FrameStatsMBean {
+
+	public enum Metric {
+		PAINT, ANIMATE, LAYOUT, HIT_TEST, LOAD, SAVE, COMPILE
+	}
+
+	public static final String OBJECT_NAME = "com.adamldavis.z:type=FrameStats";
+
+	private static final Logger log = LoggerFactory.getLogger(FrameStats.class);
+
+	private static final FrameStats instance = new FrameStats(256);
+
+	public static FrameStats getInstance() {
+		return instance;
+	}
+
+	/** Ring buffer of nanoseconds per metric. */
+	private final AtomicLongArray[] samples;
+
+	private final AtomicLong[] cursors;
+
+	/** Ring buffer of frame end times (nanos) for FPS. */
+	private final AtomicLongArray frameTimes;
+
+	private final AtomicLong frameCursor = new AtomicLong();
+
+	private final AtomicLongArray frameAllocations;
+
+	private final AtomicInteger nodeCount = new AtomicInteger();
+
+	private final AtomicInteger linkCount = new AtomicInteger();
+
+	private final int capacity;
+
+	private final ThreadMXBean threadBean = ManagementFactory
+			.getThreadMXBean();
+
+	private volatile boolean overlayVisible;
+
+	public FrameStats(int capacity) {
+		this.capacity = capacity;
+		final int n = Metric.values().length;
+		samples = new AtomicLongArray[n];
+		cursors = new AtomicLong[n];
+		for (int i = 0; i < n; i++) {
+			samples[i] = new AtomicLongArray(capacity);
+			cursors[i] = new AtomicLong();
+		}
+		frameTimes = new AtomicLongArray(capacity);
+		frameAllocations = new AtomicLongArray(capacity);
+	}
+
+	/** Returns a start time to pass to {@link #record(Metric, long)}. */
+	public long start() {
+		return System.nanoTime();
+	}
+
+	/** Records the time elapsed since the given start. */
+	public void record(Metric metric, long startNanos) {
+		final int m = metric.ordinal();
+		final long slot = cursors[m].getAndIncrement();
+		samples[m].set((int) (slot % capacity), System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * Marks the end of a painted frame.
+	 *
+	 * @param allocatedBytes
+	 *            bytes allocated while painting, -1 if unknown.
+	 */
+	public void frame(int nodes, int links, long allocatedBytes) {
+		final int slot = (int) (frameCursor.getAndIncrement() % capacity);
+		frameTimes.set(slot, System.nanoTime());
+		frameAllocations.set(slot, allocatedBytes);
+		nodeCount.set(nodes);
+		linkCount.set(links);
+	}
+
+	/** Bytes allocated so far by the current thread, or -1 if unsupported. */
+	public long currentThreadAllocatedBytes() {
+		if (threadBean instanceof com.sun.management.ThreadMXBean) {
+			final com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threadBean;
+			try {
+				if (bean.isThreadAllocatedMemoryEnabled()) {
+					return bean.getThreadAllocatedBytes(Thread.currentThread()
+							.getId());
+				}
+			} catch (UnsupportedOperationException e) {
+				// fall through
+			}
+		}
+		return -1;
+	}
+
+	/** Sorted copy of the recorded samples of the given metric. */
+	long[] snapshot(Metric metric) {
+		final int m = metric.ordinal();
+		final int count = (int) Math.min(capacity, cursors[m].get());
+		final long[] copy = new long[count];
+
+		for (int i = 0; i < count; i++) {
+			copy[i] = samples[m].get(i);
+		}
+		Arrays.sort(copy);
+		return copy;
+	}
+
+	/**
+	 * Gets the given percentile in milliseconds.
+	 *
+	 * @param percentile
+	 *            0 to 100.
+	 */
+	public double getPercentile(Metric metric, double percentile) {
+		final long[] sorted = snapshot(metric);
+		if (sorted.length == 0) {
+			return 0;
+		}
+		int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+		index = Math.max(0, Math.min(sorted.length - 1, index));
+		return sorted[index] / 1e6;
+	}
+
+	@Override
+	public double getFramesPerSecond() {
+		final long frames = Math.min(capacity, frameCursor.get());
+		if (frames < 2) {
+			return 0;
+		}
+		final int last = (int) ((frameCursor.get() - 1) % capacity);
+		final int first = (int) ((frameCursor.get() - frames) % capacity);
+		final long nanos = frameTimes.get(last) - frameTimes.get(first);
+
+		return nanos <= 0 ? 0 : (frames - 1) * 1e9 / nanos;
+	}
+
+	@Override
+	public long getAllocatedBytesPerSecond() {
+		final int frames = (int) Math.min(capacity, frameCursor.get());
+		long total = 0;
+
+		for (int i = 0; i < frames; i++) {
+			final long bytes = frameAllocations.get(i);
+			if (bytes < 0) {
+				return -1;
+			}
+			total += bytes;
+		}
+		return frames == 0 ? 0
+				: (long) (total / (double) frames * getFramesPerSecond());
+	}
+
+	@Override
+	public double getPaintMillis50() {
+		return getPercentile(Metric.PAINT, 50);
+	}
+
+	@Override
+	public double getPaintMillis95() {
+		return getPercentile(Metric.PAINT, 95);
+	}
+
+	@Override
+	public double getPaintMillis99() {
+		return getPercentile(Metric.PAINT, 99);
+	}
+
+	@Override
+	public double getAnimateMillis50() {
+		return getPercentile(Metric.ANIMATE, 50);
+	}
+
+	@Override
+	public double getAnimateMillis95() {
+		return getPercentile(Metric.ANIMATE, 95);
+	}
+
+	@Override
+	public double getLayoutMillis50() {
+		return getPercentile(Metric.LAYOUT, 50);
+	}
+
+	@Override
+	public double getLayoutMillis95() {
+		return getPercentile(Metric.LAYOUT, 95);
+	}
+
+	@Override
+	public double getHitTestMillis50() {
+		return getPercentile(Metric.HIT_TEST, 50);
+	}
+
+	@Override
+	public double getHitTestMillis95() {
+		return getPercentile(Metric.HIT_TEST, 95);
+	}
+
+	@Override
+	public double getLoadMillis50() {
+		return getPercentile(Metric.LOAD, 50);
+	}
+
+	@Override
+	public double getLoadMillis95() {
+		return getPercentile(Metric.LOAD, 95);
+	}
+
+	@Override
+	public double getSaveMillis50() {
+		return getPercentile(Metric.SAVE, 50);
+	}
+
+	@Override
+	public double getSaveMillis95() {
+		return getPercentile(Metric.SAVE, 95);
+	}
+
+	@Override
+	public double getCompileMillis50() {
+		return getPercentile(Metric.COMPILE, 50);
+	}
+
+	@Override
+	public double getCompileMillis95() {
+		return getPercentile(Metric.COMPILE, 95);
+	}
+
+	@Override
+	public int getNodeCount() {
+		return nodeCount.get();
+	}
+
+	@Override
+	public int getLinkCount() {
+		return linkCount.get();
+	}
+
+	@Override
+	public boolean isOverlayVisible() {
+		return overlayVisible;
+	}
+
+	@Override
+	public void setOverlayVisible(boolean visible) {
+		this.overlayVisible = visible;
+	}
+
+	/** Registers this with the platform MBeanServer (once). */
+	public void registerMBean() {
+		try {
+			final MBeanServer server = ManagementFactory
+					.getPlatformMBeanServer();
+			final ObjectName name = new ObjectName(OBJECT_NAME);
+			if (!server.isRegistered(name)) {
+				server.registerMBean(this, name);
+			}
+		} catch (JMException e) {
+			log.error(e.getMessage(), e);
+		}
+	}
+
+}
@@ -0,0 +1,55 @@
+/** Copyright 2012, Adam L. Davis, all rights reserved. */
+package com.adamldavis.z.perf;
+
+/**
+ * JMX view of {@link FrameStats}. All times are in milliseconds.
+ *
+ * @author Adam L. Davis
+ *
+ */
+public interface FrameStatsMBean {
+
+	double getFramesPerSecond();
+
+	double getPaintMillis50();
+
+	double getPaintMillis95();
+
+	double getPaintMillis99();
+
+	double getAnimateMillis50();
+
+	double getAnimateMillis95();
+
+	double getLayoutMillis50();
+
+	double getLayoutMillis95();
+
+	double getHitTestMillis50();
+
+	double getHitTestMillis95();
+
+	double getLoadMillis50();
+
+	double getLoadMillis95();
+
+	double getSaveMillis50();
+
+	double getSaveMillis95();
+
+	double getCompileMillis50();
+
+	double getCompileMillis95();
+
+	int getNodeCount();
+
+	int getLinkCount();
+
+	/** Bytes allocated per second by the painting thread (-1 if unknown). */
+	long getAllocatedBytesPerSecond();
+
+	boolean isOverlayVisible();
+
+	void setOverlayVisible(boolean visible);
+
+}
@@ -137,4 +137,29 @@ public class RakeGemManager implements DependencyManager {
 		return getSourceFolder(dependencyFile);
 	}
 
+	@Override
+	public List<File> getModules(File dependencyFile) {
+		return new ArrayList<File>(0);
+	}
+
+	@Override
+	public String getModuleKey(File dependencyFile) {
+		return null;
+	}
+
+	@Override
+	public String getDependencyKey(ZNode dependencyNode) {
+		return dependencyNode.getName();
+	}
+
+	@Override
+	public List<ZNode> getDependencyContents(ZNode dependencyNode) {
+		return new ArrayList<ZNode>(0);
+	}
+
+	@Override
+	public List<ZNode> getTransitiveDependencies(ZNode node) {
+		return new ArrayList<ZNode>(0);
+	}
+
 }
@@ -0,0 +1,39 @@
+package com.adamldavis.z.runner;
+
+import com.adamldavis.z.api.LineError;
+
+/**
+ * A compile error or warning; lineNumber is the line in the file at location
+ * (starting at 1).
+ * 
+ * @author Adam L. Davis
+ * 
+ */
+public class LineErrorImpl extends LineExecutionImpl implements LineError {
+
+	protected final String location;
+	protected final boolean warning;
+
+	public LineErrorImpl(String location, int lineNumber, String message,
+			boolean warning) {
+		super(lineNumber, message);
+		this.location = location;
+		this.warning = warning;
+	}
+
+	@Override
+	public String getLocation() {
+		return location;
+	}
+
+	@Override
+	public boolean isWarning() {
+		return warning;
+	}
+
+	@Override
+	public String toString() {
+		return location + ":" + lineNumber + ": " + message;
+	}
+
+}
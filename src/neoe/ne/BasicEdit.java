@@ -1,8 +1,7 @@
 package neoe.ne;
 
-import java.util.List;
-
 import neoe.ne.U.BasicAction;
+import neoe.util.PieceTable;
 
 class BasicEdit {
 	PlainPage page;
@@ -13,13 +12,25 @@ class BasicEdit {
 		this.page = page;
 	}
 
+	/** Large files are mapped read-only. */
+	void checkWritable() {
+		if (page.mapped != null) {
+			throw new RuntimeException("large file is read-only");
+		}
+	}
+
 	void deleteEmptyLine(int y) {
-		StringBuffer sb = lines().get(y);
-		if (sb.length() > 0) {
-			throw new RuntimeException("not a empty line " + y + ":" + sb);
+		checkWritable();
+		PieceTable lines = lines();
+		if (lines.getLineLength(y) > 0) {
+			throw new RuntimeException("not a empty line " + y + ":"
+					+ lines.getLine(y));
 		}
-		if (lines().size() > 1) {
-			lines().remove(y);
+		if (lines.getLineCount() > 1) {
+			int start = lines.getLineStart(y);
+			// remove the line-break after it, or before the last line
+			lines.delete(y + 1 < lines.getLineCount() ? start : start - 1, 1);
+			page.changes++;
 			if (record) {
 				history().addOne(
 						new HistoryCell(BasicAction.DeleteEmtpyLine, -1,
@@ -29,13 +40,17 @@ class BasicEdit {
 	}
 
 	void deleteInLine(int y, int x1, int x2) {
-		StringBuffer sb = lines().get(y);
-		if (x1 >= sb.length())
+		checkWritable();
+		PieceTable lines = lines();
+		int len = lines.getLineLength(y);
+		if (x1 >= len)
 			return;
-		x2 = Math.min(x2, sb.length());
-		String d = sb.substring(x1, x2);
+		x2 = Math.min(x2, len);
+		int start = lines.getLineStart(y);
+		String d = lines.substring(start + x1, start + x2);
 		if (d.length() > 0) {
-			sb.delete(x1, x2);
+			lines.delete(start + x1, x2 - x1);
+			page.changes++;
 			if (record) {
 				history().addOne(
 						new HistoryCell(BasicAction.Delete, x1, x2, y, -1,
@@ -49,7 +64,11 @@ class BasicEdit {
 	}
 
 	void insertEmptyLine(int y) {
-		lines().add(y, new StringBuffer());
+		checkWritable();
+		PieceTable lines = lines();
+		lines.insert(y < lines.getLineCount() ? lines.getLineStart(y)
+				: lines.length(), "\n");
+		page.changes++;
 		if (record) {
 			history().addOne(
 					new HistoryCell(BasicAction.InsertEmptyLine, -1, -1, y,
@@ -58,6 +77,7 @@ class BasicEdit {
 	}
 
 	void insertInLine(int y, int x, String s) {
+		checkWritable();
 		if (s.indexOf("\n") >= 0 || s.indexOf("\r") >= 0) {
 			throw new RuntimeException("cannot contains line-seperator:["
 					+ s + "]" + s.indexOf("\n"));
@@ -65,11 +85,14 @@ class BasicEdit {
 		if (y == page.roLines.getLinesize()) {
 			page.editRec.insertEmptyLine(y);
 		}
-		StringBuffer sb = lines().get(y);
-		if (x > sb.length()) {
-			sb.setLength(x);
+		PieceTable lines = lines();
+		int len = lines.getLineLength(y);
+		int start = lines.getLineStart(y);
+		if (x > len) {
+			lines.insert(start + len, U.spaces(x - len));
 		}
-		sb.insert(x, s);
+		lines.insert(start + x, s);
+		page.changes++;
 		if (record) {
 			history().addOne(
 					new HistoryCell(BasicAction.Insert, x, x + s.length(),
@@ -77,16 +100,16 @@ class BasicEdit {
 		}
 	}
 
-	List<StringBuffer> lines() {
+	PieceTable lines() {
 		return page.lines;
 	}
 
 	void mergeLine(int y) {
-		StringBuffer sb1 = lines().get(y);
-		StringBuffer sb2 = lines().get(y + 1);
-		int x1 = sb1.length();
-		sb1.append(sb2);
-		lines().remove(y + 1);
+		checkWritable();
+		PieceTable lines = lines();
+		int x1 = lines.getLineLength(y);
+		lines.delete(lines.getLineStart(y + 1) - 1, 1);
+		page.changes++;
 		if (record) {
 			history().addOne(
 					new HistoryCell(BasicAction.MergeLine, x1, -1, y, -1,
@@ -79,6 +79,7 @@ public class EditPanel extends JPanel implements MouseMotionListener,
 			public void windowClosing(WindowEvent e) {
 				PlainPage pp = page;
 				pp.ui.closed = true;
+				pp.history.close();
 				if (pp.fn != null) {
 					try {
 						U.saveFileHistory(pp.fn, pp.cy);
@@ -97,6 +98,11 @@ public class EditPanel extends JPanel implements MouseMotionListener,
 		repaint();
 	}
 
+	/** Releases what the page holds outside the heap, e.g. its undo file. */
+	public void close() {
+		page.history.close();
+	}
+
 	@Override
 	public void mouseDragged(MouseEvent env) {
 		page.mouseDragged(env);
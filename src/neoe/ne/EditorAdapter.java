@@ -12,6 +12,7 @@ import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
 import java.io.File;
+import java.util.Collection;
 
 import javax.swing.JPanel;
 import javax.swing.SwingUtilities;
@@ -84,6 +85,13 @@ public class EditorAdapter implements Editor, MouseListener,
 		ui.applyColorMode(colorManager);
 	}
 
+	/** Closes the page being edited. */
+	public void close() {
+		if (editor != null) {
+			editor.close();
+		}
+	}
+
 	public void setShowNumbers(boolean show) {
 		editor.page.ui.showLineNumbers = show;
 	}
@@ -101,6 +109,8 @@ public class EditorAdapter implements Editor, MouseListener,
 	/*
 	 * (non-Javadoc)
 	 * 
+	 * Throws a RuntimeException for a large file, which is only mapped.
+	 * 
 	 * @see com.adamldavis.z.api.Editor#getSource()
 	 */
 	@Override
@@ -125,6 +135,17 @@ public class EditorAdapter implements Editor, MouseListener,
 		}
 	}
 
+	/** Goes up whenever the text changes, e.g. to tell if it did. */
+	public int getChangeCount() {
+		return editor == null ? 0 : editor.page.changes;
+	}
+
+	/** Highlights the given words, e.g. the language's reserved words. */
+	public void setKeywords(Collection<String> keywords) {
+		editor.page.ui.highlighter.setKeywords(keywords);
+		editor.repaint();
+	}
+
 	@Override
 	public void setScale(float scale) {
 		editor.rescale(scale);
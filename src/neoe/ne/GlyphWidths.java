@@ -0,0 +1,165 @@
+package neoe.ne;
+
+import java.awt.FontMetrics;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Char advances of one font, asked from FontMetrics once per char and kept
+ * in 256-char pages covering the BMP (supplementary chars go in a map).
+ * Widths of text, prefix widths of a line and the char at a given x are
+ * then sums and binary searches instead of text layout. Tabs are
+ * TABWIDTH wide, like {@link U#strWidth}.
+ */
+class GlyphWidths {
+
+	static final int PREFIX_CACHE_SIZE = 256;
+
+	/* each zoom step is a new font size, so only the recent ones are kept */
+	static final int FONT_CACHE_SIZE = 16;
+
+	private static final Map<List<Object>, GlyphWidths> fonts = new LinkedHashMap<List<Object>, GlyphWidths>(
+			FONT_CACHE_SIZE, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(
+				Map.Entry<List<Object>, GlyphWidths> eldest) {
+			return size() > FONT_CACHE_SIZE;
+		}
+	};
+
+	/** Gets the widths for the font (and render context) of fm. */
+	static GlyphWidths of(FontMetrics fm) {
+		final List<Object> key = Arrays.<Object> asList(fm.getFont(),
+				fm.getFontRenderContext());
+		synchronized (fonts) {
+			GlyphWidths widths = fonts.get(key);
+			if (widths == null) {
+				fonts.put(key, widths = new GlyphWidths(fm));
+			}
+			return widths;
+		}
+	}
+
+	private final FontMetrics fm;
+
+	private final int[][] pages = new int[256][];
+
+	private final Map<Integer, Integer> supplementary = new HashMap<Integer, Integer>();
+
+	private int prefixTabWidth;
+
+	private final Map<String, int[]> prefixes = new LinkedHashMap<String, int[]>(
+			PREFIX_CACHE_SIZE, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, int[]> eldest) {
+			return size() > PREFIX_CACHE_SIZE;
+		}
+	};
+
+	GlyphWidths(FontMetrics fm) {
+		this.fm = fm;
+	}
+
+	synchronized int charWidth(char c) {
+		int[] page = pages[c >>> 8];
+		if (page == null) {
+			page = pages[c >>> 8] = new int[256];
+			Arrays.fill(page, -1);
+		}
+		int w = page[c & 0xff];
+		if (w < 0) {
+			w = page[c & 0xff] = fm.charWidth(c);
+		}
+		return w;
+	}
+
+	synchronized int codePointWidth(int codePoint) {
+		Integer w = supplementary.get(codePoint);
+		if (w == null) {
+			supplementary.put(codePoint, w = fm.charWidth(codePoint));
+		}
+		return w;
+	}
+
+	/** Width of s[from..to). */
+	int width(CharSequence s, int from, int to, int tabWidth) {
+		int w = 0;
+		for (int i = from; i < to; i++) {
+			final char c = s.charAt(i);
+			if (c == '\t') {
+				w += tabWidth;
+			} else if (Character.isHighSurrogate(c) && i + 1 < to
+					&& Character.isLowSurrogate(s.charAt(i + 1))) {
+				w += codePointWidth(Character.toCodePoint(c, s.charAt(++i)));
+			} else {
+				w += charWidth(c);
+			}
+		}
+		return w;
+	}
+
+	/**
+	 * Gets widths[i] = width of s[0..i) for i = 0..length, kept for the most
+	 * recently measured lines.
+	 */
+	int[] prefixWidths(String s, int tabWidth) {
+		synchronized (prefixes) {
+			if (tabWidth != prefixTabWidth) {
+				prefixes.clear();
+				prefixTabWidth = tabWidth;
+			}
+			int[] widths = prefixes.get(s);
+			if (widths == null) {
+				widths = new int[s.length() + 1];
+				for (int i = 0; i < s.length(); i++) {
+					final char c = s.charAt(i);
+					if (Character.isHighSurrogate(c) && i + 1 < s.length()
+							&& Character.isLowSurrogate(s.charAt(i + 1))) {
+						widths[i + 1] = widths[i]; // inside the pair
+						widths[i + 2] = widths[i]
+								+ codePointWidth(Character.toCodePoint(c,
+										s.charAt(i + 1)));
+						i++;
+					} else {
+						widths[i + 1] = widths[i]
+								+ (c == '\t' ? tabWidth : charWidth(c));
+					}
+				}
+				prefixes.put(s, widths);
+			}
+			return widths;
+		}
+	}
+
+	/** Width of s[from..to), clamped to the string. */
+	int widthBetween(String s, int from, int to, int tabWidth) {
+		final int[] widths = prefixWidths(s, tabWidth);
+		from = Math.max(0, Math.min(from, s.length()));
+		to = Math.max(from, Math.min(to, s.length()));
+		return widths[to] - widths[from];
+	}
+
+	/** Number of chars of s from 'from' on that fit in the given width. */
+	int indexAt(String s, int from, int width, int tabWidth) {
+		final int[] widths = prefixWidths(s, tabWidth);
+		final int limit = widths[from] + width;
+		int lo = from, hi = s.length();
+		while (lo < hi) {
+			final int mid = (lo + hi + 1) >>> 1;
+			if (widths[mid] <= limit) {
+				lo = mid;
+			} else {
+				hi = mid - 1;
+			}
+		}
+		return lo - from;
+	}
+
+}
@@ -0,0 +1,201 @@
+package neoe.ne;
+
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Splits painted lines into tokens (keyword, digits, tab, comment...) and
+ * measures them once, keeping the result per line text. Scrolling over
+ * lines already seen does no lexing or measuring; an edited line is a new
+ * text and is the only one lexed again. Keywords are looked up in a hash
+ * table built once from the reserved words (a keyword in lower case also
+ * matches any case, like {@link U#getHighLightID}).
+ */
+class Highlighter {
+
+	static final byte NORMAL = 0, KEYWORD = 1, DIGIT = 2, TAB = 3,
+			COMMENT = 4;
+
+	static final int CACHE_SIZE = 2000;
+
+	/** Tokens of one line: token i is chars[starts[i]..starts[i + 1]). */
+	static class LineTokens {
+		final char[] chars;
+		int[] starts;
+		byte[] kinds;
+		int[] widths;
+		int count;
+
+		LineTokens(String s) {
+			chars = s.toCharArray();
+			starts = new int[8];
+			kinds = new byte[7];
+			widths = new int[7];
+		}
+
+		void add(int start, int end, byte kind, int width) {
+			if (count + 1 == starts.length) {
+				final int n = starts.length * 2;
+				starts = Arrays.copyOf(starts, n);
+				kinds = Arrays.copyOf(kinds, n - 1);
+				widths = Arrays.copyOf(widths, n - 1);
+			}
+			starts[count] = start;
+			starts[count + 1] = end;
+			kinds[count] = kind;
+			widths[count] = width;
+			count++;
+		}
+	}
+
+	private String[] table = new String[1];
+
+	private final Map<String, LineTokens> cache = new LinkedHashMap<String, LineTokens>(
+			CACHE_SIZE, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, LineTokens> eldest) {
+			return size() > CACHE_SIZE;
+		}
+	};
+
+	private Font font;
+
+	private String comment;
+
+	Highlighter(Collection<String> keywords) {
+		setKeywords(keywords);
+	}
+
+	/** Replaces the keyword table, e.g. with LanguageParser's reserved words. */
+	synchronized void setKeywords(Collection<String> keywords) {
+		int size = 2;
+		while (size < keywords.size() * 2) {
+			size *= 2;
+		}
+		final String[] t = new String[size];
+		for (String kw : keywords) {
+			if (kw.length() == 0) {
+				continue;
+			}
+			int i = hash(kw.toCharArray(), 0, kw.length()) & (size - 1);
+			while (t[i] != null && !t[i].equals(kw)) {
+				i = (i + 1) & (size - 1);
+			}
+			t[i] = kw;
+		}
+		table = t;
+		cache.clear();
+	}
+
+	/* case-insensitive, so "Public" and "public" land together */
+	private static int hash(char[] cs, int from, int to) {
+		int h = 0;
+		for (int i = from; i < to; i++) {
+			h = 31 * h + Character.toLowerCase(cs[i]);
+		}
+		return h ^ (h >>> 16);
+	}
+
+	boolean isKeyword(char[] cs, int from, int to) {
+		final String[] t = table;
+		final int mask = t.length - 1;
+		for (int i = hash(cs, from, to) & mask; t[i] != null; i = (i + 1)
+				& mask) {
+			if (matches(t[i], cs, from, to)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean matches(String kw, char[] cs, int from, int to) {
+		if (kw.length() != to - from) {
+			return false;
+		}
+		boolean exact = true, lower = true;
+		for (int i = 0; i < kw.length() && (exact || lower); i++) {
+			final char k = kw.charAt(i), c = cs[from + i];
+			exact &= c == k;
+			lower &= Character.toLowerCase(c) == k;
+		}
+		return exact || lower;
+	}
+
+	/**
+	 * Gets the tokens of the given line, lexing and measuring it only if not
+	 * seen before with the same font and comment marker.
+	 */
+	synchronized LineTokens get(String s, String comment, FontMetrics fm,
+			int tabWidth) {
+		if (!fm.getFont().equals(font)
+				|| (comment == null ? this.comment != null : !comment
+						.equals(this.comment))) {
+			cache.clear();
+			font = fm.getFont();
+			this.comment = comment;
+		}
+		LineTokens tokens = cache.get(s);
+		if (tokens == null) {
+			tokens = lex(s, comment, fm, tabWidth);
+			cache.put(s, tokens);
+		}
+		return tokens;
+	}
+
+	LineTokens lex(String s, String comment, FontMetrics fm, int tabWidth) {
+		final LineTokens tokens = new LineTokens(s);
+		final GlyphWidths widths = GlyphWidths.of(fm);
+		final char[] cs = tokens.chars;
+		final int commentPos = comment == null ? -1 : s.indexOf(comment);
+		final int end = commentPos >= 0 ? commentPos : cs.length;
+		int i = 0;
+
+		while (i < end) {
+			final int start = i;
+			if (cs[i] == '\t') {
+				tokens.add(start, ++i, TAB, tabWidth);
+				continue;
+			}
+			if (Character.isJavaIdentifierPart(cs[i])) {
+				while (i < end && Character.isJavaIdentifierPart(cs[i])) {
+					i++;
+				}
+			} else {
+				i++;
+			}
+			tokens.add(start, i, kind(cs, start, i),
+					widths.width(s, start, i, tabWidth));
+		}
+		while (i < cs.length) {
+			final int start = i;
+			if (cs[i] == '\t') {
+				tokens.add(start, ++i, TAB, tabWidth);
+				continue;
+			}
+			while (i < cs.length && cs[i] != '\t') {
+				i++;
+			}
+			tokens.add(start, i, COMMENT, widths.width(s, start, i, tabWidth));
+		}
+		return tokens;
+	}
+
+	private byte kind(char[] cs, int from, int to) {
+		if (isKeyword(cs, from, to)) {
+			return KEYWORD;
+		}
+		for (int i = from; i < to; i++) {
+			if (!Character.isDigit(cs[i])) {
+				return NORMAL;
+			}
+		}
+		return DIGIT;
+	}
+
+}
@@ -1,15 +1,29 @@
 package neoe.ne;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 
-/** Handles undo/redo history. */
+/**
+ * Handles undo/redo history. The latest groups are kept in memory (at most
+ * MAXSIZE groups, MAXCELLS cells and MAXCHARS chars of text), older ones
+ * are spilled to a {@link HistoryJournal} on disk and read back when undone
+ * to, so the undo depth is not limited.
+ */
 class History {
 	public static int MAXSIZE = 200;
+	public static int MAXCELLS = 20000;
+	public static int MAXCHARS = 1 << 22;
 	List<HistoryCell> atom;
+	/* groups spilled..spilled + data.size() */
 	LinkedList<List<HistoryCell>> data;
 	int p;
+	int spilled;
+	int cells;
+	/* chars of text in the cells of data */
+	long chars;
+	HistoryJournal journal;
 	PlainPage page;
 
 	public History(PlainPage page) {
@@ -17,26 +31,60 @@ class History {
 		p = 0;
 		atom = new ArrayList<HistoryCell>();
 		this.page = page;
+		journal = new HistoryJournal(page);
 	}
 
 	void add(List<HistoryCell> o) {
-		if (p < data.size() && p >= 0) {
-			for (int i = 0; i < data.size() - p; i++) {
-				data.removeLast();
-			}
+		while (p < spilled + data.size()) {
+			List<HistoryCell> redo = data.removeLast();
+			cells -= redo.size();
+			chars -= chars(redo);
 		}
 		List<HistoryCell> last = data.peekLast();
 		// stem.out.println("last=" + last);
 		if (!append(last, o)) {
 			// System.out.println("add:" + o);
 			data.add(o);
-			if (data.size() > MAXSIZE) {
-				data.removeFirst();
-			} else {
-				p += 1;
-			}
+			cells += o.size();
+			chars += chars(o);
+			p += 1;
 		} else {
-			// System.out.println("append:" + o);
+			cells += 1;
+			chars += chars(o);
+		}
+		spill();
+	}
+
+	static long chars(List<HistoryCell> group) {
+		long n = 0;
+		for (HistoryCell cell : group) {
+			if (cell.s1 != null) {
+				n += cell.s1.length();
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Moves the oldest undo groups to disk while over the limits; a single
+	 * group only when its text is over MAXCHARS, e.g. a huge paste.
+	 */
+	void spill() {
+		while ((data.size() > MAXSIZE || cells > MAXCELLS || chars > MAXCHARS)
+				&& (data.size() > 1 || chars > MAXCHARS) && spilled < p) {
+			List<HistoryCell> oldest = data.removeFirst();
+			cells -= oldest.size();
+			chars -= chars(oldest);
+			try {
+				journal.push(oldest);
+				spilled++;
+			} catch (IOException e) {
+				// cannot undo past a lost group, drop the older ones too
+				e.printStackTrace();
+				p -= spilled + 1;
+				spilled = 0;
+				journal.clear();
+			}
 		}
 	}
 
@@ -74,6 +122,16 @@ class History {
 		atom.clear();
 		data.clear();
 		p = 0;
+		spilled = 0;
+		cells = 0;
+		chars = 0;
+		journal.clear();
+	}
+
+	/** Drops the history and deletes its journal, when the page is closed. */
+	public void close() {
+		clear();
+		journal.close();
 	}
 
 	public void endAtom() {
@@ -88,15 +146,27 @@ class History {
 		if (p <= 0) {
 			return null;
 		}
+		if (p == spilled) {
+			try {
+				List<HistoryCell> os = journal.pop();
+				data.addFirst(os);
+				cells += os.size();
+				chars += chars(os);
+				spilled--;
+			} catch (IOException e) {
+				e.printStackTrace();
+				return null;
+			}
+		}
 		p -= 1;
-		// System.out.println("undo:" + data.get(p));
-		return data.get(p);
+		// System.out.println("undo:" + data.get(p - spilled));
+		return data.get(p - spilled);
 	}
 
 	public List<HistoryCell> getRedo() {
-		if (p < data.size()) {
+		if (p < spilled + data.size()) {
 			p += 1;
-			return data.get(p - 1);
+			return data.get(p - 1 - spilled);
 		} else {
 			return null;
 		}
@@ -0,0 +1,176 @@
+package neoe.ne;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stack of undo groups kept in a temp file, one per page. A group is
+ * written as its distinct texts once followed by the cells as varints
+ * (action, positions, text index), so the same text pasted over many
+ * lines is stored once. Groups are pushed oldest-first as the history
+ * grows and popped back on undo. The file is deleted when the page is
+ * closed.
+ */
+class HistoryJournal {
+
+	private static final U.BasicAction[] ACTIONS = U.BasicAction.values();
+
+	private final PlainPage page;
+
+	private RandomAccessFile file;
+
+	private File path;
+
+	/* group i is at offsets[i]..offsets[i + 1] */
+	private long[] offsets = new long[64];
+
+	private int count;
+
+	HistoryJournal(PlainPage page) {
+		this.page = page;
+	}
+
+	int size() {
+		return count;
+	}
+
+	void push(List<HistoryCell> group) throws IOException {
+		if (file == null) {
+			String name = page == null || page.fn == null ? "untitled"
+					: new File(page.fn).getName();
+			path = File.createTempFile("neoe-undo-" + name + "-", ".bin");
+			path.deleteOnExit();
+			file = new RandomAccessFile(path, "rw");
+		}
+		final byte[] bytes = encode(group);
+		if (count + 2 > offsets.length) {
+			offsets = Arrays.copyOf(offsets, offsets.length * 2);
+		}
+		file.seek(offsets[count]);
+		file.write(bytes);
+		offsets[count + 1] = offsets[count] + bytes.length;
+		count++;
+	}
+
+	List<HistoryCell> pop() throws IOException {
+		if (count == 0) {
+			return null;
+		}
+		count--;
+		final byte[] bytes = new byte[(int) (offsets[count + 1] - offsets[count])];
+		file.seek(offsets[count]);
+		file.readFully(bytes);
+		return decode(bytes);
+	}
+
+	void clear() {
+		count = 0;
+		if (file != null) {
+			try {
+				file.setLength(0);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/** Closes and deletes the temp file; a later push makes a new one. */
+	void close() {
+		count = 0;
+		if (file != null) {
+			try {
+				file.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			file = null;
+			path.delete();
+			path = null;
+		}
+	}
+
+	byte[] encode(List<HistoryCell> group) throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final DataOutputStream out = new DataOutputStream(bytes);
+		final Map<String, Integer> texts = new HashMap<String, Integer>();
+		final List<String> table = new ArrayList<String>();
+		for (HistoryCell cell : group) {
+			if (cell.s1 != null && !texts.containsKey(cell.s1)) {
+				texts.put(cell.s1, table.size());
+				table.add(cell.s1);
+			}
+		}
+		writeVarint(out, table.size());
+		for (String s : table) {
+			final byte[] utf8 = s.getBytes("UTF-8");
+			writeVarint(out, utf8.length);
+			out.write(utf8);
+		}
+		writeVarint(out, group.size());
+		for (HistoryCell cell : group) {
+			out.writeByte(cell.action.ordinal());
+			// positions are >= -1
+			writeVarint(out, cell.x1 + 1);
+			writeVarint(out, cell.x2 + 1);
+			writeVarint(out, cell.y1 + 1);
+			writeVarint(out, cell.y2 + 1);
+			writeVarint(out, cell.s1 == null ? 0 : texts.get(cell.s1) + 1);
+		}
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	List<HistoryCell> decode(byte[] bytes) throws IOException {
+		final DataInputStream in = new DataInputStream(
+				new ByteArrayInputStream(bytes));
+		final String[] table = new String[readVarint(in)];
+		for (int i = 0; i < table.length; i++) {
+			final byte[] utf8 = new byte[readVarint(in)];
+			in.readFully(utf8);
+			table[i] = new String(utf8, "UTF-8");
+		}
+		final int n = readVarint(in);
+		final List<HistoryCell> group = new ArrayList<HistoryCell>(n);
+		for (int i = 0; i < n; i++) {
+			final U.BasicAction action = ACTIONS[in.readByte()];
+			final int x1 = readVarint(in) - 1, x2 = readVarint(in) - 1;
+			final int y1 = readVarint(in) - 1, y2 = readVarint(in) - 1;
+			final int s = readVarint(in);
+			final HistoryCell cell = new HistoryCell(action, x1, x2, y1, y2,
+					s == 0 ? null : table[s - 1]);
+			cell.page = page;
+			group.add(cell);
+		}
+		return group;
+	}
+
+	static void writeVarint(DataOutputStream out, int v) throws IOException {
+		while ((v & ~0x7f) != 0) {
+			out.writeByte((v & 0x7f) | 0x80);
+			v >>>= 7;
+		}
+		out.writeByte(v);
+	}
+
+	static int readVarint(DataInputStream in) throws IOException {
+		int v = 0;
+		for (int shift = 0;; shift += 7) {
+			final int b = in.readByte();
+			v |= (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) {
+				return v;
+			}
+		}
+	}
+
+}
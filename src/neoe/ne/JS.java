@@ -14,7 +14,7 @@ import org.mozilla.javascript.NativeArray;
 
 public class JS {
 
-	public static List<StringBuffer> run(List<StringBuffer> lines,
+	public static List<StringBuffer> run(List<? extends CharSequence> lines,
 			String userScript) throws Exception {
 		List<StringBuffer> res = new ArrayList<StringBuffer>();
 		ScriptEngineManager manager = new ScriptEngineManager();
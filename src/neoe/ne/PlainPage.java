@@ -12,10 +12,13 @@ import java.awt.event.MouseWheelEvent;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import javax.swing.JOptionPane;
 
+import neoe.util.MappedText;
+import neoe.util.PieceTable;
 import neoe.util.ReadOnlyStrBuffer;
 
 
@@ -397,7 +400,9 @@ public class PlainPage {
 		}
 
 		void setLines(List<StringBuffer> newLines) {
-			lines = newLines;
+			lines = PieceTable.fromLines(newLines);
+			mapped = null;
+			changes++;
 			history.clear();
 		}
 
@@ -431,10 +436,10 @@ public class PlainPage {
 				ptSelection.cancelSelect();
 			}
 			List<StringBuffer> newtext = new ArrayList<StringBuffer>();
-			for (int y = 0; y < lines.size(); y++) {
-				if (lines.get(y).length() * 2 > lineLen) {
+			for (int y = 0; y < roLines.getLinesize(); y++) {
+				ReadOnlyStrBuffer sb = roLines.getline(y);
+				if (sb.length() * 2 > lineLen) {
 					int len = 0;
-					ReadOnlyStrBuffer sb = roLines.getline(y);
 					int start = 0;
 					for (int i = 0; i < sb.length(); i++) {
 						len += (sb.charAt(i) > 255) ? 2 : 1;
@@ -449,7 +454,7 @@ public class PlainPage {
 						newtext.add(new StringBuffer(sb.substring(start)));
 					}
 				} else {
-					newtext.add(new StringBuffer(lines.get(y)));
+					newtext.add(new StringBuffer(sb.toString()));
 				}
 			}
 			EditPanel ep = new EditPanel("");
@@ -465,19 +470,19 @@ public class PlainPage {
 		class Comment {
 			void markBox(Graphics2D g2, int x, int y) {
 				if (y >= sy && y <= sy + showLineCnt && x >= sx) {
-					ReadOnlyStrBuffer sb = roLines.getline(y);
-					int w1 = x > 0 ? U.strWidth(g2, sb.substring(sx, x),
-							TABWIDTH) : 0;
-					String c = sb.substring(x, x + 1);
-					int w2 = U.strWidth(g2, c, TABWIDTH);
+					String sb = roLines.getline(y).toString();
+					GlyphWidths widths = GlyphWidths.of(g2.getFontMetrics());
+					int w1 = x > 0 ? widths.widthBetween(sb, sx, x, TABWIDTH)
+							: 0;
+					int w2 = widths.widthBetween(sb, x, x + 1, TABWIDTH);
 					g2.setColor(Color.WHITE);
 					g2.drawRect(w1 - 1, (y - sy) * (lineHeight + lineGap) - 4,
 							w2, 16);
 					g2.setColor(colorNormal);
 					g2.drawRect(w1, (y - sy) * (lineHeight + lineGap) - 3, w2,
 							16);
-					g2.drawString(c, w1, lineHeight + (y - sy)
-							* (lineHeight + lineGap));
+					g2.drawString(sb.substring(x, x + 1), w1, lineHeight
+							+ (y - sy) * (lineHeight + lineGap));
 				}
 			}
 
@@ -544,6 +549,7 @@ public class PlainPage {
 		Dimension dim;
 		Font font = new Font("Monospaced", Font.PLAIN, 12);
 		int gutterWidth = 40;
+		Highlighter highlighter = new Highlighter(Arrays.asList(U.kws));
 		int lineGap = 5;
 		int lineHeight = 10;
 
@@ -615,13 +621,15 @@ public class PlainPage {
 				if (x1 > s.length()) {
 					x1 = s.length();
 				}
+				int[] widths = GlyphWidths.of(g2.getFontMetrics())
+						.prefixWidths(s, TABWIDTH);
 				if (x1 == x2) {
-					int w1 = U.strWidth(g2, s.substring(0, x1), TABWIDTH);
+					int w1 = widths[x1];
 					g2.fillRect(w1, scry * (lineHeight + lineGap), 3,
 							lineHeight + lineGap);
 				} else {
-					int w1 = U.strWidth(g2, s.substring(0, x1), TABWIDTH);
-					int w2 = U.strWidth(g2, s.substring(0, x2), TABWIDTH);
+					int w1 = widths[x1];
+					int w2 = widths[x2];
 					g2.fillRect(w1, scry * (lineHeight + lineGap), (w2 - w1),
 							lineHeight + lineGap);
 				}
@@ -629,51 +637,32 @@ public class PlainPage {
 		}
 
 		int drawStringLine(Graphics2D g2, String s, int x, int y) {
+			final Highlighter.LineTokens tokens = highlighter.get(s, comment,
+					g2.getFontMetrics(), TABWIDTH);
+			final char[] cs = tokens.chars;
 			int w = 0;
-			int commentPos = comment == null ? -1 : s.indexOf(comment);
-			if (commentPos >= 0) {
-				String s1 = s.substring(0, commentPos);
-				String s2 = s.substring(commentPos);
-				int w1 = drawText(g2, s1, x, y, false);
-				w = w1 + drawText(g2, s2, x + w1, y, true);
-			} else {
-				w = drawText(g2, s, x, y, false);
-			}
-			return w;
-		}
-
-		int drawText(Graphics2D g2, String s, int x, int y, boolean isComment) {
-			int w = 0;
-			if (isComment) {
-				String[] ws = s.split("\t");
-				int i = 0;
-				for (String s1 : ws) {
-					if (i++ != 0) {
-						g2.drawImage(U.TabImg, x + w, y - lineHeight, null);
-						w += TABWIDTH;
-					}
-					w += U.drawTwoColor(g2, s1, x + w, y, colorComment,
-							colorComment2, 1);
-					if (w > dim.width - gutterWidth) {
-						break;
-					}
+			for (int i = 0; i < tokens.count; i++) {
+				final int start = tokens.starts[i];
+				final int len = tokens.starts[i + 1] - start;
+				switch (tokens.kinds[i]) {
+				case Highlighter.TAB:
+					g2.drawImage(U.TabImg, x + w, y - lineHeight, null);
+					break;
+				case Highlighter.COMMENT:
+					g2.setColor(colorComment2);
+					g2.drawChars(cs, start, len, x + w + 1, y + 1);
+					g2.setColor(colorComment);
+					g2.drawChars(cs, start, len, x + w, y);
+					break;
+				default:
+					g2.setColor(tokens.kinds[i] == Highlighter.KEYWORD ? colorKeyword
+							: tokens.kinds[i] == Highlighter.DIGIT ? colorDigit
+									: colorNormal);
+					g2.drawChars(cs, start, len, x + w, y);
 				}
-			} else {
-				List<String> s1x = U.split(s);
-				for (String s1 : s1x) {
-					if (s1.equals("\t")) {
-						g2.drawImage(U.TabImg, x + w, y - lineHeight, null);
-						w += TABWIDTH;
-					} else {
-						// int highlightid =
-						U.getHighLightID(s1, g2, colorKeyword, colorDigit,
-								colorNormal);
-						g2.drawString(s1, x + w, y);
-						w += g2.getFontMetrics().stringWidth(s1);
-					}
-					if (w > dim.width - gutterWidth) {
-						break;
-					}
+				w += tokens.widths[i];
+				if (w > dim.width - gutterWidth) {
+					break;
 				}
 			}
 			return w;
@@ -707,7 +696,10 @@ public class PlainPage {
 			long MSG_VANISH_TIME = 3000;
 			String s1 = "<F1>:Help, " + (encoding == null ? "-" : encoding)
 					+ (lineSep.equals("\n") ? ", U" : ", W") + ", Line:"
-					+ roLines.getLinesize() + ", X:" + (cx + 1) + ", undo:"
+					+ roLines.getLinesize()
+					+ (mapped == null ? "" : mapped.isIndexed() ? " RO"
+							: "+ RO")
+					+ ", X:" + (cx + 1) + ", undo:"
 					+ history.size() + ", " + (rectSelectMode ? "R, " : "")
 					+ (fn == null ? "-" : fn);
 			g2.setColor(Color.WHITE);
@@ -772,14 +764,15 @@ public class PlainPage {
 				if (cx < sx) {
 					sx = Math.max(0, cx - charCntInLine / 2);
 				} else {
-					if (U.strWidth(g2, U.subs(roLines.getline(cy), sx, cx),
-							TABWIDTH) > size.width - lineHeight * 3) {
+					String line = roLines.getline(cy).toString();
+					GlyphWidths widths = GlyphWidths.of(g2.getFontMetrics());
+					if (widths.widthBetween(line, sx, cx, TABWIDTH) > size.width
+							- lineHeight * 3) {
 						sx = Math.max(0, cx - charCntInLine / 2);
 						int xx = charCntInLine / 4;
 						while (xx > 0
-								&& U.strWidth(g2,
-										U.subs(roLines.getline(cy), sx, cx),
-										TABWIDTH) > size.width - lineHeight * 3) {
+								&& widths.widthBetween(line, sx, cx, TABWIDTH) > size.width
+										- lineHeight * 3) {
 							sx = Math.max(0, cx - xx - 1);
 							xx /= 2; // quick guess
 						}
@@ -803,8 +796,8 @@ public class PlainPage {
 					ReadOnlyStrBuffer sb = roLines.getline(cy);
 					sx = Math.min(sx, sb.length());
 					cx = sx
-							+ U.computeShowIndex(sb.substring(sx), mx, g2,
-									TABWIDTH);
+							+ GlyphWidths.of(g2.getFontMetrics()).indexAt(
+									sb.toString(), sx, mx, TABWIDTH);
 					my = 0;
 					ptSelection.mouseSelection(sb);
 				}
@@ -890,8 +883,8 @@ public class PlainPage {
 				// draw cursor
 				if (cy >= sy && cy <= sy + showLineCnt) {
 					g2.setXORMode(new Color(0x30f0f0));
-					String s = U.subs(roLines.getline(cy), sx, cx);
-					int w = U.strWidth(g2, s, TABWIDTH);
+					int w = GlyphWidths.of(g2.getFontMetrics()).widthBetween(
+							roLines.getline(cy).toString(), sx, cx, TABWIDTH);
 					g2.fillRect(w, (cy - sy) * (lineHeight + lineGap), 2,
 							lineHeight);
 				}
@@ -1062,7 +1055,11 @@ public class PlainPage {
 	History history;
 	boolean ignoreCase = true;
 	boolean isCommentChecked = false;
-	List<StringBuffer> lines;
+	PieceTable lines;
+	/* counts changes of the text */
+	int changes;
+	/* set for large files, which are shown read-only */
+	MappedText mapped;
 	public String lineSep = "\n";
 	int mcount;
 	String msg;
@@ -1234,7 +1231,7 @@ public class PlainPage {
 				} else if (kc == KeyEvent.VK_0) {
 					ui.scalev = 1;
 				} else if (kc == KeyEvent.VK_G) {
-					if (cy < lines.size())
+					if (cy < roLines.getLinesize())
 						U.gotoFileLine(roLines.getline(cy).toString());
 				} else if (kc == KeyEvent.VK_H) {
 					U.openFileHistory();
@@ -24,11 +24,17 @@ class ReadonlyLines {
 	}
 
 	ReadOnlyStrBuffer getline(int i) {
-		return new ReadOnlyStrBuffer(page.lines.get(i));
+		if (page.mapped != null) {
+			return new ReadOnlyStrBuffer(page.mapped.getLine(i));
+		}
+		return new ReadOnlyStrBuffer(page.lines.getLine(i));
 	}
 
 	int getLinesize() {
-		return page.lines.size();
+		if (page.mapped != null) {
+			return page.mapped.getLineCount();
+		}
+		return page.lines.getLineCount();
 	}
 
 	String getTextInRect(Rectangle r) {
@@ -38,7 +38,9 @@ import javax.swing.JPanel;
 import javax.swing.TransferHandler;
 
 import neoe.ne.PlainPage.Paint;
+import neoe.util.EncodingDetector;
 import neoe.util.FileIterator;
+import neoe.util.MappedText;
 import neoe.util.ReadOnlyStrBuffer;
 
 /**
@@ -69,11 +71,11 @@ public class U {
 		}
 
 		ReadOnlyStrBuffer getline(int i) {
-			return new ReadOnlyStrBuffer(page.lines.get(i));
+			return new ReadOnlyStrBuffer(page.lines.getLine(i));
 		}
 
 		int getLinesize() {
-			return page.lines.size();
+			return page.lines.getLineCount();
 		}
 
 		String getTextInRect(Rectangle r) {
@@ -242,6 +244,9 @@ public class U {
 
 	static final String UTF8 = "utf8";
 
+	/** Files larger than this open read-only, see {@link MappedText}. */
+	static long LARGE_FILE = 64 << 20;
+
 	static {
 		try {
 			System.out.println("welcome to " + PlainPage.WINDOW_NAME);
@@ -267,6 +272,7 @@ public class U {
 			saveFileHistory(page.fn, page.cy);
 		}
 		page.ui.closed = true;
+		page.history.close();
 		if (editor.frame != null)
 			editor.frame.dispose();
 	}
@@ -279,26 +285,8 @@ public class U {
 	 * @return
 	 */
 	static int computeShowIndex(String s, int width, Graphics2D g2, int TABWIDTH) {
-		if (s.length() == 0) {
-			return 0;
-		}
-		if (U.strWidth(g2, s, TABWIDTH) <= width) {
-			return s.length();
-		}
-		int i = s.length() / 2;
-		while (true) {
-			if (i == 0) {
-				return 0;
-			}
-			int w = U.strWidth(g2, s.substring(0, i), TABWIDTH);
-			if (w <= width) {
-				return i
-						+ computeShowIndex(s.substring(i), width - w, g2,
-								TABWIDTH);
-			} else {
-				i = i / 2;
-			}
-		}
+		return GlyphWidths.of(g2.getFontMetrics()).indexAt(s, 0, width,
+				TABWIDTH);
 	}
 
 	static void doFindInDir(EditPanel editor, String text, boolean ignoreCase,
@@ -610,15 +598,20 @@ public class U {
 		return s.substring(0, p);
 	}
 
+	/** The whole text; refused for large (mapped) files. */
 	static String getText(PlainPage pp) {
-		StringBuffer sb = new StringBuffer();
-		int len = pp.roLines.getLinesize();
-		for (int i = 0; i < len; i++) {
-			if (i > 0)
-				sb.append(pp.lineSep);
-			sb.append(pp.roLines.getline(i).toString());
+		checkWhole(pp);
+		return pp.lines.getText(pp.lineSep);
+	}
+
+	/**
+	 * Large files are mapped and only read a line at a time: their whole
+	 * text would not fit in memory, and pp.lines is empty.
+	 */
+	static void checkWhole(PlainPage pp) {
+		if (pp.mapped != null) {
+			throw new RuntimeException("large file is read-only");
 		}
-		return sb.toString();
 	}
 
 	static void gotoFileLine(String sb) throws Exception {
@@ -643,7 +636,9 @@ public class U {
 		String[] commentchars = { "#", "%", "'", "//", "!", ";", "--", "/*",
 				"<!--" };
 		int[] cnts = new int[commentchars.length];
-		for (int i = 0; i < page.roLines.getLinesize(); i++) {
+		// the first lines will do for large files
+		int len = Math.min(page.roLines.getLinesize(), 100000);
+		for (int i = 0; i < len; i++) {
 			ReadOnlyStrBuffer sb = page.roLines.getline(i);
 			for (int j = 0; j < cnts.length; j++) {
 				if (sb.toString().trim().startsWith(commentchars[j])) {
@@ -694,43 +689,7 @@ public class U {
 	}
 
 	static String guessEncoding(String fn) throws Exception {
-		// S/ystem.out.println("guessing encoding");
-		String[] encodings = { "sjis", "gbk", UTF8, "unicode", };
-
-		FileInputStream in = new FileInputStream(fn);
-		final int defsize = 4096 * 2;
-		int len = Math.min(defsize, (int) new File(fn).length());
-		try {
-			// S/ystem.out.println("len:" + len);
-			byte[] buf = new byte[len];
-			len = in.read(buf);
-			// S/ystem.out.println("len2:" + len);
-			if (len != defsize) {
-				byte[] b2 = new byte[len];
-				System.arraycopy(buf, 0, b2, 0, len);
-				buf = b2;
-			}
-			for (String enc : encodings) {
-				String s = new String(buf, enc);
-				if (new String(s.getBytes(enc), enc).equals(s)
-						&& s.indexOf("�") < 0) {
-					return enc;
-				}
-				// byte[] b2 = new String(buf, enc).getBytes(enc);
-				// if (b2.length != buf.length) {
-				// continue;
-				// }
-				// int nlen = Math.max(0, len - 1);// for not last complete char
-				// if (Arrays.equals(Arrays.copyOf(buf, nlen), Arrays.copyOf(b2,
-				// nlen))) {
-				// return enc;
-				// }
-			}
-		} finally {
-			in.close();
-		}
-
-		return null;
+		return EncodingDetector.guess(new File(fn));
 	}
 
 	static String guessEncodingForEditor(String fn) {
@@ -846,10 +805,10 @@ public class U {
 			return;
 		}
 		final PlainPage pp = new EditPanel(new File(fn)).page;
-		if (pp != null && pp.lines.size() > 0) {
+		if (pp != null && pp.roLines.getLinesize() > 0) {
 			line -= 1;
 			pp.cx = 0;
-			pp.cy = Math.max(0, Math.min(line, pp.lines.size() - 1));
+			pp.cy = Math.max(0, Math.min(line, pp.roLines.getLinesize() - 1));
 			pp.sy = Math.max(0, pp.cy - 3);
 			pp.uiComp.openWindow();
 			pp.uiComp.repaint();
@@ -859,7 +818,7 @@ public class U {
 	static void openFileHistory() throws Exception {
 		File fhn = getFileHistoryName();
 		PlainPage pp = new EditPanel(fhn).page;
-		pp.cy = Math.max(0, pp.lines.size() - 1);
+		pp.cy = Math.max(0, pp.roLines.getLinesize() - 1);
 		pp.sy = Math.max(0, pp.cy - 5);
 		pp.uiComp.openWindow();
 		pp.uiComp.repaint();
@@ -878,12 +837,28 @@ public class U {
 		}
 	}
 
-	static void readFile(PlainPage page, String fn) {
+	static void readFile(final PlainPage page, String fn) {
 		page.isCommentChecked = false;
 		if (page.encoding == null) {
 			page.encoding = U.guessEncodingForEditor(fn);
 		}
 		page.lineSep = U.guessLineSepForEditor(fn);
+		if (new File(fn).length() > LARGE_FILE
+				&& MappedText.isSupported(page.encoding)) {
+			try {
+				MappedText mapped = new MappedText(new File(fn), page.encoding);
+				page.ptEdit.setLines(new ArrayList<StringBuffer>());
+				page.mapped = mapped;
+				mapped.start(new Runnable() {
+					public void run() {
+						page.uiComp.repaint();
+					}
+				});
+				return;
+			} catch (IOException e) {
+				System.out.println("cannot map " + fn + ": " + e);
+			}
+		}
 		page.ptEdit.setLines(U.readFileForEditor(fn, page.encoding));
 	}
 
@@ -1029,6 +1004,10 @@ public class U {
 	}
 
 	static void runScript(final PlainPage pp) throws Exception {
+		if (pp.mapped != null) {
+			pp.ui.message("large file is read-only");
+			return;
+		}
 		final JFrame sf = new JFrame("Javascript");
 		sf.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
 		JPanel p = new JPanel();
@@ -1051,7 +1030,7 @@ public class U {
 				try {
 					ed.grabFocus();
 					List<StringBuffer> newLines = JS
-							.run(pp.lines, getText(pp1));
+							.run(pp.lines.asList(), getText(pp1));
 					PlainPage pp = new EditPanel("").page;
 					pp.workPath = pp1.workPath;
 					pp.ptEdit.setLines(newLines);
@@ -1079,6 +1058,7 @@ public class U {
 						return;
 					}
 				}
+				pp1.history.close();
 				sf.dispose();
 			}
 		});
@@ -1136,6 +1116,7 @@ public class U {
 						return;
 					}
 				}
+				pp1.history.close();
 				sf.dispose();
 			}
 		});
@@ -1201,16 +1182,18 @@ public class U {
 	}
 
 	static boolean savePageToFile(PlainPage page) throws Exception {
+		if (page.mapped != null) {
+			page.ui.message("large file is read-only");
+			return false;
+		}
 		System.out.println("save " + page.fn);
 		if (page.encoding == null) {
 			page.encoding = UTF8;
 		}
 		BufferedWriter out = new BufferedWriter(new OutputStreamWriter(
 				new FileOutputStream(page.fn), page.encoding));
-		for (int i = 0; i < page.roLines.getLinesize(); i++) {
-			out.write(page.roLines.getline(i).toString());
-			out.write(page.lineSep);
-		}
+		page.lines.writeTo(out, page.lineSep);
+		out.write(page.lineSep);
 		out.close();
 		return true;
 	}
@@ -1399,24 +1382,8 @@ public class U {
 	}
 
 	static int strWidth(Graphics2D g2, String s, int TABWIDTH) {
-		if (s.indexOf("\t") < 0) {
-			return g2.getFontMetrics().stringWidth(s);
-		} else {
-			int w = 0;
-			int p1 = 0;
-			while (true) {
-				int p2 = s.indexOf("\t", p1);
-				if (p2 < 0) {
-					w += g2.getFontMetrics().stringWidth(s.substring(p1));
-					break;
-				} else {
-					w += g2.getFontMetrics().stringWidth(s.substring(p1, p2));
-					w += TABWIDTH;
-					p1 = p2 + 1;
-				}
-			}
-			return w;
-		}
+		return GlyphWidths.of(g2.getFontMetrics()).width(s, 0, s.length(),
+				TABWIDTH);
 	}
 
 	static String subs(ReadOnlyStrBuffer sb, int a, int b) {
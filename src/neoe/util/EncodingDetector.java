@@ -0,0 +1,176 @@
+package neoe.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Guesses the encoding of a file from its first 8 KB in one pass: a BOM
+ * wins, ASCII-only and valid UTF-8 give "utf8", and only other files are
+ * tried (strictly decoded, no re-encoding) as sjis and gbk. Results are
+ * cached per file path, length and modification time.
+ */
+public class EncodingDetector {
+
+	public static final int SAMPLE_SIZE = 4096 * 2;
+
+	public static final String UTF8 = "utf8";
+
+	static final String[] LEGACY = { "sjis", "gbk" };
+
+	static final int CACHE_SIZE = 4096;
+
+	private static final Map<String, Object[]> cache = new LinkedHashMap<String, Object[]>(
+			64, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Object[]> eldest) {
+			return size() > CACHE_SIZE;
+		}
+	};
+
+	/** Gets the encoding of the file, or null if it looks binary. */
+	public static String guess(File file) throws IOException {
+		final String path = file.getAbsolutePath();
+		final long modified = file.lastModified(), length = file.length();
+		synchronized (cache) {
+			final Object[] entry = cache.get(path);
+			if (entry != null && (Long) entry[0] == modified
+					&& (Long) entry[1] == length) {
+				return (String) entry[2];
+			}
+		}
+		final byte[] buf = new byte[(int) Math.min(SAMPLE_SIZE, length)];
+		final InputStream in = new FileInputStream(file);
+		int len = 0;
+		try {
+			for (int n; len < buf.length
+					&& (n = in.read(buf, len, buf.length - len)) > 0;) {
+				len += n;
+			}
+		} finally {
+			in.close();
+		}
+		final String encoding = guess(buf, len, length > len);
+		synchronized (cache) {
+			cache.put(path, new Object[] { modified, length, encoding });
+		}
+		return encoding;
+	}
+
+	/**
+	 * Guesses the encoding of buf[0..len). If truncated, a multi-byte char
+	 * may be cut off at the end.
+	 */
+	public static String guess(byte[] buf, int len, boolean truncated) {
+		if (len >= 3 && (buf[0] & 0xff) == 0xef && (buf[1] & 0xff) == 0xbb
+				&& (buf[2] & 0xff) == 0xbf) {
+			return UTF8;
+		}
+		if (len >= 2 && (buf[0] & 0xff) == 0xfe && (buf[1] & 0xff) == 0xff) {
+			return "UTF-16BE";
+		}
+		if (len >= 2 && (buf[0] & 0xff) == 0xff && (buf[1] & 0xff) == 0xfe) {
+			return "UTF-16LE";
+		}
+		int i = 0;
+		while (i < len && buf[i] > 0) {
+			i++;
+		}
+		if (i < len && buf[i] == 0) {
+			return null; // binary
+		}
+		if (i == len || isUtf8(buf, i, len, truncated)) {
+			return UTF8; // ASCII-only is also fine as utf8
+		}
+		// the legacy decoders take NUL as a char
+		for (int k = i; k < len; k++) {
+			if (buf[k] == 0) {
+				return null; // binary
+			}
+		}
+		for (String enc : LEGACY) {
+			if (decodes(buf, len, enc, truncated)) {
+				return enc;
+			}
+		}
+		return null;
+	}
+
+	/** Validates UTF-8 sequences from the given (non-ASCII) position. */
+	static boolean isUtf8(byte[] buf, int from, int len, boolean truncated) {
+		int i = from;
+		while (i < len) {
+			final int b = buf[i] & 0xff;
+			final int n; // continuation bytes
+			int min; // smallest code point for n, rejects overlong forms
+			if (b < 0x80) {
+				if (b == 0) {
+					return false; // binary
+				}
+				i++;
+				continue;
+			} else if (b >= 0xc2 && b <= 0xdf) {
+				n = 1;
+				min = 0x80;
+			} else if (b >= 0xe0 && b <= 0xef) {
+				n = 2;
+				min = 0x800;
+			} else if (b >= 0xf0 && b <= 0xf4) {
+				n = 3;
+				min = 0x10000;
+			} else {
+				return false;
+			}
+			if (i + n >= len) {
+				// cut off at the end of the sample
+				if (!truncated) {
+					return false;
+				}
+				for (int k = i + 1; k < len; k++) {
+					if ((buf[k] & 0xc0) != 0x80) {
+						return false;
+					}
+				}
+				return true;
+			}
+			int cp = b & (0x3f >> n);
+			for (int k = 1; k <= n; k++) {
+				final int c = buf[i + k] & 0xff;
+				if ((c & 0xc0) != 0x80) {
+					return false;
+				}
+				cp = (cp << 6) | (c & 0x3f);
+			}
+			if (cp < min || cp > 0x10ffff || (cp >= 0xd800 && cp <= 0xdfff)) {
+				return false;
+			}
+			i += n + 1;
+		}
+		return true;
+	}
+
+	private static boolean decodes(byte[] buf, int len, String enc,
+			boolean truncated) {
+		try {
+			Charset.forName(enc).newDecoder()
+					.onMalformedInput(CodingErrorAction.REPORT)
+					.onUnmappableCharacter(CodingErrorAction.REPORT)
+					.decode(ByteBuffer.wrap(buf, 0, truncated ? len - 1 : len));
+			return true;
+		} catch (CharacterCodingException e) {
+			return false;
+		} catch (IllegalArgumentException e) {
+			return false; // unsupported charset
+		}
+	}
+
+}
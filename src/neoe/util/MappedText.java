@@ -0,0 +1,204 @@
+package neoe.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Read-only view of a (possibly multi-GB) file. The file is memory-mapped,
+ * a background thread records the offset of every {@link #STEP}th line, and
+ * a line is only decoded when asked for. Memory use is one long per STEP
+ * lines plus a small cache of decoded lines. Only for encodings where '\n'
+ * is the single byte 10 (see {@link #isSupported(String)}).
+ */
+public class MappedText {
+
+	/** Lines per index entry. */
+	public static final int STEP = 64;
+
+	/** Longest line decoded, in bytes; the rest is cut off. */
+	public static final int MAX_LINE = 1 << 20;
+
+	static final int SEGMENT_SHIFT = 30;
+
+	static final long SEGMENT = 1L << SEGMENT_SHIFT;
+
+	static final int CACHE_SIZE = 512;
+
+	private final File file;
+
+	private final Charset charset;
+
+	private final long size;
+
+	private final MappedByteBuffer[] segments;
+
+	/* offset of line i * STEP */
+	private long[] index = new long[1024];
+
+	private volatile int lineCount;
+
+	private volatile boolean indexed;
+
+	private final Map<Integer, String> cache = new LinkedHashMap<Integer, String>(
+			CACHE_SIZE, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Integer, String> eldest) {
+			return size() > CACHE_SIZE;
+		}
+	};
+
+	public static boolean isSupported(String encoding) {
+		try {
+			return Arrays.equals(new byte[] { '\n' },
+					"\n".getBytes(encoding));
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	public MappedText(File file, String encoding) throws IOException {
+		this.file = file;
+		this.charset = Charset.forName(encoding);
+		final RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			final FileChannel channel = raf.getChannel();
+			size = channel.size();
+			segments = new MappedByteBuffer[(int) ((size + SEGMENT - 1) >>> SEGMENT_SHIFT)];
+			for (int i = 0; i < segments.length; i++) {
+				final long pos = (long) i << SEGMENT_SHIFT;
+				segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, pos,
+						Math.min(SEGMENT, size - pos));
+			}
+		} finally {
+			raf.close(); // mappings stay valid
+		}
+		index[0] = 0;
+		lineCount = size == 0 ? 1 : 0;
+		indexed = size == 0;
+	}
+
+	/**
+	 * Builds the line index in a daemon thread, calling onProgress every
+	 * so often and when done.
+	 */
+	public void start(final Runnable onProgress) {
+		if (indexed) {
+			return;
+		}
+		final Thread thread = new Thread("index " + file.getName()) {
+			@Override
+			public void run() {
+				buildIndex(onProgress);
+			}
+		};
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MIN_PRIORITY);
+		thread.start();
+	}
+
+	void buildIndex(Runnable onProgress) {
+		int lines = 0;
+		long lastProgress = System.currentTimeMillis();
+
+		for (int s = 0; s < segments.length; s++) {
+			final MappedByteBuffer segment = segments[s];
+			final long base = (long) s << SEGMENT_SHIFT;
+			final int limit = segment.limit();
+			for (int i = 0; i < limit; i++) {
+				if (segment.get(i) != '\n') {
+					continue;
+				}
+				lines++;
+				if (lines % STEP == 0) {
+					final int k = lines / STEP;
+					if (k == index.length) {
+						index = Arrays.copyOf(index, k * 2);
+					}
+					index[k] = base + i + 1;
+					lineCount = lines; // publishes the index
+					final long now = System.currentTimeMillis();
+					if (onProgress != null && now - lastProgress > 500) {
+						lastProgress = now;
+						onProgress.run();
+					}
+				}
+			}
+		}
+		// last line without line-break; indexed first, see getLineCount
+		final int count = get(size - 1) == '\n' ? lines : lines + 1;
+		indexed = true;
+		lineCount = count;
+		if (onProgress != null) {
+			onProgress.run();
+		}
+	}
+
+	private byte get(long pos) {
+		return segments[(int) (pos >>> SEGMENT_SHIFT)].get((int) (pos & (SEGMENT - 1)));
+	}
+
+	/**
+	 * Lines that can be read so far: all lines once {@link #isIndexed()},
+	 * before that the lines indexed plus the one after them, whose end the
+	 * index has not reached yet. So it is at least 1.
+	 */
+	public int getLineCount() {
+		final int count = lineCount; // read before indexed
+		return indexed ? count : count + 1;
+	}
+
+	public boolean isIndexed() {
+		return indexed;
+	}
+
+	public long getSize() {
+		return size;
+	}
+
+	/** Decodes the given line, without its line-break. */
+	public String getLine(int line) {
+		final int count = getLineCount();
+		if (line < 0 || line >= count) {
+			throw new IndexOutOfBoundsException("line " + line + " of "
+					+ count);
+		}
+		synchronized (cache) {
+			final String s = cache.get(line);
+			if (s != null) {
+				return s;
+			}
+		}
+		long start = index[line / STEP];
+		for (int n = line % STEP; n > 0; start++) {
+			if (get(start) == '\n') {
+				n--;
+			}
+		}
+		long end = start;
+		while (end < size && get(end) != '\n' && end - start < MAX_LINE) {
+			end++;
+		}
+		if (end > start && get(end - 1) == '\r') {
+			end--;
+		}
+		final byte[] bytes = new byte[(int) (end - start)];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = get(start + i);
+		}
+		final String s = new String(bytes, charset);
+		synchronized (cache) {
+			cache.put(line, s);
+		}
+		return s;
+	}
+
+}
@@ -0,0 +1,378 @@
+package neoe.util;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Piece-table text buffer with a line index. The text is a sequence of
+ * pieces pointing into the original text or into an append-only buffer of
+ * added text; the pieces are kept in a persistent treap that also sums up
+ * their lengths and line-breaks, so inserting, deleting and finding a line
+ * are O(log n). Lines are separated by '\n'. Not thread-safe: the added
+ * text buffer grows in place. There are no snapshots: undo replays the
+ * page's history and saving writes the table out on the editing thread.
+ */
+public class PieceTable {
+
+	/** Append-only text. Chunks are never moved. */
+	static final class AddBuffer {
+		static final int SHIFT = 16;
+		static final int CHUNK = 1 << SHIFT;
+		static final int MASK = CHUNK - 1;
+
+		char[][] chunks = new char[4][];
+		int length;
+		int[] breaks = new int[64];
+		int breakCount;
+
+		int append(CharSequence s) {
+			final int start = length;
+			for (int i = 0; i < s.length(); i++) {
+				final int c = length >>> SHIFT;
+				if (c == chunks.length) {
+					chunks = Arrays.copyOf(chunks, c * 2);
+				}
+				if (chunks[c] == null) {
+					chunks[c] = new char[CHUNK];
+				}
+				final char ch = s.charAt(i);
+				chunks[c][length & MASK] = ch;
+				if (ch == '\n') {
+					if (breakCount == breaks.length) {
+						breaks = Arrays.copyOf(breaks, breakCount * 2);
+					}
+					breaks[breakCount++] = length;
+				}
+				length++;
+			}
+			return start;
+		}
+
+		char charAt(int i) {
+			return chunks[i >>> SHIFT][i & MASK];
+		}
+	}
+
+	/** Immutable treap node: one piece plus totals of its subtree. */
+	static final class Node {
+		final boolean added;
+		final int start, length, breaks, priority;
+		final Node left, right;
+		final int totalLength, totalBreaks;
+
+		Node(boolean added, int start, int length, int breaks, int priority,
+				Node left, Node right) {
+			this.added = added;
+			this.start = start;
+			this.length = length;
+			this.breaks = breaks;
+			this.priority = priority;
+			this.left = left;
+			this.right = right;
+			this.totalLength = length + length(left) + length(right);
+			this.totalBreaks = breaks + breaks(left) + breaks(right);
+		}
+
+		Node with(Node left, Node right) {
+			return new Node(added, start, length, breaks, priority, left,
+					right);
+		}
+	}
+
+	static int length(Node n) {
+		return n == null ? 0 : n.totalLength;
+	}
+
+	static int breaks(Node n) {
+		return n == null ? 0 : n.totalBreaks;
+	}
+
+	private final String original;
+
+	private final int[] originalBreaks;
+
+	private final AddBuffer added;
+
+	private Node root;
+
+	private int seed;
+
+	public PieceTable(CharSequence text) {
+		original = text.toString();
+		int n = 0;
+		for (int i = 0; i < original.length(); i++) {
+			if (original.charAt(i) == '\n') {
+				n++;
+			}
+		}
+		originalBreaks = new int[n];
+		n = 0;
+		for (int i = 0; i < original.length(); i++) {
+			if (original.charAt(i) == '\n') {
+				originalBreaks[n++] = i;
+			}
+		}
+		added = new AddBuffer();
+		seed = original.hashCode() | 1;
+		if (original.length() > 0) {
+			root = new Node(false, 0, original.length(), n, nextPriority(),
+					null, null);
+		}
+	}
+
+	/** Joins the given lines with '\n'. */
+	public static PieceTable fromLines(List<? extends CharSequence> lines) {
+		int size = 0;
+		for (CharSequence line : lines) {
+			size += line.length() + 1;
+		}
+		final StringBuilder sb = new StringBuilder(size);
+		for (int i = 0; i < lines.size(); i++) {
+			if (i > 0) {
+				sb.append('\n');
+			}
+			sb.append(lines.get(i));
+		}
+		return new PieceTable(sb);
+	}
+
+	private int nextPriority() {
+		seed ^= seed << 13;
+		seed ^= seed >>> 17;
+		seed ^= seed << 5;
+		return seed;
+	}
+
+	public int length() {
+		return length(root);
+	}
+
+	public int getLineCount() {
+		return breaks(root) + 1;
+	}
+
+	/** Offset of the first char of the given line. */
+	public int getLineStart(int line) {
+		if (line < 0 || line >= getLineCount()) {
+			throw new IndexOutOfBoundsException("line " + line + " of "
+					+ getLineCount());
+		}
+		if (line == 0) {
+			return 0;
+		}
+		// find the line-th break
+		int k = line, base = 0;
+		Node n = root;
+		while (true) {
+			final int leftBreaks = breaks(n.left);
+			if (k <= leftBreaks) {
+				n = n.left;
+			} else if (k <= leftBreaks + n.breaks) {
+				final int[] bufBreaks = n.added ? added.breaks
+						: originalBreaks;
+				final int count = n.added ? added.breakCount
+						: originalBreaks.length;
+				final int i = lowerBound(bufBreaks, count, n.start) + k
+						- leftBreaks - 1;
+				return base + length(n.left) + bufBreaks[i] - n.start + 1;
+			} else {
+				k -= leftBreaks + n.breaks;
+				base += length(n.left) + n.length;
+				n = n.right;
+			}
+		}
+	}
+
+	public int getLineLength(int line) {
+		final int start = getLineStart(line);
+		final int end = line + 1 < getLineCount() ? getLineStart(line + 1) - 1
+				: length();
+		return end - start;
+	}
+
+	public String getLine(int line) {
+		final int start = getLineStart(line);
+		final int end = line + 1 < getLineCount() ? getLineStart(line + 1) - 1
+				: length();
+		return substring(start, end);
+	}
+
+	public String substring(int from, int to) {
+		if (from < 0 || to > length() || from > to) {
+			throw new IndexOutOfBoundsException(from + "-" + to + " of "
+					+ length());
+		}
+		final StringBuilder sb = new StringBuilder(to - from);
+		append(sb, root, 0, from, to);
+		return sb.toString();
+	}
+
+	private void append(StringBuilder sb, Node n, int base, int from, int to) {
+		if (n == null || base >= to || base + n.totalLength <= from) {
+			return;
+		}
+		append(sb, n.left, base, from, to);
+		final int pieceBase = base + length(n.left);
+		final int a = Math.max(from, pieceBase);
+		final int b = Math.min(to, pieceBase + n.length);
+		if (a < b) {
+			final int offset = n.start - pieceBase;
+			if (n.added) {
+				for (int i = a; i < b; i++) {
+					sb.append(added.charAt(offset + i));
+				}
+			} else {
+				sb.append(original, offset + a, offset + b);
+			}
+		}
+		append(sb, n.right, pieceBase + n.length, from, to);
+	}
+
+	public void insert(int offset, CharSequence s) {
+		if (offset < 0 || offset > length()) {
+			throw new IndexOutOfBoundsException(offset + " of " + length());
+		}
+		if (s.length() == 0) {
+			return;
+		}
+		final int start = added.append(s);
+		final Node piece = new Node(true, start, s.length(), countBreaks(
+				true, start, start + s.length()), nextPriority(), null, null);
+		final Node[] parts = split(root, offset);
+		root = merge(merge(parts[0], piece), parts[1]);
+	}
+
+	public void delete(int offset, int length) {
+		if (offset < 0 || length < 0 || offset + length > length()) {
+			throw new IndexOutOfBoundsException(offset + "+" + length + " of "
+					+ length());
+		}
+		if (length == 0) {
+			return;
+		}
+		final Node[] parts = split(root, offset);
+		root = merge(parts[0], split(parts[1], length)[1]);
+	}
+
+	/** Splits n into the first pos chars and the rest. */
+	private Node[] split(Node n, int pos) {
+		if (n == null) {
+			return new Node[2];
+		}
+		final int leftLength = length(n.left);
+		if (pos <= leftLength) {
+			final Node[] parts = split(n.left, pos);
+			parts[1] = n.with(parts[1], n.right);
+			return parts;
+		}
+		if (pos >= leftLength + n.length) {
+			final Node[] parts = split(n.right, pos - leftLength - n.length);
+			parts[0] = n.with(n.left, parts[0]);
+			return parts;
+		}
+		// split the piece itself; both halves keep its priority
+		final int k = pos - leftLength;
+		final int breaks1 = countBreaks(n.added, n.start, n.start + k);
+		return new Node[] {
+				new Node(n.added, n.start, k, breaks1, n.priority, n.left,
+						null),
+				new Node(n.added, n.start + k, n.length - k, n.breaks
+						- breaks1, n.priority, null, n.right) };
+	}
+
+	private static Node merge(Node a, Node b) {
+		if (a == null) {
+			return b;
+		}
+		if (b == null) {
+			return a;
+		}
+		if (a.priority > b.priority) {
+			return a.with(a.left, merge(a.right, b));
+		}
+		return b.with(merge(a, b.left), b.right);
+	}
+
+	private int countBreaks(boolean inAdded, int from, int to) {
+		final int[] bufBreaks = inAdded ? added.breaks : originalBreaks;
+		final int count = inAdded ? added.breakCount : originalBreaks.length;
+		return lowerBound(bufBreaks, count, to)
+				- lowerBound(bufBreaks, count, from);
+	}
+
+	/** Index of the first value >= key. */
+	private static int lowerBound(int[] values, int count, int key) {
+		int lo = 0, hi = count;
+		while (lo < hi) {
+			final int mid = (lo + hi) >>> 1;
+			if (values[mid] < key) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	/** Gets the whole text with lines separated by lineSep. */
+	public String getText(String lineSep) {
+		final StringBuilder sb = new StringBuilder(length());
+		append(sb, root, 0, 0, length());
+		if ("\n".equals(lineSep)) {
+			return sb.toString();
+		}
+		return sb.toString().replace("\n", lineSep);
+	}
+
+	/** Writes the whole text piece by piece, lines separated by lineSep. */
+	public void writeTo(Writer out, String lineSep) throws IOException {
+		write(out, root, lineSep, new char[8192]);
+	}
+
+	private void write(Writer out, Node n, String lineSep, char[] buf)
+			throws IOException {
+		if (n == null) {
+			return;
+		}
+		write(out, n.left, lineSep, buf);
+		int len = 0;
+		for (int i = n.start; i < n.start + n.length; i++) {
+			final char ch = n.added ? added.charAt(i) : original.charAt(i);
+			if (ch == '\n' || len == buf.length) {
+				out.write(buf, 0, len);
+				len = 0;
+			}
+			if (ch == '\n') {
+				out.write(lineSep);
+			} else {
+				buf[len++] = ch;
+			}
+		}
+		out.write(buf, 0, len);
+		write(out, n.right, lineSep, buf);
+	}
+
+	/** Read-only list view of the lines. */
+	public List<String> asList() {
+		return new AbstractList<String>() {
+			@Override
+			public String get(int index) {
+				return getLine(index);
+			}
+
+			@Override
+			public int size() {
+				return getLineCount();
+			}
+		};
+	}
+
+	@Override
+	public String toString() {
+		return getText("\n");
+	}
+
+}
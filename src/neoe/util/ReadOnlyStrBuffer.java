@@ -5,9 +5,9 @@ package neoe.util;
  */
 public class ReadOnlyStrBuffer {
 
-	private StringBuffer sb;
+	private final CharSequence sb;
 
-	public ReadOnlyStrBuffer(StringBuffer sb) {
+	public ReadOnlyStrBuffer(CharSequence sb) {
 		this.sb = sb;
 	}
 
@@ -20,11 +20,11 @@ public class ReadOnlyStrBuffer {
 	}
 
 	public String substring(int i) {
-		return sb.substring(i);
+		return sb.subSequence(i, sb.length()).toString();
 	}
 
 	public String substring(int a, int b) {
-		return sb.substring(a, b);
+		return sb.subSequence(a, b).toString();
 	}
 
 	public String toString() {
@@ -0,0 +1,138 @@
+package com.adamldavis.z;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.adamldavis.z.ZNode.ZNodeType;
+
+public class EditJournalTest {
+
+	File file, source;
+
+	EditJournal journal;
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("journal", "");
+		source = File.createTempFile("Edited", ".java");
+		journal = new EditJournal(file);
+	}
+
+	@After
+	public void tearDown() {
+		journal.stop();
+		file.delete();
+		source.delete();
+	}
+
+	ZNode method(String name) {
+		return new ZNode(ZNodeType.METHOD, name, "", 3, source);
+	}
+
+	@Test
+	public void testRecordRoundTrip() throws Exception {
+		EditJournal.Edit edit = new EditJournal.Edit(false, ZNodeType.METHOD,
+				source, "a", 7, 4, 1234L, "	void a() {\n		// ü 日本\n	}");
+		EditJournal.Edit decoded = EditJournal.decode(EditJournal.encode(edit));
+
+		assertFalse(decoded.saved);
+		assertEquals(edit.nodeType, decoded.nodeType);
+		assertEquals(edit.file, decoded.file);
+		assertEquals(edit.name, decoded.name);
+		assertEquals(7, decoded.lineNumber);
+		assertEquals(4, decoded.originalSize);
+		assertEquals(1234L, decoded.baseModified);
+		assertEquals(edit.code, decoded.code);
+		assertEquals(edit.key(), decoded.key());
+		assertTrue(EditJournal.decode(EditJournal.encode(new EditJournal.Edit(
+				true, method("b"), ""))).saved);
+	}
+
+	@Test
+	public void testUnsavedAreTheLastEditsNotSaved() throws Exception {
+		ZNode a = method("a"), b = method("b"), c = method("c");
+		journal.start();
+		assertTrue(journal.isRecording());
+		journal.edited(a, "one");
+		journal.edited(b, "two");
+		journal.edited(a, "three");
+		journal.edited(c, "four");
+		journal.saved(b);
+		journal.stop();
+		assertFalse(journal.isRecording());
+
+		List<EditJournal.Edit> unsaved = journal.getUnsaved();
+		assertEquals(2, unsaved.size());
+		// by when last edited
+		assertEquals("a", unsaved.get(0).name);
+		assertEquals("three", unsaved.get(0).code);
+		assertEquals(3, unsaved.get(0).toNode().getLineNumber());
+		assertEquals("c", unsaved.get(1).name);
+		assertEquals("four", unsaved.get(1).code);
+	}
+
+	@Test
+	public void testTornTailIsIgnored() throws Exception {
+		journal.start();
+		journal.edited(method("a"), "one");
+		journal.stop();
+		final long length = file.length();
+
+		// a crash while writing the next record: length, half the record
+		DataOutputStream out = new DataOutputStream(new FileOutputStream(
+				file, true));
+		byte[] record = EditJournal.encode(new EditJournal.Edit(false,
+				method("b"), "two"));
+		out.writeInt(record.length);
+		out.write(record, 0, record.length / 2);
+		out.close();
+		List<EditJournal.Edit> unsaved = journal.getUnsaved();
+		assertEquals(1, unsaved.size());
+		assertEquals("one", unsaved.get(0).code);
+
+		// whole, but not what was meant to be written
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.setLength(length);
+		raf.seek(length);
+		raf.writeInt(record.length);
+		record[record.length - 1] ^= 1;
+		raf.write(record);
+		raf.writeLong(0);
+		raf.close();
+		unsaved = journal.getUnsaved();
+		assertEquals(1, unsaved.size());
+		assertEquals("one", unsaved.get(0).code);
+
+		// a length beyond the file
+		raf = new RandomAccessFile(file, "rw");
+		raf.setLength(length);
+		raf.seek(length);
+		raf.writeInt(Integer.MAX_VALUE);
+		raf.close();
+		assertEquals(1, journal.getUnsaved().size());
+	}
+
+	@Test
+	public void testEmptiedWhenAllSaved() throws Exception {
+		ZNode a = method("a");
+		journal.start();
+		journal.edited(a, "one");
+		journal.saved(a);
+		journal.stop();
+
+		assertEquals(4, file.length());
+		assertEquals(0, journal.getUnsaved().size());
+	}
+
+}
@@ -0,0 +1,121 @@
+package com.adamldavis.z;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.io.File;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.adamldavis.z.ZNode.ZNodeType;
+
+public class TreemapZNodePositionerTest {
+
+	@Test
+	public void testSquarifyFillsBounds() {
+		// example from Bruls, Huizing and van Wijk
+		double[] areas = { 6, 6, 4, 3, 2, 2, 1 };
+		Rectangle2D bounds = new Rectangle2D.Double(0, 0, 6, 4);
+		Rectangle2D.Double[] cells = TreemapZNodePositioner.squarify(areas,
+				bounds);
+		double total = 0;
+
+		for (int i = 0; i < cells.length; i++) {
+			assertEquals(areas[i], cells[i].width * cells[i].height, 1e-9);
+			assertTrue(bounds.contains(cells[i].getCenterX(),
+					cells[i].getCenterY()));
+			total += cells[i].width * cells[i].height;
+		}
+		assertEquals(24, total, 1e-9);
+		// first row is the two 6's stacked on the left
+		assertEquals(3, cells[0].width, 1e-9);
+		assertEquals(3, cells[1].width, 1e-9);
+	}
+
+	static ZNode node(ZNodeType type, String name, int lines, ZNode parent) {
+		StringBuilder code = new StringBuilder();
+		for (int i = 0; i < lines; i++) {
+			code.append("line").append(i).append('\n');
+		}
+		ZNode node = new ZNode(type, name, code.toString(), "java", new File(
+				"."));
+		if (parent != null) {
+			parent.getSubmodules().add(node);
+		}
+		return node;
+	}
+
+	/* checks the cells of the node's sub-modules fill the area by weight */
+	static void assertFills(TreemapZNodePositioner treemap, ZNode node,
+			Map<ZNode, Point2D> map, Rectangle2D area) {
+		double total = 0, weights = 0;
+		for (ZNode sub : node.getSubmodules()) {
+			weights += TreemapZNodePositioner.weight(sub);
+		}
+		for (ZNode sub : node.getSubmodules()) {
+			double[] size = treemap.getCellSize(sub);
+			Point2D p = map.get(sub);
+			assertTrue(area.contains(p));
+			assertTrue(p.getX() - size[0] / 2 >= area.getMinX() - 1e-6);
+			assertTrue(p.getX() + size[0] / 2 <= area.getMaxX() + 1e-6);
+			assertEquals(TreemapZNodePositioner.weight(sub) / weights, size[0]
+					* size[1] / (area.getWidth() * area.getHeight()), 1e-9);
+			total += size[0] * size[1];
+		}
+		assertEquals(area.getWidth() * area.getHeight(), total, 1e-9);
+	}
+
+	@Test
+	public void testSelectedLeavesRoomForItselfAndDependencies() {
+		ZNode selected = node(ZNodeType.PACKAGE, "p", 0, null);
+		ZNode a = node(ZNodeType.CLASS, "A", 30, selected);
+		node(ZNodeType.CLASS, "B", 10, selected);
+		node(ZNodeType.CLASS, "C", 5, selected);
+		ZNode dep = node(ZNodeType.DEPENDENCY, "d", 0, null);
+		selected.getDependencies().add(dep);
+		TreemapZNodePositioner treemap = new TreemapZNodePositioner(selected);
+
+		Map<ZNode, Point2D> map = treemap.getNewPositions(selected);
+		assertEquals(new Point2D.Float(0, 0), map.get(selected));
+		assertEquals(-0.85, map.get(dep).getX(), 1e-6);
+		assertEquals(0, map.get(dep).getY(), 1e-6);
+		assertFills(treemap, selected, map, TreemapZNodePositioner.AREA);
+		for (ZNode sub : selected.getSubmodules()) {
+			assertTrue(map.get(sub).getX() > TreemapZNodePositioner.PARENT);
+		}
+		// the heaviest is first, on the left
+		assertEquals(TreemapZNodePositioner.PARENT + treemap.getCellSize(a)[0]
+				/ 2, map.get(a).getX(), 1e-6);
+	}
+
+	@Test
+	public void testNestedFillTheirNode() {
+		ZNode selected = node(ZNodeType.MODULE, "m", 0, null);
+		ZNode pack = node(ZNodeType.PACKAGE, "p", 0, selected);
+		node(ZNodeType.PACKAGE, "q", 0, selected);
+		ZNode a = node(ZNodeType.CLASS, "A", 8, pack);
+		node(ZNodeType.CLASS, "B", 4, pack);
+		node(ZNodeType.CLASS, "C", 4, pack);
+		pack.getDependencies().add(node(ZNodeType.DEPENDENCY, "d", 0, null));
+		TreemapZNodePositioner treemap = new TreemapZNodePositioner(selected);
+
+		Map<ZNode, Point2D> map = treemap.getNewPositions(pack);
+		assertFills(treemap, pack, map, TreemapZNodePositioner.NESTED);
+		// no room kept for the node or its dependencies
+		assertEquals(pack.getSubmodules().size() + 1, map.size());
+		assertEquals(-0.5, map.get(a).getX(), 1e-6);
+		assertEquals(1, treemap.getCellSize(a)[0], 1e-6);
+		assertEquals(2, treemap.getCellSize(a)[1], 1e-6);
+
+		// weighed by their sub-modules, the empty one by its lines
+		map = treemap.getNewPositions(selected);
+		assertFills(treemap, selected, map, TreemapZNodePositioner.AREA);
+		assertEquals(3.0 / 4, treemap.getCellSize(pack)[1] / 2, 1e-6);
+		assertFalse(map.containsKey(a));
+	}
+
+}
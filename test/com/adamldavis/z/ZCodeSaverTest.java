@@ -0,0 +1,110 @@
+package com.adamldavis.z;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.adamldavis.z.ZNode.ZNodeType;
+
+public class ZCodeSaverTest {
+
+	File file;
+
+	ZNode clazz, a, b, c;
+
+	ZCodeSaver saver = new ZCodeSaver(null, null, null);
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("Saved", ".java");
+		FileUtils.writeLines(file, "UTF-8", asList("class A {", "",
+				"	void a() {", "		one();", "	}", "", "	void b() {",
+				"		two();", "	}", "", "	void c() {", "		three();", "	}",
+				"}"));
+		clazz = new ZNode(ZNodeType.CLASS, "A", "", "java",
+				file.getParentFile());
+		a = method("a", "	void a() {\n		one();\n	}", 2);
+		b = method("b", "	void b() {\n		two();\n	}", 6);
+		c = method("c", "	void c() {\n		three();\n	}", 10);
+	}
+
+	ZNode method(String name, String code, int lineNumber) {
+		ZNode method = new ZNode(ZNodeType.METHOD, name, code, lineNumber, file);
+		method.setParentNode(clazz);
+		clazz.getSubmodules().add(method);
+		return method;
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+	}
+
+	@Test
+	public void testSplicesMethodsInOnePass() throws Exception {
+		ZCodeSaver.Transaction transaction = saver.begin(file);
+		transaction.add(new ZCodeSaver.MethodSave(a,
+				"	void a() {\n		one();\n		uno();\n		eins();\n	}"));
+		transaction.add(new ZCodeSaver.MethodSave(c, "	void c() {}"));
+		transaction.commit();
+
+		List<String> lines = FileUtils.readLines(file, "UTF-8");
+		assertEquals(asList("class A {", "", "	void a() {", "		one();",
+				"		uno();", "		eins();", "	}", "", "	void b() {",
+				"		two();", "	}", "", "	void c() {}", "}"), lines);
+		assertEquals(2, a.getLineNumber());
+		assertEquals(8, b.getLineNumber());
+		assertEquals(12, c.getLineNumber());
+		assertEquals(5, a.getOriginalSize());
+		assertEquals(3, b.getOriginalSize());
+		assertEquals(1, c.getOriginalSize());
+		assertEquals("	void c() {}", c.getCodeLines().get(0));
+
+		// saving again starts from the new line numbers
+		transaction = saver.begin(file);
+		transaction.add(new ZCodeSaver.MethodSave(b, "	void b() {\n	}"));
+		transaction.commit();
+		lines = FileUtils.readLines(file, "UTF-8");
+		assertEquals(asList("	void b() {", "	}", "", "	void c() {}", "}"),
+				lines.subList(8, lines.size()));
+		assertEquals(11, c.getLineNumber());
+	}
+
+	@Test
+	public void testWriteLeavesNodesAlone() throws Exception {
+		ZCodeSaver.Transaction transaction = saver.begin(file);
+		transaction.add(new ZCodeSaver.MethodSave(a, "	void a() {}"));
+		ZCodeSaver.Written written = transaction.write();
+
+		assertEquals(6, b.getLineNumber());
+		assertEquals(3, a.getCodeLineSize());
+		assertEquals(asList(a), written.getMethods());
+		assertEquals(4, written.getPositions().get(b)[0]);
+		assertEquals(1, written.getPositions().get(a)[1]);
+
+		// a later save taken before apply uses the written positions
+		transaction = saver.begin(file);
+		transaction.add(new ZCodeSaver.MethodSave(c, "	void c() {}"));
+		transaction.setPositions(written.getPositions());
+		transaction.write().apply();
+		written.apply();
+		assertEquals(asList("class A {", "", "	void a() {}", "",
+				"	void b() {", "		two();", "	}", "", "	void c() {}", "}"),
+				FileUtils.readLines(file, "UTF-8"));
+		assertEquals(8, c.getLineNumber());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRejectsOtherFiles() {
+		saver.begin(file).add(
+				new ZNode(ZNodeType.METHOD, "d", "", 0, new File("Other.java")));
+	}
+
+}
@@ -0,0 +1,229 @@
+package com.adamldavis.z.java;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.adamldavis.z.java.DependencyResolver.Resolved;
+
+public class DependencyResolverTest {
+
+	File root;
+
+	DependencyResolver resolver;
+
+	@Before
+	public void setUp() throws Exception {
+		root = File.createTempFile("repo", "");
+		root.delete();
+		root.mkdirs();
+		resolver = new DependencyResolver(new LocalRepository(root, new File(
+				root, LocalRepository.FILENAME)));
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		FileUtils.deleteDirectory(root);
+	}
+
+	/** Writes g:a:v's pom with the given dependency elements. */
+	File pom(String gav, String... dependencies) throws Exception {
+		String[] parts = gav.split(":");
+		File dir = new File(root, parts[0].replace('.', '/') + "/" + parts[1]
+				+ "/" + parts[2]);
+		dir.mkdirs();
+		StringBuilder xml = new StringBuilder("<project><groupId>")
+				.append(parts[0]).append("</groupId><artifactId>")
+				.append(parts[1]).append("</artifactId><version>")
+				.append(parts[2]).append("</version><dependencies>");
+		for (String dependency : dependencies) {
+			xml.append(dependency);
+		}
+		xml.append("</dependencies></project>");
+		File pom = new File(dir, parts[1] + "-" + parts[2] + ".pom");
+		FileUtils.writeStringToFile(pom, xml.toString(), "UTF-8");
+		return pom;
+	}
+
+	static String dep(String gav) {
+		return dep(gav, "");
+	}
+
+	/** A dependency element of g:a:v with more elements in it. */
+	static String dep(String gav, String more) {
+		String[] parts = gav.split(":");
+		return "<dependency><groupId>" + parts[0] + "</groupId><artifactId>"
+				+ parts[1] + "</artifactId><version>" + parts[2]
+				+ "</version>" + more + "</dependency>";
+	}
+
+	static List<String> names(List<Resolved> list) {
+		List<String> names = new ArrayList<String>();
+		for (Resolved resolved : list) {
+			names.add(resolved.toString());
+		}
+		return names;
+	}
+
+	static Resolved find(List<Resolved> list, String artifactId) {
+		for (Resolved resolved : list) {
+			if (resolved.artifactId.equals(artifactId)) {
+				return resolved;
+			}
+		}
+		return null;
+	}
+
+	@Test
+	public void testNearestWins() throws Exception {
+		pom("g:a:1", dep("g:c:1"));
+		pom("g:b:1", dep("g:d:1"));
+		pom("g:d:1", dep("g:c:2"));
+		pom("g:c:1");
+		pom("g:c:2", dep("g:e:1"));
+		pom("g:e:1");
+		File module = pom("g:m:1", dep("g:b:1"), dep("g:a:1"));
+
+		List<Resolved> list = resolver.resolve(module);
+		assertEquals("[g:b:1:compile, g:a:1:compile, g:d:1:compile, "
+				+ "g:c:1:compile]", names(list).toString());
+		Resolved c = find(list, "c");
+		assertEquals(2, c.depth);
+		assertEquals("a", c.parent.artifactId);
+		// what only the losing version brought in is gone too
+		assertNull(find(list, "e"));
+	}
+
+	@Test
+	public void testFirstDeclaredWinsAtSameDepth() throws Exception {
+		pom("g:a:1", dep("g:c:1"));
+		pom("g:b:1", dep("g:c:2"));
+		pom("g:c:1");
+		pom("g:c:2");
+
+		assertEquals("1",
+				find(resolver.resolve(pom("g:m:1", dep("g:a:1"), dep("g:b:1"))),
+						"c").version);
+		assertEquals("2",
+				find(resolver.resolve(pom("g:n:1", dep("g:b:1"), dep("g:a:1"))),
+						"c").version);
+	}
+
+	@Test
+	public void testExclusions() throws Exception {
+		pom("g:a:1", dep("g:c:1"), dep("g:d:1"));
+		pom("g:c:1", dep("g:e:1"));
+		pom("g:d:1", dep("g:e:1"));
+		pom("g:e:1");
+		File module = pom("g:m:1", dep("g:a:1", "<exclusions><exclusion>"
+				+ "<groupId>g</groupId><artifactId>c</artifactId>"
+				+ "</exclusion></exclusions>"));
+
+		List<Resolved> list = resolver.resolve(module);
+		assertNull(find(list, "c"));
+		assertEquals("d", find(list, "e").parent.artifactId);
+
+		// exclusions apply to everything below the excluding dependency
+		File all = pom("g:n:1", dep("g:a:1", "<exclusions><exclusion>"
+				+ "<groupId>g</groupId><artifactId>e</artifactId>"
+				+ "</exclusion></exclusions>"));
+		assertEquals("[g:a:1:compile, g:c:1:compile, g:d:1:compile]",
+				names(resolver.resolve(all)).toString());
+	}
+
+	@Test
+	public void testScopeNarrowing() throws Exception {
+		pom("g:t:1", dep("g:x:1"), dep("g:p:1", "<scope>provided</scope>"));
+		pom("g:r:1", dep("g:y:1"), dep("g:o:1", "<optional>true</optional>"));
+		pom("g:x:1");
+		pom("g:y:1", dep("g:z:1", "<scope>runtime</scope>"));
+		pom("g:z:1");
+		pom("g:p:1");
+		pom("g:o:1");
+		File module = pom("g:m:1", dep("g:t:1", "<scope>test</scope>"),
+				dep("g:r:1", "<scope>runtime</scope>"));
+
+		List<Resolved> list = resolver.resolve(module);
+		assertEquals("test", find(list, "x").scope);
+		assertEquals("runtime", find(list, "y").scope);
+		assertEquals("runtime", find(list, "z").scope);
+		// provided and optional dependencies of dependencies are left out
+		assertNull(find(list, "p"));
+		assertNull(find(list, "o"));
+	}
+
+	@Test
+	public void testNarrow() {
+		assertEquals("runtime", DependencyResolver.narrow("compile", "runtime"));
+		assertEquals("runtime", DependencyResolver.narrow("runtime", "compile"));
+		assertEquals("test", DependencyResolver.narrow("test", "runtime"));
+		assertEquals("provided", DependencyResolver.narrow("provided", "compile"));
+		assertEquals("system", DependencyResolver.narrow("test", "system"));
+	}
+
+	@Test
+	public void testMemoizedGraphIsReused() throws Exception {
+		pom("g:a:1", dep("g:c:1"));
+		pom("g:c:1");
+
+		List<Resolved> graph = resolver.resolve("g", "a", "1");
+		assertTrue(graph == resolver.resolve("g", "a", "1"));
+		assertEquals("[g:c:1:compile]", names(graph).toString());
+		assertEquals(0, resolver.resolve("g", "missing", "1").size());
+	}
+
+	@Test
+	public void testChildPropertiesApplyToInherited() throws Exception {
+		FileUtils.writeStringToFile(pom("g:p:1"), "<project><groupId>g"
+				+ "</groupId><artifactId>p</artifactId><version>1</version>"
+				+ "<properties><x.version>1</x.version></properties>"
+				+ "<dependencyManagement><dependencies>"
+				+ "<dependency><groupId>g</groupId><artifactId>c</artifactId>"
+				+ "<version>${x.version}</version></dependency>"
+				+ "</dependencies></dependencyManagement><dependencies>"
+				+ "<dependency><groupId>g</groupId><artifactId>d</artifactId>"
+				+ "<version>${x.version}</version></dependency>"
+				+ "<dependency><groupId>g</groupId><artifactId>c</artifactId>"
+				+ "</dependency></dependencies></project>", "UTF-8");
+		pom("g:c:2");
+		pom("g:d:2");
+		File module = pom("g:m:1");
+		FileUtils.writeStringToFile(module, "<project><parent><groupId>g"
+				+ "</groupId><artifactId>p</artifactId><version>1</version>"
+				+ "</parent><artifactId>m</artifactId><properties>"
+				+ "<x.version>2</x.version></properties></project>", "UTF-8");
+
+		assertEquals("[g:d:2:compile, g:c:2:compile]",
+				names(resolver.resolve(module)).toString());
+		// the parent itself keeps its own
+		assertEquals("[g:d:1:compile, g:c:1:compile]",
+				names(resolver.resolve("g", "p", "1")).toString());
+	}
+
+	@Test
+	public void testMalformedPomIsMissing() throws Exception {
+		pom("g:a:1", dep("g:c:1"));
+		FileUtils.writeStringToFile(pom("g:c:1"), "<project><dependencies>",
+				"UTF-8");
+		File module = pom("g:m:1", dep("g:a:1"));
+
+		List<Resolved> list = resolver.resolve(module);
+		assertEquals("[g:a:1:compile, g:c:1:compile]", names(list).toString());
+		assertTrue(find(list, "c").missing);
+		assertEquals(0, resolver.resolve("g", "c", "1").size());
+
+		File broken = pom("g:n:1");
+		FileUtils.writeStringToFile(broken, "<project>", "UTF-8");
+		assertEquals(0, resolver.resolve(broken).size());
+	}
+
+}
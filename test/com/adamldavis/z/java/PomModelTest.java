@@ -0,0 +1,129 @@
+package com.adamldavis.z.java;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.util.LinkedList;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.Text;
+
+public class PomModelTest {
+
+	static final String POM = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+			+ "<project xmlns=\"http://maven.apache.org/POM/4.0.0\">\n"
+			+ "  <!-- the model -->\n"
+			+ "  <modelVersion>4.0.0</modelVersion>\n"
+			+ "  <groupId>com.example</groupId>\n"
+			+ "  <artifactId>demo</artifactId>\n"
+			+ "  <version>1.0-SNAPSHOT</version>\n"
+			+ "  <name>Demo &amp; more</name>\n"
+			+ "  <description><![CDATA[a <b>cdata</b> text]]></description>\n"
+			+ "  <url>http://example.com/<!-- mixed -->demo</url>\n"
+			+ "  <packaging></packaging>\n"
+			+ "  <inceptionYear/>\n"
+			+ "  <properties>\n"
+			+ "    <java.version>1.6</java.version>\n"
+			+ "    <empty>   </empty>\n"
+			+ "  </properties>\n"
+			+ "  <build>\n"
+			+ "    <plugins>\n"
+			+ "      <plugin>\n"
+			+ "        <artifactId>maven-compiler-plugin</artifactId>\n"
+			+ "        <configuration><source>1.6</source><target>1.6</target></configuration>\n"
+			+ "        <dependencies><dependency><artifactId>x</artifactId></dependency></dependencies>\n"
+			+ "      </plugin>\n"
+			+ "    </plugins>\n"
+			+ "  </build>\n"
+			+ "  <dependencies>\n"
+			+ "    <dependency>\n"
+			+ "      <groupId>junit</groupId>\n"
+			+ "      <artifactId>junit</artifactId>\n"
+			+ "      <version>4.10</version>\n"
+			+ "      <scope>test</scope>\n"
+			+ "      <exclusions><exclusion><groupId>org.hamcrest</groupId></exclusion></exclusions>\n"
+			+ "    </dependency>\n"
+			+ "    <dependency><groupId>a</groupId><artifactId>b</artifactId></dependency>\n"
+			+ "  </dependencies>\n" + "</project>\n";
+
+	/* how MavenDependencyManager flattened the DOM before PomModel */
+	static CharSequence domFlatten(Node dep, List<String> nest) {
+		final StringBuilder builder = new StringBuilder();
+
+		for (Node child = dep.getFirstChild(); child != null; child = child
+				.getNextSibling()) {
+			if (child instanceof Element) {
+				if (PomModel.DEPENDENCIES.equals(child.getNodeName())) {
+					// skip
+				} else if (child.getChildNodes().getLength() == 1
+						&& child.getFirstChild() instanceof Text) {
+					for (String nestName : nest) {
+						builder.append(nestName).append('.');
+					}
+					builder.append(child.getNodeName()).append(": ")
+							.append(child.getTextContent()).append('\n');
+				} else {
+					List<String> list = new LinkedList<String>(nest);
+					list.add(child.getNodeName());
+					builder.append(domFlatten(child, list));
+				}
+			}
+		}
+		return builder;
+	}
+
+	static Document dom(String xml) throws Exception {
+		return DocumentBuilderFactory.newInstance().newDocumentBuilder()
+				.parse(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+	}
+
+	static PomModel.Element model(String xml) throws Exception {
+		return PomModel.parse(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+	}
+
+	@Test
+	public void testFlattenMatchesDom() throws Exception {
+		String expected = domFlatten(dom(POM).getDocumentElement(),
+				new LinkedList<String>()).toString();
+		String actual = PomModel.flatten(model(POM), new LinkedList<String>())
+				.toString();
+
+		assertEquals(expected, actual);
+		assertEquals("modelVersion: 4.0.0\n", actual.substring(0, 20));
+	}
+
+	@Test
+	public void testFlattenDependenciesMatchesDom() throws Exception {
+		Element deps = (Element) dom(POM).getDocumentElement()
+				.getElementsByTagName(PomModel.DEPENDENCIES).item(1);
+		List<Element> domDeps = new LinkedList<Element>();
+		for (Node n = deps.getFirstChild(); n != null; n = n.getNextSibling()) {
+			if (n instanceof Element) {
+				domDeps.add((Element) n);
+			}
+		}
+		List<PomModel.Element> modelDeps = model(POM).getChild(
+				PomModel.DEPENDENCIES).getChildren(
+				MavenDependencyManager.DEPENDENCY);
+
+		assertEquals(domDeps.size(), modelDeps.size());
+		for (int i = 0; i < domDeps.size(); i++) {
+			assertEquals(
+					domFlatten(domDeps.get(i), new LinkedList<String>())
+							.toString(),
+					PomModel.flatten(modelDeps.get(i), new LinkedList<String>())
+							.toString());
+		}
+		assertEquals("groupId: junit\nartifactId: junit\nversion: 4.10\n"
+				+ "scope: test\nexclusions.exclusion.groupId: org.hamcrest\n",
+				PomModel.flatten(modelDeps.get(0), new LinkedList<String>())
+						.toString());
+	}
+
+}
@@ -0,0 +1,77 @@
+package neoe.ne;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class HistoryJournalTest {
+
+	@Test
+	public void testVarint() throws Exception {
+		int[] values = { 0, 1, 127, 128, 300, 16383, 16384, Integer.MAX_VALUE,
+				-1 };
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		for (int v : values) {
+			HistoryJournal.writeVarint(out, v);
+		}
+		// small values take one byte
+		assertEquals(1, varintSize(0));
+		assertEquals(1, varintSize(127));
+		assertEquals(2, varintSize(128));
+		assertEquals(5, varintSize(-1));
+
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+				bytes.toByteArray()));
+		for (int v : values) {
+			assertEquals(v, HistoryJournal.readVarint(in));
+		}
+		assertEquals(0, in.available());
+	}
+
+	static int varintSize(int v) throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		HistoryJournal.writeVarint(new DataOutputStream(bytes), v);
+		return bytes.size();
+	}
+
+	@Test
+	public void testRecordRoundTrip() throws Exception {
+		HistoryJournal journal = new HistoryJournal(null);
+		List<HistoryCell> group = new ArrayList<HistoryCell>();
+		group.add(new HistoryCell(U.BasicAction.Insert, 0, 5, 3, -1, "hello"));
+		group.add(new HistoryCell(U.BasicAction.Delete, 2, 3, 10, -1, "l"));
+		group.add(new HistoryCell(U.BasicAction.MergeLine, -1, -1, 7, 8, null));
+		group.add(new HistoryCell(U.BasicAction.Insert, 0, 5, 4, -1, "hello"));
+		group.add(new HistoryCell(U.BasicAction.InsertEmptyLine, 0, -1, 200,
+				-1, "日本 ü"));
+
+		byte[] bytes = journal.encode(group);
+		List<HistoryCell> decoded = journal.decode(bytes);
+
+		assertEquals(group.size(), decoded.size());
+		for (int i = 0; i < group.size(); i++) {
+			HistoryCell a = group.get(i), b = decoded.get(i);
+			assertEquals(a.action, b.action);
+			assertEquals(a.x1, b.x1);
+			assertEquals(a.x2, b.x2);
+			assertEquals(a.y1, b.y1);
+			assertEquals(a.y2, b.y2);
+			assertEquals(a.s1, b.s1);
+		}
+		assertNull(decoded.get(2).s1);
+		// the repeated text is stored once
+		assertEquals(decoded.get(0).s1, decoded.get(3).s1);
+		group.remove(3);
+		assertEquals(bytes.length - 6, journal.encode(group).length);
+	}
+
+}
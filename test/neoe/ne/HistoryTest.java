@@ -0,0 +1,167 @@
+package neoe.ne;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HistoryTest {
+
+	int maxSize, maxCells, maxChars;
+
+	History history;
+
+	@Before
+	public void setUp() {
+		maxSize = History.MAXSIZE;
+		maxCells = History.MAXCELLS;
+		maxChars = History.MAXCHARS;
+		history = new History(null);
+	}
+
+	@After
+	public void tearDown() {
+		History.MAXSIZE = maxSize;
+		History.MAXCELLS = maxCells;
+		History.MAXCHARS = maxChars;
+		history.close();
+	}
+
+	/* a group of cells that are never appended to the one before */
+	static List<HistoryCell> group(int y, int size, String text) {
+		List<HistoryCell> group = new ArrayList<HistoryCell>();
+		for (int i = 0; i < size; i++) {
+			group.add(new HistoryCell(U.BasicAction.InsertEmptyLine, -1, -1,
+					y, -1, text));
+		}
+		return group;
+	}
+
+	static int y(List<HistoryCell> group) {
+		return group.get(0).y1;
+	}
+
+	/* checks cells and chars match the groups in memory */
+	void assertCounts() {
+		int cells = 0;
+		long chars = 0;
+		for (List<HistoryCell> group : history.data) {
+			cells += group.size();
+			chars += History.chars(group);
+		}
+		assertEquals(cells, history.cells);
+		assertEquals(chars, history.chars);
+		assertEquals(history.spilled, history.journal.size());
+	}
+
+	@Test
+	public void testUndoRedoAcrossSpills() {
+		History.MAXSIZE = 3;
+		for (int i = 0; i < 10; i++) {
+			history.add(group(i, 1, null));
+			assertCounts();
+		}
+		assertEquals(10, history.size());
+		assertEquals(7, history.spilled);
+		assertEquals(3, history.data.size());
+
+		// undo all the way, reading the spilled groups back
+		for (int i = 9; i >= 0; i--) {
+			assertEquals(i, y(history.get()));
+			assertEquals(i, history.size());
+			assertCounts();
+		}
+		assertNull(history.get());
+		assertEquals(0, history.spilled);
+		assertEquals(10, history.data.size());
+
+		for (int i = 0; i < 3; i++) {
+			assertEquals(i, y(history.getRedo()));
+		}
+		assertEquals(3, history.size());
+
+		// adding drops what could be redone, then spills again
+		history.add(group(100, 1, null));
+		assertCounts();
+		assertNull(history.getRedo());
+		assertEquals(4, history.size());
+		assertEquals(1, history.spilled);
+		assertEquals(3, history.data.size());
+		assertEquals(100, y(history.get()));
+		assertEquals(2, y(history.get()));
+		assertEquals(1, y(history.get()));
+		assertEquals(0, y(history.get()));
+		assertNull(history.get());
+		assertEquals(0, history.spilled);
+	}
+
+	@Test
+	public void testSpillsByCells() {
+		History.MAXCELLS = 5;
+		for (int i = 0; i < 6; i++) {
+			history.addOne(new HistoryCell(U.BasicAction.InsertEmptyLine, -1,
+					-1, i, -1, null));
+			history.addOne(new HistoryCell(U.BasicAction.InsertEmptyLine, -1,
+					-1, i, -1, null));
+			history.endAtom();
+			assertCounts();
+		}
+		assertEquals(4, history.cells);
+		assertEquals(4, history.spilled);
+		assertEquals(5, y(history.get()));
+		assertEquals(4, y(history.get()));
+		assertEquals(3, y(history.get()));
+		assertEquals(2, history.get().size());
+		assertCounts();
+	}
+
+	@Test
+	public void testSpillsOneHugeGroup() {
+		History.MAXCHARS = 10;
+		history.add(group(0, 1, "short"));
+		assertEquals(0, history.spilled);
+		history.add(group(1, 3, "longer than ten"));
+		// both are spilled, the last one too as it is over MAXCHARS alone
+		assertEquals(2, history.spilled);
+		assertEquals(0, history.data.size());
+		assertCounts();
+
+		List<HistoryCell> group = history.get();
+		assertEquals(1, y(group));
+		assertEquals("longer than ten", group.get(2).s1);
+		assertEquals(0, y(history.get()));
+		assertNull(history.get());
+		assertCounts();
+	}
+
+	@Test
+	public void testLostSpillDropsOlderGroups() {
+		History.MAXSIZE = 2;
+		history.journal = new HistoryJournal(null) {
+			@Override
+			void push(List<HistoryCell> group) throws IOException {
+				if (group.get(0).y1 == 2) {
+					throw new IOException("disk full");
+				}
+				super.push(group);
+			}
+		};
+		for (int i = 0; i < 5; i++) {
+			history.add(group(i, 1, null));
+			assertCounts();
+		}
+		// 0 and 1 were spilled, 2 was lost: only 3 and 4 can be undone
+		assertEquals(2, history.size());
+		assertEquals(0, history.spilled);
+		assertEquals(4, y(history.get()));
+		assertEquals(3, y(history.get()));
+		assertNull(history.get());
+	}
+
+}
@@ -0,0 +1,85 @@
+package neoe.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import org.junit.Test;
+
+public class EncodingDetectorTest {
+
+	static byte[] bytes(int... values) {
+		byte[] buf = new byte[values.length];
+		for (int i = 0; i < values.length; i++) {
+			buf[i] = (byte) values[i];
+		}
+		return buf;
+	}
+
+	static String guess(byte[] buf) {
+		return EncodingDetector.guess(buf, buf.length, false);
+	}
+
+	@Test
+	public void testAsciiAndUtf8() throws Exception {
+		assertEquals(EncodingDetector.UTF8, guess("plain text".getBytes("UTF-8")));
+		assertEquals(EncodingDetector.UTF8,
+				guess("café 日本 😀".getBytes("UTF-8")));
+	}
+
+	@Test
+	public void testInvalidUtf8() {
+		// overlong '/', lone continuation byte, surrogate, beyond U+10FFFF
+		assertFalse(EncodingDetector.isUtf8(bytes(0xc0, 0xaf), 0, 2, false));
+		assertFalse(EncodingDetector.isUtf8(bytes(0x80), 0, 1, false));
+		assertFalse(EncodingDetector.isUtf8(bytes(0xed, 0xa0, 0x80), 0, 3,
+				false));
+		assertFalse(EncodingDetector.isUtf8(bytes(0xf4, 0x90, 0x80, 0x80), 0,
+				4, false));
+		assertTrue(EncodingDetector.isUtf8(bytes(0xf4, 0x8f, 0xbf, 0xbf), 0,
+				4, false));
+	}
+
+	@Test
+	public void testCutOffAtEndOfSample() {
+		byte[] buf = bytes('a', 0xe6, 0x97);
+		assertTrue(EncodingDetector.isUtf8(buf, 1, buf.length, true));
+		assertFalse(EncodingDetector.isUtf8(buf, 1, buf.length, false));
+	}
+
+	@Test
+	public void testBom() {
+		assertEquals(EncodingDetector.UTF8, guess(bytes(0xef, 0xbb, 0xbf, 'a')));
+		assertEquals("UTF-16BE", guess(bytes(0xfe, 0xff, 0, 'a')));
+		assertEquals("UTF-16LE", guess(bytes(0xff, 0xfe, 'a', 0)));
+	}
+
+	@Test
+	public void testBinary() {
+		assertNull(guess(bytes('P', 'K', 3, 4, 0, 0, 0x14)));
+		assertNull(guess(bytes(0xc3, 0xa9, 0)));
+	}
+
+	@Test
+	public void testLegacy() throws Exception {
+		assertEquals("sjis", guess("日本語".getBytes("Shift_JIS")));
+	}
+
+	@Test
+	public void testFile() throws Exception {
+		File file = File.createTempFile("encoding", ".txt");
+		try {
+			FileOutputStream out = new FileOutputStream(file);
+			out.write("über".getBytes("UTF-8"));
+			out.close();
+			assertEquals(EncodingDetector.UTF8, EncodingDetector.guess(file));
+		} finally {
+			file.delete();
+		}
+	}
+
+}
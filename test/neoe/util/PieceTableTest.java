@@ -0,0 +1,99 @@
+package neoe.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class PieceTableTest {
+
+	@Test
+	public void testInsertAndDelete() {
+		PieceTable table = new PieceTable("hello world");
+		table.insert(5, ",");
+		table.insert(table.length(), "!");
+		table.insert(0, ">> ");
+		assertEquals(">> hello, world!", table.toString());
+
+		table.delete(0, 3);
+		table.delete(5, 1);
+		assertEquals("hello world!", table.toString());
+		assertEquals(12, table.length());
+		assertEquals("lo wo", table.substring(3, 8));
+	}
+
+	@Test
+	public void testLineIndex() {
+		PieceTable table = PieceTable.fromLines(Arrays.asList("a", "bb", "",
+				"ccc"));
+		assertEquals(4, table.getLineCount());
+		assertEquals(0, table.getLineStart(0));
+		assertEquals(2, table.getLineStart(1));
+		assertEquals(5, table.getLineStart(2));
+		assertEquals(6, table.getLineStart(3));
+		assertEquals("", table.getLine(2));
+		assertEquals(3, table.getLineLength(3));
+
+		// a break inserted in the middle of a line splits it
+		table.insert(3, "x\ny");
+		assertEquals(Arrays.asList("a", "bx", "yb", "", "ccc"), table.asList());
+
+		// deleting breaks joins lines
+		table.delete(table.getLineStart(2) - 1, 1);
+		table.delete(table.getLineStart(2) - 1, 1);
+		assertEquals(Arrays.asList("a", "bxyb", "ccc"), table.asList());
+	}
+
+	@Test
+	public void testEmpty() {
+		PieceTable table = new PieceTable("");
+		assertEquals(0, table.length());
+		assertEquals(1, table.getLineCount());
+		assertEquals("", table.getLine(0));
+		table.insert(0, "\n");
+		assertEquals(2, table.getLineCount());
+		table.delete(0, 1);
+		assertEquals(1, table.getLineCount());
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testLineOutOfRange() {
+		new PieceTable("a\nb").getLineStart(2);
+	}
+
+	@Test
+	public void testMatchesStringBuilder() throws Exception {
+		Random rnd = new Random(42);
+		StringBuilder sb = new StringBuilder("first\nsecond\nthird");
+		PieceTable table = new PieceTable(sb);
+		String[] words = { "a", "\n", "bc\n", "\n\nd", "efgh" };
+
+		for (int i = 0; i < 2000; i++) {
+			if (sb.length() > 0 && rnd.nextInt(3) == 0) {
+				int from = rnd.nextInt(sb.length());
+				int length = rnd.nextInt(Math.min(8, sb.length() - from) + 1);
+				sb.delete(from, from + length);
+				table.delete(from, length);
+			} else {
+				int at = rnd.nextInt(sb.length() + 1);
+				String word = words[rnd.nextInt(words.length)];
+				sb.insert(at, word);
+				table.insert(at, word);
+			}
+		}
+		String text = sb.toString();
+		assertEquals(text, table.toString());
+		String[] lines = text.split("\n", -1);
+		assertEquals(lines.length, table.getLineCount());
+		for (int line = 0; line < lines.length; line++) {
+			assertEquals(lines[line], table.getLine(line));
+		}
+		StringWriter out = new StringWriter();
+		table.writeTo(out, "\r\n");
+		assertEquals(text.replace("\n", "\r\n"), out.toString());
+	}
+
+}